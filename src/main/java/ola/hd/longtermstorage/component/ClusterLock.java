@@ -0,0 +1,99 @@
+package ola.hd.longtermstorage.component;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.UUID;
+import ola.hd.longtermstorage.domain.LockLease;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Lock shared by all backend nodes, stored in MongoDB.
+ *
+ * Unlike {@linkplain MutexFactory}, which only works inside one JVM, this excludes holders on other nodes too. A lock
+ * is taken by inserting a {@linkplain LockLease} with the name as id; the unique id makes the insert fail while
+ * another holder has the lock. The lease expires after `ola.hd.lock.lease-seconds`, so a lock of a dead node does not
+ * block forever. The lease must be longer than the locked work takes.
+ */
+@Component
+public class ClusterLock {
+
+    /** Pause between tries to get a lock which is taken */
+    private static final long POLL_MILLIS = 100;
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${ola.hd.lock.lease-seconds:60}")
+    private long leaseSeconds;
+
+    /** How long to wait for a lock before giving up */
+    @Value("${ola.hd.lock.wait-seconds:30}")
+    private long waitSeconds;
+
+    public ClusterLock(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Try to get a lock without waiting
+     *
+     * @param name name of the locked resource
+     * @return token to release the lock, or null if the lock is held by someone else
+     */
+    public String tryLock(String name) {
+        String token = UUID.randomUUID().toString();
+        Instant now = Instant.now();
+        try {
+            // Matches only an expired lease. If there is none, a new one is inserted, which fails if the lock is held
+            mongoTemplate.upsert(
+                Query.query(Criteria.where("name").is(name).and("expiresAt").lt(now)),
+                Update.update("token", token).set("expiresAt", now.plusSeconds(leaseSeconds)),
+                LockLease.class
+            );
+            return token;
+        } catch (DuplicateKeyException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get a lock, waiting at most `ola.hd.lock.wait-seconds` for the holder to release it
+     *
+     * @param name name of the locked resource
+     * @return token to release the lock
+     * @throws IOException if the lock could not be taken in time
+     */
+    public String lock(String name) throws IOException {
+        Instant deadline = Instant.now().plusSeconds(waitSeconds);
+        while (true) {
+            String token = tryLock(name);
+            if (token != null) {
+                return token;
+            }
+            if (Instant.now().isAfter(deadline)) {
+                throw new IOException("Timed out waiting for lock '" + name + "'");
+            }
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for lock '" + name + "'", e);
+            }
+        }
+    }
+
+    /**
+     * Release a lock. Does nothing if the lease expired and was taken by someone else meanwhile
+     *
+     * @param name  name of the locked resource
+     * @param token token returned when taking the lock
+     */
+    public void unlock(String name, String token) {
+        mongoTemplate.remove(Query.query(Criteria.where("name").is(name).and("token").is(token)), LockLease.class);
+    }
+}
@@ -10,8 +10,15 @@ public class ExecutorWrapper implements DisposableBean {
 
     private final ExecutorService executorService;
 
+    private final int poolSize;
+
     public ExecutorWrapper() {
-        executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() - 1);
+        poolSize = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        executorService = Executors.newFixedThreadPool(poolSize);
+    }
+
+    public int getPoolSize() {
+        return poolSize;
     }
 
     public <T> Future<T> submit(Callable<T> task) {
@@ -0,0 +1,191 @@
+package ola.hd.longtermstorage.component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import ola.hd.longtermstorage.domain.ImportJobState;
+import ola.hd.longtermstorage.exceptions.AdmissionRejectedException;
+import ola.hd.longtermstorage.repository.mongo.ImportJobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Decides if an import is accepted before its body is read.
+ *
+ * An upload is rejected when too many import jobs are waiting, when this node is already receiving too many bytes or
+ * when the upload directory does not have enough free space left for the upload. The size of the upload is taken from
+ * the Content-Length header. Admitted uploads count as in-flight until the returned {@linkplain Ticket} is closed.
+ */
+@Component
+public class ImportAdmission {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImportAdmission.class);
+
+    private final ImportJobRepository importJobRepository;
+
+    /** Sum of the sizes of the uploads currently received by this node */
+    private final AtomicLong bytesInFlight = new AtomicLong();
+
+    @Value("${ola.hd.upload.dir}")
+    private String uploadDir;
+
+    @Value("${ola.hd.admission.enabled:true}")
+    private boolean enabled;
+
+    /** Maximum number of queued import jobs (of all nodes) */
+    @Value("${ola.hd.admission.max-queued-jobs:100}")
+    private long maxQueuedJobs;
+
+    /** Maximum sum of the sizes of the uploads received at the same time by this node */
+    @Value("${ola.hd.admission.max-bytes-in-flight:4GB}")
+    private DataSize maxBytesInFlight;
+
+    /** Free space which must be left in the upload dir after the upload and its extraction */
+    @Value("${ola.hd.admission.min-free-space:2GB}")
+    private DataSize minFreeSpace;
+
+    /** Size assumed for uploads without Content-Length */
+    @Value("${spring.servlet.multipart.max-request-size:1GB}")
+    private DataSize maxRequestSize;
+
+    @Value("${ola.hd.admission.retry-after-seconds:60}")
+    private long retryAfterSeconds;
+
+    public ImportAdmission(ImportJobRepository importJobRepository) {
+        this.importJobRepository = importJobRepository;
+    }
+
+    /**
+     * Check if an upload can be accepted
+     *
+     * @param request the import request. The body must not be read yet
+     * @return ticket which has to be closed after the upload has been received and extracted
+     * @throws AdmissionRejectedException with status 503 if the queue is full or the disk space is low and with 429 if
+     *                                    this node is already receiving too many bytes
+     */
+    public Ticket admit(HttpServletRequest request) {
+        long size = request.getContentLengthLong();
+        if (size < 0) {
+            size = maxRequestSize.toBytes();
+        }
+        return admit(size);
+    }
+
+    /**
+     * Check if an import of the given size can be accepted, e.g. of files which are already on the server
+     *
+     * @param size number of bytes to be received or extracted
+     * @return ticket which has to be closed after the data has been received and extracted
+     * @throws AdmissionRejectedException see {@linkplain #admit(HttpServletRequest)}
+     */
+    public Ticket admit(long size) {
+        if (!enabled) {
+            return new Ticket(0);
+        }
+
+        long queued = importJobRepository.countByState(ImportJobState.QUEUED);
+        if (queued >= maxQueuedJobs) {
+            reject(HttpStatus.SERVICE_UNAVAILABLE, String.format("Too many imports waiting (%d)", queued));
+        }
+
+        long inFlight = bytesInFlight.addAndGet(size);
+        Ticket ticket = new Ticket(size);
+        if (exceedsBytesInFlight(inFlight, size)) {
+            ticket.close();
+            reject(HttpStatus.TOO_MANY_REQUESTS, "Too many uploads in progress");
+        }
+        if (exceedsDiskSpace(inFlight)) {
+            ticket.close();
+            reject(HttpStatus.SERVICE_UNAVAILABLE, "Not enough space left for uploads");
+        }
+        return ticket;
+    }
+
+    /**
+     * Check if an upload would currently be admitted, without reserving anything. Used by clients to ask before
+     * sending an upload
+     *
+     * @param size size of the upload in bytes
+     * @return null if the upload would be admitted, otherwise the reason why not
+     */
+    public String probe(long size) {
+        if (!enabled) {
+            return null;
+        }
+        long queued = importJobRepository.countByState(ImportJobState.QUEUED);
+        if (queued >= maxQueuedJobs) {
+            return String.format("Too many imports waiting (%d)", queued);
+        }
+        long inFlight = bytesInFlight.get() + size;
+        if (exceedsBytesInFlight(inFlight, size)) {
+            return "Too many uploads in progress";
+        }
+        if (exceedsDiskSpace(inFlight)) {
+            return "Not enough space left for uploads";
+        }
+        return null;
+    }
+
+    private boolean exceedsBytesInFlight(long inFlight, long size) {
+        // A single upload larger than the budget is allowed if nothing else is in flight
+        return inFlight - size > 0 && inFlight > maxBytesInFlight.toBytes();
+    }
+
+    private boolean exceedsDiskSpace(long inFlight) {
+        // The ZIP and the extracted files may both be on disk, so twice the size of all uploads is needed
+        long usable = getUsableSpace();
+        return usable >= 0 && usable - 2 * inFlight < minFreeSpace.toBytes();
+    }
+
+    private void reject(HttpStatus status, String reason) {
+        logger.warn("Import rejected: {}", reason);
+        throw new AdmissionRejectedException(
+            status, reason + ". Please try again later.", retryAfterSeconds
+        );
+    }
+
+    /**
+     * @return usable space of the upload dir or -1 if it cannot be determined
+     */
+    private long getUsableSpace() {
+        try {
+            Path dir = Paths.get(uploadDir);
+            Files.createDirectories(dir);
+            return Files.getFileStore(dir).getUsableSpace();
+        } catch (IOException e) {
+            logger.warn("Cannot determine free space of upload dir '{}'", uploadDir, e);
+            return -1;
+        }
+    }
+
+    public long getBytesInFlight() {
+        return bytesInFlight.get();
+    }
+
+    /**
+     * An admitted upload. Closing it releases its bytes from the in-flight budget
+     */
+    public class Ticket implements AutoCloseable {
+
+        private long size;
+
+        private Ticket(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public void close() {
+            if (size > 0) {
+                bytesInFlight.addAndGet(-size);
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package ola.hd.longtermstorage.component;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import ola.hd.longtermstorage.controller.importarchive.BagImport;
+import ola.hd.longtermstorage.controller.importarchive.BagImportParams;
+import ola.hd.longtermstorage.controller.importarchive.FormParams;
+import ola.hd.longtermstorage.domain.ImportJob;
+import ola.hd.longtermstorage.domain.ImportJobState;
+import ola.hd.longtermstorage.domain.ImportProgress;
+import ola.hd.longtermstorage.domain.ImportStage;
+import ola.hd.longtermstorage.domain.TrackingInfo;
+import ola.hd.longtermstorage.domain.TrackingStatus;
+import ola.hd.longtermstorage.repository.mongo.ImportJobRepository;
+import ola.hd.longtermstorage.repository.mongo.TrackingRepository;
+import ola.hd.longtermstorage.service.PidService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Persistent queue for bag imports.
+ *
+ * Imports are saved as {@linkplain ImportJob} to MongoDB. Every backend node polls the collection and claims jobs
+ * atomically with findAndModify, so a job is only processed by one node at a time. While a job is running its lease
+ * is renewed. If a node dies the lease expires and the job is claimed again by any node, until the maximum number of
+ * attempts is reached. Because of this the upload directory must be shared between all backend nodes. A job interrupted
+ * because the archive manager was not available is released the same way, after `ola.hd.import.retry-delay-seconds`,
+ * and resumed from its last checkpoint.
+ *
+ * Leases are renewed by an own thread every `ola.hd.import.lease-renew-seconds`. Spring's scheduler has only one
+ * thread for all scheduled tasks, so a long running task there could let the lease of a running job expire, and the
+ * job would be imported a second time by another node.
+ */
+@Component
+public class ImportJobQueue implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImportJobQueue.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ImportJobRepository importJobRepository;
+
+    private final TrackingRepository trackingRepository;
+
+    private final PidService pidService;
+
+    private final ExecutorWrapper executor;
+
+    private final AutowireCapableBeanFactory beanFactory;
+
+    /** Identifies this backend node as lease owner */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /** Jobs currently processed by this node */
+    private final Set<String> runningJobs = ConcurrentHashMap.newKeySet();
+
+    @Value("${webnotifier.url}")
+    private String webnotifierUrl;
+
+    /** How long a claimed job belongs to a node without renewing the lease */
+    @Value("${ola.hd.import.lease-seconds:300}")
+    private long leaseSeconds;
+
+    /** How often the leases of running jobs are renewed. Must be well below the lease */
+    @Value("${ola.hd.import.lease-renew-seconds:60}")
+    private long leaseRenewSeconds;
+
+    /** How long an interrupted job waits before it is resumed */
+    @Value("${ola.hd.import.retry-delay-seconds:60}")
+    private long retryDelaySeconds;
+
+    /** How often a job is claimed before it is considered failed */
+    @Value("${ola.hd.import.max-attempts:3}")
+    private int maxAttempts;
+
+    /** Maximum number of jobs processed concurrently on this node. 0 means as many as the executor has threads */
+    @Value("${ola.hd.import.jobs-per-node:0}")
+    private int jobsPerNode;
+
+    private ScheduledExecutorService leaseRenewer;
+
+    public ImportJobQueue(
+        MongoTemplate mongoTemplate, ImportJobRepository importJobRepository, TrackingRepository trackingRepository,
+        PidService pidService, ExecutorWrapper executor, AutowireCapableBeanFactory beanFactory
+    ) {
+        this.mongoTemplate = mongoTemplate;
+        this.importJobRepository = importJobRepository;
+        this.trackingRepository = trackingRepository;
+        this.pidService = pidService;
+        this.executor = executor;
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        leaseRenewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "import-lease-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        leaseRenewer.scheduleWithFixedDelay(() -> {
+            try {
+                renewLeases();
+            } catch (Exception e) {
+                logger.error("Error renewing leases of import jobs", e);
+            }
+        }, leaseRenewSeconds, leaseRenewSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        leaseRenewer.shutdownNow();
+    }
+
+    /**
+     * Save an import to the queue and start processing it if this node has capacity.
+     *
+     * The TrackingInfo must already be saved, because the job only references it.
+     *
+     * @param params parameters of the import
+     * @return the saved job
+     */
+    public ImportJob enqueue(BagImportParams params) {
+        ImportJob job = new ImportJob(
+            params.getInfo().getId(), params.getPid(), params.getFormParams().getPrev(),
+            params.getDestination().toString(), params.getTempDir().toString(),
+            BagImport.createExportUrl(params.getPid()), params.getBagInfos()
+        );
+        job = importJobRepository.save(job);
+        dispatch();
+        return job;
+    }
+
+    /**
+     * Save the last completed stage of a job
+     *
+     * @param jobId id of the job
+     * @param stage completed stage
+     */
+    public void checkpoint(String jobId, ImportStage stage) {
+        mongoTemplate.updateFirst(
+            Query.query(Criteria.where("id").is(jobId).and("leaseOwner").is(nodeId)),
+            Update.update("stage", stage).set("updatedAt", Instant.now()),
+            ImportJob.class
+        );
+    }
+
+    /**
+     * Save the progress of the archive import of a job
+     *
+     * @param jobId    id of the job
+     * @param progress current progress. A snapshot is saved, so the import can go on while saving
+     */
+    public void saveProgress(String jobId, ImportProgress progress) {
+        mongoTemplate.updateFirst(
+            Query.query(Criteria.where("id").is(jobId).and("leaseOwner").is(nodeId)),
+            Update.update("progress", progress.copy()).set("updatedAt", Instant.now()),
+            ImportJob.class
+        );
+    }
+
+    /**
+     * Look for jobs and give up abandoned jobs
+     */
+    @Scheduled(fixedDelayString = "${ola.hd.import.poll-interval-ms:10000}")
+    public void poll() {
+        try {
+            failExhaustedJobs();
+            dispatch();
+        } catch (Exception e) {
+            logger.error("Error polling import jobs", e);
+        }
+    }
+
+    /**
+     * Claim jobs until this node has no capacity left or no job is available
+     */
+    private synchronized void dispatch() {
+        int capacity = jobsPerNode > 0 ? jobsPerNode : executor.getPoolSize();
+        while (runningJobs.size() < capacity) {
+            ImportJob job = claim();
+            if (job == null) {
+                return;
+            }
+            start(job);
+        }
+    }
+
+    /**
+     * Atomically take the oldest job which is queued or whose lease has expired
+     *
+     * @return the claimed job or null if there is none
+     */
+    private ImportJob claim() {
+        Instant now = Instant.now();
+        Criteria claimable = new Criteria().orOperator(
+            Criteria.where("state").is(ImportJobState.QUEUED),
+            Criteria.where("state").is(ImportJobState.RUNNING).and("leaseUntil").lt(now)
+        );
+        Query query = Query.query(
+            new Criteria().andOperator(claimable, Criteria.where("attempts").lt(maxAttempts))
+        ).with(Sort.by("createdAt"));
+        Update update = Update.update("state", ImportJobState.RUNNING)
+            .set("leaseOwner", nodeId)
+            .set("leaseUntil", now.plusSeconds(leaseSeconds))
+            .set("updatedAt", now)
+            .inc("attempts", 1);
+        return mongoTemplate.findAndModify(
+            query, update, FindAndModifyOptions.options().returnNew(true), ImportJob.class
+        );
+    }
+
+    private void start(ImportJob job) {
+        TrackingInfo info = trackingRepository.findById(job.getTrackingId()).orElse(null);
+        if (info == null) {
+            finish(job.getId(), ImportJobState.FAILED, "Tracking info not found");
+            return;
+        }
+        Path destination = Paths.get(job.getDestination());
+        if (!Files.isDirectory(destination)) {
+            String msg = "Import data not available on this node: " + job.getDestination();
+            logger.error(msg);
+            finish(job.getId(), ImportJobState.FAILED, msg);
+            info.setStatus(TrackingStatus.FAILED);
+            info.setMessage("Import data not available anymore");
+            trackingRepository.save(info);
+            return;
+        }
+        if (job.getAttempts() > 1) {
+            logger.info("Resuming import job '{}' for PID '{}', attempt {}", job.getId(), job.getPid(),
+                job.getAttempts()
+            );
+        }
+
+        FormParams formParams = new FormParams();
+        formParams.setPrev(job.getPrevPid());
+        formParams.setExtractedDir(destination);
+        formParams.setExtracted(true);
+        BagImportParams params = new BagImportParams(
+            destination, job.getPid(), formParams, job.readBagInfos(), info, Paths.get(job.getTempDir()),
+            webnotifierUrl
+        );
+        params.setJobId(job.getId());
+        params.setExportUrl(job.getExportUrl());
+        params.setStage(job.getStage());
+        params.setProgress(job.getProgress());
+
+        runningJobs.add(job.getId());
+        executor.submit(() -> {
+            boolean interrupted = false;
+            try {
+                BagImport bagImport = BagImport.create(beanFactory, params);
+                bagImport.run();
+                interrupted = bagImport.isInterrupted();
+                if (!interrupted) {
+                    if (info.getStatus() == TrackingStatus.SUCCESS) {
+                        finish(job.getId(), ImportJobState.SUCCEEDED, null);
+                    } else {
+                        finish(job.getId(), ImportJobState.FAILED, info.getMessage());
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Unexpected error running import job '" + job.getId() + "'", e);
+            } finally {
+                runningJobs.remove(job.getId());
+            }
+            // Only after it was removed from the running jobs, else its lease could be renewed again
+            if (interrupted) {
+                try {
+                    retryLater(job.getId());
+                } catch (Exception e) {
+                    logger.error("Error releasing interrupted import job '{}'", job.getId(), e);
+                }
+            }
+            try {
+                dispatch();
+            } catch (Exception e) {
+                logger.error("Error claiming next import job", e);
+            }
+        });
+    }
+
+    /**
+     * Set the final state of a job. Only done if this node still owns the job
+     */
+    private void finish(String jobId, ImportJobState state, String message) {
+        mongoTemplate.updateFirst(
+            Query.query(Criteria.where("id").is(jobId).and("leaseOwner").is(nodeId)),
+            Update.update("state", state).set("lastError", message).set("updatedAt", Instant.now())
+                .unset("leaseUntil"),
+            ImportJob.class
+        );
+    }
+
+    /**
+     * Let the lease of an interrupted job expire after the retry delay. Then it is claimed again, or given up by
+     * {@linkplain #failExhaustedJobs()} if it has no attempts left
+     */
+    private void retryLater(String jobId) {
+        mongoTemplate.updateFirst(
+            Query.query(Criteria.where("id").is(jobId).and("leaseOwner").is(nodeId)),
+            Update.update("leaseUntil", Instant.now().plusSeconds(retryDelaySeconds))
+                .set("lastError", "Interrupted, will be resumed").set("updatedAt", Instant.now()),
+            ImportJob.class
+        );
+    }
+
+    private void renewLeases() {
+        if (runningJobs.isEmpty()) {
+            return;
+        }
+        mongoTemplate.updateMulti(
+            Query.query(Criteria.where("id").in(runningJobs).and("leaseOwner").is(nodeId)
+                .and("state").is(ImportJobState.RUNNING)),
+            Update.update("leaseUntil", Instant.now().plusSeconds(leaseSeconds)),
+            ImportJob.class
+        );
+    }
+
+    /**
+     * Mark jobs as failed which were abandoned too often, e.g. because the node always crashed while processing them
+     */
+    private void failExhaustedJobs() {
+        Instant now = Instant.now();
+        for (ImportJob candidate : importJobRepository.findByStateAndLeaseUntilBeforeAndAttemptsGreaterThanEqual(
+            ImportJobState.RUNNING, now, maxAttempts
+        )) {
+            // Only one node should do the cleanup
+            ImportJob job = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("id").is(candidate.getId()).and("state").is(ImportJobState.RUNNING)
+                    .and("leaseUntil").lt(now)),
+                Update.update("state", ImportJobState.FAILED).set("lastError", "Maximum number of attempts reached")
+                    .set("updatedAt", now),
+                ImportJob.class
+            );
+            if (job == null) {
+                continue;
+            }
+            logger.error("Giving up import job '{}' for PID '{}' after {} attempts", job.getId(), job.getPid(),
+                job.getAttempts()
+            );
+            try {
+                pidService.deletePid(job.getPid());
+            } catch (Exception e) {
+                logger.error("error cleaning up. pid: '{}' - Deleting PID failed", job.getPid(), e);
+            }
+            trackingRepository.findById(job.getTrackingId()).ifPresent(info -> {
+                info.setStatus(TrackingStatus.FAILED);
+                info.setMessage("Import was aborted too often");
+                info.setPid(null);
+                trackingRepository.save(info);
+            });
+            FileSystemUtils.deleteRecursively(Paths.get(job.getTempDir()).toFile());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package ola.hd.longtermstorage.component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import ola.hd.longtermstorage.domain.IndexingBacklog;
+import ola.hd.longtermstorage.domain.IndexingEvent;
+import ola.hd.longtermstorage.domain.IndexingEventState;
+import ola.hd.longtermstorage.repository.mongo.IndexingEventRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Outbox for the requests to the web-notifier to put an import into the search-index, and for linking the previous
+ * version to a new one.
+ *
+ * An {@linkplain IndexingEvent} is saved with the archive of an import and stays in the collection till it was
+ * delivered, so no import is lost for indexing or linking if the web-notifier or the PID service is not available or
+ * the node stops. The events are taken in batches
+ * by the {@linkplain PostImportPipeline}. A failed event is tried again with an increasing delay and marked as failed
+ * after `ola.hd.indexing.max-attempts`. Failed events can be queued again by an administrator.
+ */
+@Component
+public class IndexingOutbox {
+
+    /** Number of failed events returned with the backlog */
+    private static final int BACKLOG_FAILED_EVENTS = 20;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final IndexingEventRepository indexingEventRepository;
+
+    /** How long a taken event belongs to a node before it can be taken again */
+    @Value("${ola.hd.indexing.claim-seconds:300}")
+    private long claimSeconds;
+
+    @Value("${ola.hd.indexing.max-attempts:30}")
+    private int maxAttempts;
+
+    /** Delay after the first failure. Doubled for every further failure */
+    @Value("${ola.hd.indexing.retry-delay-seconds:5}")
+    private long retryDelaySeconds;
+
+    @Value("${ola.hd.indexing.max-retry-delay-seconds:300}")
+    private long maxRetryDelaySeconds;
+
+    public IndexingOutbox(MongoTemplate mongoTemplate, IndexingEventRepository indexingEventRepository) {
+        this.mongoTemplate = mongoTemplate;
+        this.indexingEventRepository = indexingEventRepository;
+    }
+
+    /**
+     * Add the event for an import. Nothing is changed if the import already has an event
+     *
+     * @param pid     PID of the import
+     * @param prevPid PID of the previous version. Null for a new work
+     * @param jobId   Id of the ImportJob of the import. Can be null
+     */
+    public void add(String pid, String prevPid, String jobId) {
+        IndexingEvent event = new IndexingEvent(pid, prevPid, jobId);
+        mongoTemplate.upsert(
+            Query.query(Criteria.where("pid").is(pid)),
+            new Update()
+                .setOnInsert("prevPid", event.getPrevPid())
+                .setOnInsert("linkPending", event.isLinkPending())
+                .setOnInsert("jobId", event.getJobId())
+                .setOnInsert("state", event.getState())
+                .setOnInsert("attempts", 0)
+                .setOnInsert("nextAttemptAt", event.getNextAttemptAt())
+                .setOnInsert("createdAt", event.getCreatedAt())
+                .setOnInsert("updatedAt", event.getUpdatedAt()),
+            IndexingEvent.class
+        );
+    }
+
+    /**
+     * Take the next events to be sent, oldest first. The events are hidden from other nodes for
+     * `ola.hd.indexing.claim-seconds`, so they are sent again if this node dies.
+     *
+     * @param max maximum number of events to take
+     * @return the taken events
+     */
+    public List<IndexingEvent> claim(int max) {
+        List<IndexingEvent> res = new ArrayList<>();
+        while (res.size() < max) {
+            Instant now = Instant.now();
+            IndexingEvent event = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("state").is(IndexingEventState.PENDING).and("nextAttemptAt").lte(now))
+                    .with(Sort.by("nextAttemptAt")),
+                Update.update("nextAttemptAt", now.plusSeconds(claimSeconds)).set("updatedAt", now).inc("attempts", 1),
+                FindAndModifyOptions.options().returnNew(true),
+                IndexingEvent.class
+            );
+            if (event == null) {
+                break;
+            }
+            res.add(event);
+        }
+        return res;
+    }
+
+    /**
+     * Note that the previous version of an event was linked, so it is not linked again when sending fails
+     */
+    public void linked(IndexingEvent event) {
+        mongoTemplate.updateFirst(
+            Query.query(Criteria.where("pid").is(event.getPid())),
+            Update.update("linkPending", false).set("updatedAt", Instant.now()),
+            IndexingEvent.class
+        );
+        event.setLinkPending(false);
+    }
+
+    /**
+     * Remove an event which was accepted by the web-notifier
+     */
+    public void delivered(IndexingEvent event) {
+        indexingEventRepository.deleteById(event.getPid());
+    }
+
+    /**
+     * Schedule the next attempt for an event which could not be sent, or mark it as failed if it has no attempts left
+     *
+     * @param event taken event
+     * @param error why the event could not be sent
+     * @return true if the event will be tried again
+     */
+    public boolean failed(IndexingEvent event, String error) {
+        Instant now = Instant.now();
+        boolean retry = event.getAttempts() < maxAttempts;
+        Update update = Update.update("lastError", error).set("updatedAt", now);
+        if (retry) {
+            int exponent = Math.min(event.getAttempts() - 1, 20);
+            long delay = Math.min(retryDelaySeconds << Math.max(exponent, 0), maxRetryDelaySeconds);
+            update.set("nextAttemptAt", now.plusSeconds(delay));
+        } else {
+            update.set("state", IndexingEventState.FAILED);
+        }
+        mongoTemplate.updateFirst(Query.query(Criteria.where("pid").is(event.getPid())), update, IndexingEvent.class);
+        return retry;
+    }
+
+    /**
+     * Queue all failed events again
+     *
+     * @return number of queued events
+     */
+    public long retryFailed() {
+        Instant now = Instant.now();
+        return mongoTemplate.updateMulti(
+            Query.query(Criteria.where("state").is(IndexingEventState.FAILED)),
+            Update.update("state", IndexingEventState.PENDING).set("attempts", 0).set("nextAttemptAt", now)
+                .set("updatedAt", now),
+            IndexingEvent.class
+        ).getModifiedCount();
+    }
+
+    public IndexingBacklog getBacklog() {
+        List<IndexingEvent> oldest = indexingEventRepository.findByState(
+            IndexingEventState.PENDING, PageRequest.of(0, 1, Sort.by("createdAt"))
+        );
+        return new IndexingBacklog(
+            indexingEventRepository.countByState(IndexingEventState.PENDING),
+            indexingEventRepository.countByState(IndexingEventState.FAILED),
+            oldest.isEmpty() ? null : oldest.get(0).getCreatedAt(),
+            indexingEventRepository.findByState(
+                IndexingEventState.FAILED, PageRequest.of(0, BACKLOG_FAILED_EVENTS, Sort.by("createdAt"))
+            )
+        );
+    }
+}
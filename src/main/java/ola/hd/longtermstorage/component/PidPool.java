@@ -0,0 +1,135 @@
+package ola.hd.longtermstorage.component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.List;
+import ola.hd.longtermstorage.domain.PooledPid;
+import ola.hd.longtermstorage.service.PidService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pool of PIDs created in advance, so that an import does not have to wait for the PID service.
+ *
+ * The PIDs are created with placeholder data and saved to MongoDB, where every backend node can take one atomically.
+ * The import writes the real data with updatePid later anyway. A background task fills the pool up to
+ * `pid.pool.high-watermark` whenever it dropped below `pid.pool.low-watermark`, and deletes PIDs which were not used
+ * for `pid.pool.max-age-hours`. If the pool is empty or disabled, the PID is created directly. Works with every
+ * {@linkplain PidService}.
+ */
+@Component
+public class PidPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(PidPool.class);
+
+    /** Data of a PID in the pool, before it is used by an import */
+    private static final List<AbstractMap.SimpleImmutableEntry<String, String>> PLACEHOLDER_DATA = List.of(
+        new AbstractMap.SimpleImmutableEntry<>("STATUS", "reserved")
+    );
+
+    private final MongoTemplate mongoTemplate;
+
+    private final PidService pidService;
+
+    @Value("${pid.pool.enabled:false}")
+    private boolean enabled;
+
+    /** Refill the pool if it contains less PIDs */
+    @Value("${pid.pool.low-watermark:20}")
+    private int lowWatermark;
+
+    /** Number of PIDs in the pool after refilling */
+    @Value("${pid.pool.high-watermark:100}")
+    private int highWatermark;
+
+    /** Unused PIDs older than this are deleted */
+    @Value("${pid.pool.max-age-hours:168}")
+    private long maxAgeHours;
+
+    public PidPool(MongoTemplate mongoTemplate, PidService pidService) {
+        this.mongoTemplate = mongoTemplate;
+        this.pidService = pidService;
+    }
+
+    /**
+     * Get a PID for an import, from the pool if possible
+     *
+     * @param data meta-data for the PID if it has to be created directly
+     * @return the PID
+     * @throws IOException if the PID cannot be created
+     */
+    public String take(List<AbstractMap.SimpleImmutableEntry<String, String>> data) throws IOException {
+        if (enabled) {
+            PooledPid pooled = mongoTemplate.findAndRemove(
+                new Query().with(Sort.by("createdAt")), PooledPid.class
+            );
+            if (pooled != null) {
+                return pooled.getPid();
+            }
+            logger.info("PID pool is empty, creating PID directly");
+        }
+        return pidService.createPid(data);
+    }
+
+    /**
+     * Delete expired PIDs and fill up the pool if it is running low
+     */
+    @Scheduled(fixedDelayString = "${pid.pool.refill-interval-ms:10000}")
+    public void maintain() {
+        try {
+            if (enabled) {
+                reap(Criteria.where("createdAt").lt(Instant.now().minus(Duration.ofHours(maxAgeHours))));
+                refill();
+            } else {
+                // Pool was switched off, give back what is left
+                reap(new Criteria());
+            }
+        } catch (Exception e) {
+            logger.error("Error maintaining PID pool", e);
+        }
+    }
+
+    private void refill() {
+        long size = mongoTemplate.count(new Query(), PooledPid.class);
+        if (size >= lowWatermark) {
+            return;
+        }
+        int created = 0;
+        for (long i = size; i < highWatermark; i++) {
+            String pid;
+            try {
+                pid = pidService.createPid(PLACEHOLDER_DATA);
+            } catch (Exception e) {
+                logger.warn("Creating PID for the pool failed, created {} PIDs", created, e);
+                return;
+            }
+            mongoTemplate.insert(new PooledPid(pid));
+            created++;
+        }
+        logger.info("Added {} PIDs to the pool", created);
+    }
+
+    /**
+     * Delete the PIDs matching `criteria`. PIDs are removed from the pool before they are deleted, so an import never
+     * gets a deleted PID
+     */
+    private void reap(Criteria criteria) {
+        PooledPid pooled;
+        while ((pooled = mongoTemplate.findAndRemove(Query.query(criteria), PooledPid.class)) != null) {
+            try {
+                pidService.deletePid(pooled.getPid());
+            } catch (Exception e) {
+                logger.error("Deleting unused PID '{}' failed", pooled.getPid(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ola.hd.longtermstorage.component;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import ola.hd.longtermstorage.service.PidService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes data appended to PIDs in the background and merges appends to the same PID.
+ *
+ * Appending to a PID means reading and rewriting the whole record. The appends to one PID arriving within
+ * `pid.writer.linger-ms` are collected and written with one {@linkplain PidService#appendData}, e.g. the
+ * NEXT-VERSIONs of many imports of the same work. The PID service takes care that appends of different nodes do not
+ * overwrite each other.
+ */
+@Component
+public class PidWriter implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(PidWriter.class);
+
+    private final PidService pidService;
+
+    /** Appends waiting to be written, by PID */
+    private final ConcurrentHashMap<String, Batch> pending = new ConcurrentHashMap<>();
+
+    /** How long to wait for more appends to a PID before writing */
+    @Value("${pid.writer.linger-ms:500}")
+    private long lingerMs;
+
+    @Value("${pid.writer.threads:2}")
+    private int threads;
+
+    private ScheduledExecutorService scheduler;
+
+    public PidWriter(PidService pidService) {
+        this.pidService = pidService;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        AtomicInteger counter = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "pid-writer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        if (!pending.isEmpty()) {
+            logger.warn("Shutting down with unwritten data for {} PIDs", pending.size());
+        }
+    }
+
+    /**
+     * Append data to a PID
+     *
+     * @param pid  the PID
+     * @param data data to be appended
+     * @return completed when the data is written, or completed exceptionally if writing failed
+     */
+    public CompletableFuture<Void> append(String pid, List<AbstractMap.SimpleImmutableEntry<String, String>> data) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Batch batch = pending.compute(pid, (k, v) -> {
+            Batch res = v != null ? v : new Batch();
+            res.data.addAll(data);
+            res.futures.add(future);
+            return res;
+        });
+        // Only the first append of a batch schedules the write
+        if (batch.futures.get(0) == future) {
+            try {
+                scheduler.schedule(() -> write(pid), lingerMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                pending.remove(pid, batch);
+                future.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    private void write(String pid) {
+        Batch batch = pending.remove(pid);
+        if (batch == null) {
+            return;
+        }
+        try {
+            pidService.appendData(pid, batch.data);
+            if (batch.futures.size() > 1) {
+                logger.debug("Wrote {} appends to PID '{}' at once", batch.futures.size(), pid);
+            }
+            batch.futures.forEach(f -> f.complete(null));
+        } catch (Exception e) {
+            batch.futures.forEach(f -> f.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Appends to one PID. Only changed inside {@linkplain ConcurrentHashMap#compute}
+     */
+    private static class Batch {
+
+        private final List<AbstractMap.SimpleImmutableEntry<String, String>> data = new ArrayList<>();
+
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+    }
+}
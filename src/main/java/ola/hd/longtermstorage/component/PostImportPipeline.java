@@ -0,0 +1,248 @@
+package ola.hd.longtermstorage.component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import ola.hd.longtermstorage.domain.ImportStage;
+import ola.hd.longtermstorage.domain.IndexingEvent;
+import ola.hd.longtermstorage.service.ArchiveManagerService;
+import ola.hd.longtermstorage.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Work to be done after an import was committed to the archive manager, for the events of the
+ * {@linkplain IndexingOutbox}: link the previous version to the new one (NEXT-VERSION in the PID, written by the
+ * {@linkplain PidWriter}) and send the event to the web-notifier.
+ *
+ * The import workers only save the event and are free for the next import right away. Every step is a short task on
+ * a small scheduler. Every `ola.hd.indexing.poll-interval-ms` a batch of at most `ola.hd.indexing.batch-size` events is
+ * taken from the outbox. The previous version is linked first; an event is sent as soon as the mets.xml of the import
+ * can be read from the archive manager. If linking or sending fails, the outbox schedules the event again with a
+ * delay. So waiting does not block a thread and the load on the indexer is limited during mass imports.
+ */
+@Component
+public class PostImportPipeline implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(PostImportPipeline.class);
+
+    private final ArchiveManagerService archiveManagerService;
+
+    private final PidWriter pidWriter;
+
+    private final ImportJobQueue importJobQueue;
+
+    private final IndexingOutbox indexingOutbox;
+
+    private final OkHttpClient webnotifierHttpClient;
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${webnotifier.url}")
+    private String webnotifierUrl;
+
+    @Value("${ola.hd.post-import.threads:2}")
+    private int threads;
+
+    /** Maximum number of indexing events sent per poll */
+    @Value("${ola.hd.indexing.batch-size:20}")
+    private int batchSize;
+
+    @Value("${ola.hd.indexing.poll-interval-ms:5000}")
+    private long pollIntervalMs;
+
+    private ScheduledExecutorService scheduler;
+
+    public PostImportPipeline(
+        ArchiveManagerService archiveManagerService, PidWriter pidWriter, ImportJobQueue importJobQueue,
+        IndexingOutbox indexingOutbox, @Qualifier("webnotifierHttpClient") OkHttpClient webnotifierHttpClient,
+        ObjectMapper objectMapper
+    ) {
+        this.archiveManagerService = archiveManagerService;
+        this.pidWriter = pidWriter;
+        this.importJobQueue = importJobQueue;
+        this.indexingOutbox = indexingOutbox;
+        this.webnotifierHttpClient = webnotifierHttpClient;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        AtomicInteger counter = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "post-import-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sendIndexingEvents, pollIntervalMs, pollIntervalMs,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    @Override
+    public void destroy() {
+        int pending = scheduler.shutdownNow().size();
+        if (pending > 0) {
+            logger.info("Shutting down with {} unfinished post-import tasks, they are taken from the outbox again",
+                pending
+            );
+        }
+    }
+
+    /**
+     * Send a batch of events from the outbox to the web-notifier
+     */
+    private void sendIndexingEvents() {
+        try {
+            for (IndexingEvent event : indexingOutbox.claim(batchSize)) {
+                if (event.isLinkPending()) {
+                    linkPreviousVersion(event);
+                } else {
+                    send(event);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error sending indexing events", e);
+        }
+    }
+
+    /**
+     * Update the old PID to link to the new version, then send the event
+     */
+    private void linkPreviousVersion(IndexingEvent event) {
+        String pid = event.getPid();
+        String prevPid = event.getPrevPid();
+        pidWriter.append(prevPid, List.of(new AbstractMap.SimpleImmutableEntry<>("NEXT-VERSION", pid)))
+            .whenComplete((res, e) -> {
+                if (e != null) {
+                    logger.warn("Appending NEXT-VERSION to PID '{}' failed", prevPid, e);
+                    retryLater(event, "Appending NEXT-VERSION to PID " + prevPid + " failed: " + e.getMessage());
+                    return;
+                }
+                try {
+                    indexingOutbox.linked(event);
+                } catch (Exception ex) {
+                    // The event is sent anyway. If sending fails too, the previous version is linked a second time
+                    logger.warn("Saving the link of PID '{}' to '{}' failed", prevPid, pid, ex);
+                }
+                schedule(() -> send(event), 0);
+            });
+    }
+
+    private void send(IndexingEvent event) {
+        String pid = event.getPid();
+        String error;
+        if (!isMetsAvailable(pid)) {
+            error = "mets.xml not available yet";
+        } else {
+            error = notifyWebnotifier(pid, event.getPrevPid());
+        }
+        if (error == null) {
+            indexingOutbox.delivered(event);
+            if (event.getJobId() != null) {
+                try {
+                    importJobQueue.checkpoint(event.getJobId(), ImportStage.NOTIFIED);
+                } catch (Exception e) {
+                    logger.warn("Saving checkpoint '{}' for job '{}' failed", ImportStage.NOTIFIED, event.getJobId(),
+                        e
+                    );
+                }
+            }
+        } else {
+            retryLater(event, error);
+        }
+    }
+
+    private void retryLater(IndexingEvent event, String error) {
+        try {
+            if (!indexingOutbox.failed(event, error)) {
+                logger.error("Giving up post-import work for pid '{}' after {} attempts: {}", event.getPid(),
+                    event.getAttempts(), error
+                );
+            }
+        } catch (Exception e) {
+            // Taken again from the outbox after the claim expired
+            logger.error("Error scheduling the next attempt for pid '{}'", event.getPid(), e);
+        }
+    }
+
+    private boolean isMetsAvailable(String pid) {
+        try {
+            Map<String, String> bagInfoMap = archiveManagerService.getBagInfoTxt(pid);
+            String metsPath = Utils.getMetsPath(bagInfoMap);
+            try (Response response = archiveManagerService.exportFile(pid, metsPath)) {
+                return response.isSuccessful();
+            }
+        } catch (Exception e) {
+            Utils.logDebug("mets.xml for pid '" + pid + "' not available yet: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Inform web-notifier about the new ocrd-zip so that it can put it into the search-index.
+     *
+     * @return null if successful, the error otherwise
+     */
+    private String notifyWebnotifier(String pid, String prevPid) {
+        try {
+            ObjectNode node = objectMapper.createObjectNode();
+            node.put("document", pid);
+            node.put("context", "ocrd");
+            node.put("product", "olahds");
+            node.put("prev", prevPid != null ? prevPid : "");
+            final String json = objectMapper.writeValueAsString(node);
+
+            Utils.logDebug("Sending json to mets-Importer: '" + json + "'");
+
+            RequestBody body = RequestBody.create(
+                okhttp3.MediaType.parse(
+                    "application/json; charset=utf-8"
+                ), json
+            );
+
+            Request request = new Request.Builder().url(webnotifierUrl)
+                .addHeader("Accept", "*/*").addHeader("Content-Type", "application/json")
+                .addHeader("Cache-Control", "no-cache").post(body).build();
+
+            try (Response response = webnotifierHttpClient.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    logger.warn(
+                        "Request to web-notifier failed. Message: '{}'. Code: '{}'",
+                        response.message(), response.code()
+                    );
+                    return "web-notifier answered with " + response.code();
+                }
+                logger.info("Successfully sent request to web-notifier for PID: '" + pid + "'");
+                return null;
+            }
+        } catch (Exception e) {
+            logger.warn("Error while trying to send request to web-notifier", e);
+            return "Error sending request to web-notifier: " + e.getMessage();
+        }
+    }
+
+    private void schedule(Runnable step, long delaySeconds) {
+        try {
+            scheduler.schedule(step, delaySeconds, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Post-import task rejected, shutting down");
+        }
+    }
+}
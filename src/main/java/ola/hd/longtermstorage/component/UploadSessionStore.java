@@ -0,0 +1,371 @@
+package ola.hd.longtermstorage.component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import ola.hd.longtermstorage.domain.UploadSession;
+import ola.hd.longtermstorage.domain.UploadSessionState;
+import ola.hd.longtermstorage.repository.mongo.UploadSessionRepository;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+/**
+ * Receives OCRD-ZIPs in chunks for resumable uploads.
+ *
+ * Every chunk is a request of its own and is written with positional writes to the file of its
+ * {@linkplain UploadSession}, so a request only lasts as long as one chunk and an interrupted upload loses at most the
+ * unwritten part of one chunk. A chunk must start at the committed offset of the session. Before writing, the session
+ * is locked with findAndModify, so two requests (possibly on different nodes) cannot write to the same session at the
+ * same time. The files are saved in the upload directory, which must be shared between the nodes.
+ *
+ * Sessions which are not continued until they expire are removed together with their file.
+ */
+@Component
+public class UploadSessionStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionStore.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final UploadSessionRepository uploadSessionRepository;
+
+    @Value("${ola.hd.upload.dir}")
+    private String uploadDir;
+
+    /** Maximum size of a ZIP uploaded in chunks */
+    @Value("${ola.hd.upload.session.max-size:10GB}")
+    private DataSize maxSize;
+
+    /** Maximum size of one chunk */
+    @Value("${ola.hd.upload.session.max-chunk-size:64MB}")
+    private DataSize maxChunkSize;
+
+    /** How long a session is kept after the last chunk */
+    @Value("${ola.hd.upload.session.expiry-hours:24}")
+    private long expiryHours;
+
+    /** Maximum time to receive one chunk. Afterwards the lock can be taken by another request */
+    @Value("${ola.hd.upload.session.lock-seconds:600}")
+    private long lockSeconds;
+
+    public UploadSessionStore(MongoTemplate mongoTemplate, UploadSessionRepository uploadSessionRepository) {
+        this.mongoTemplate = mongoTemplate;
+        this.uploadSessionRepository = uploadSessionRepository;
+    }
+
+    /**
+     * Create a new upload session and its (empty) file
+     *
+     * @param username  owner of the session
+     * @param fileName  name of the ZIP
+     * @param totalSize size of the complete ZIP
+     * @param prev      PID of the previous version, optional
+     * @return the created session
+     */
+    public UploadSession create(String username, String fileName, long totalSize, String prev) {
+        String name = FilenameUtils.getName(fileName);
+        if (StringUtils.isBlank(name)) {
+            throw new HttpClientErrorException(HttpStatus.BAD_REQUEST, "A file name must be provided");
+        }
+        if (totalSize <= 0) {
+            throw new HttpClientErrorException(HttpStatus.BAD_REQUEST, "The size must be greater than 0");
+        }
+        if (totalSize > maxSize.toBytes()) {
+            throw new HttpClientErrorException(
+                HttpStatus.PAYLOAD_TOO_LARGE, "The file must not be larger than " + maxSize.toMegabytes() + "MB"
+            );
+        }
+
+        UploadSession session = uploadSessionRepository.save(
+            new UploadSession(username, name, totalSize, prev, nextExpiry())
+        );
+        try {
+            Files.createDirectories(getDirectory(session));
+            Files.createFile(getFile(session));
+        } catch (IOException e) {
+            logger.error("Cannot create file for upload session '{}'", session.getId(), e);
+            remove(session, true);
+            throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR, "Upload cannot be started");
+        }
+        return session;
+    }
+
+    /**
+     * Get a session of the user
+     *
+     * @throws HttpClientErrorException 404 if the session does not exist, 403 if it belongs to another user
+     */
+    public UploadSession get(String id, String username) {
+        UploadSession session = uploadSessionRepository.findById(id).orElseThrow(
+            () -> new HttpClientErrorException(HttpStatus.NOT_FOUND, "Upload session not found")
+        );
+        if (!session.getUsername().equals(username)) {
+            throw new HttpClientErrorException(HttpStatus.FORBIDDEN, "Upload session belongs to another user");
+        }
+        return session;
+    }
+
+    /**
+     * Write a chunk to the file of the session.
+     *
+     * The chunk is written as it is read from the request. If the client disconnects, the bytes received so far are
+     * committed, so the upload can be continued after them.
+     *
+     * @param id       id of the session
+     * @param username user sending the chunk
+     * @param offset   position of the chunk in the ZIP. Must be the committed offset of the session
+     * @param length   size of the chunk (Content-Length)
+     * @param in       content of the chunk
+     * @return the session with the new committed offset
+     * @throws HttpClientErrorException 409 if the offset does not match or another chunk is being written
+     */
+    public UploadSession writeChunk(String id, String username, long offset, long length, InputStream in) {
+        if (length < 0) {
+            throw new HttpClientErrorException(HttpStatus.LENGTH_REQUIRED, "The Content-Length must be provided");
+        }
+        if (length > maxChunkSize.toBytes()) {
+            throw new HttpClientErrorException(
+                HttpStatus.PAYLOAD_TOO_LARGE, "A chunk must not be larger than " + maxChunkSize.toMegabytes() + "MB"
+            );
+        }
+        String lockToken = UUID.randomUUID().toString();
+        UploadSession session = lock(id, username, offset, lockToken);
+        if (offset + length > session.getTotalSize()) {
+            unlock(session, offset, lockToken);
+            throw new HttpClientErrorException(HttpStatus.BAD_REQUEST, String.format(
+                "The chunk exceeds the size of the file (%d bytes)", session.getTotalSize()
+            ));
+        }
+
+        long written = 0;
+        IOException failure = null;
+        try (FileChannel channel = FileChannel.open(getFile(session), StandardOpenOption.WRITE)) {
+            ReadableByteChannel source = Channels.newChannel(in);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (written < length) {
+                buffer.clear().limit((int)Math.min(BUFFER_SIZE, length - written));
+                int n;
+                try {
+                    n = source.read(buffer);
+                } catch (IOException e) {
+                    // The client disconnected. Keep what was received until now
+                    failure = e;
+                    break;
+                }
+                if (n < 0) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer, offset + written);
+                }
+            }
+            // Only commit bytes which are on disk
+            channel.force(false);
+        } catch (IOException e) {
+            logger.error("Cannot write chunk of upload session '{}'", id, e);
+            unlock(session, offset, lockToken);
+            throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR, "The chunk could not be saved");
+        }
+
+        UploadSession result = commit(session, offset, written, lockToken);
+        if (failure != null) {
+            logger.info("Upload of chunk for session '{}' interrupted after {} bytes", id, written, failure);
+            throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR, String.format(
+                "The upload process was interrupted. Continue at offset %d.", offset + written
+            ));
+        }
+        return result;
+    }
+
+    /**
+     * Mark a completely uploaded session as being finalized. No more chunks are accepted afterwards
+     *
+     * @return the session
+     * @throws HttpClientErrorException 409 if the upload is not complete or a chunk is being written
+     */
+    public UploadSession startFinalize(String id, String username) {
+        UploadSession session = get(id, username);
+        if (session.getCommittedOffset() != session.getTotalSize()) {
+            throw new HttpClientErrorException(HttpStatus.CONFLICT, String.format(
+                "Upload is not complete. Received %d of %d bytes", session.getCommittedOffset(), session.getTotalSize()
+            ));
+        }
+        UploadSession finalizing = mongoTemplate.findAndModify(
+            Query.query(Criteria.where("id").is(id)
+                .and("state").is(UploadSessionState.OPEN)
+                .and("committedOffset").is(session.getTotalSize())
+                .orOperator(Criteria.where("lockedUntil").is(null), Criteria.where("lockedUntil").lt(Instant.now()))),
+            Update.update("state", UploadSessionState.FINALIZING).set("updatedAt", Instant.now()),
+            FindAndModifyOptions.options().returnNew(true), UploadSession.class
+        );
+        if (finalizing == null) {
+            throw new HttpClientErrorException(HttpStatus.CONFLICT, "Upload is already being finalized or in use");
+        }
+        return finalizing;
+    }
+
+    /**
+     * Abort an upload and remove its file
+     */
+    public void abort(String id, String username) {
+        get(id, username);
+        UploadSession session = mongoTemplate.findAndRemove(
+            Query.query(Criteria.where("id").is(id)
+                .and("state").is(UploadSessionState.OPEN)
+                .orOperator(Criteria.where("lockedUntil").is(null), Criteria.where("lockedUntil").lt(Instant.now()))),
+            UploadSession.class
+        );
+        if (session == null) {
+            throw new HttpClientErrorException(HttpStatus.CONFLICT, "Upload is being finalized or in use");
+        }
+        FileSystemUtils.deleteRecursively(getDirectory(session).toFile());
+    }
+
+    /**
+     * Remove a session
+     *
+     * @param session     the session
+     * @param deleteFiles true to remove the directory of the session, false if it was passed on to the import
+     */
+    public void remove(UploadSession session, boolean deleteFiles) {
+        uploadSessionRepository.deleteById(session.getId());
+        if (deleteFiles) {
+            FileSystemUtils.deleteRecursively(getDirectory(session).toFile());
+        }
+    }
+
+    /**
+     * Directory of the session. It is used as temporary directory of the import after finalizing
+     */
+    public Path getDirectory(UploadSession session) {
+        return Paths.get(uploadDir, "upload-" + session.getId());
+    }
+
+    /**
+     * File the ZIP is written to
+     */
+    public Path getFile(UploadSession session) {
+        return getDirectory(session).resolve(session.getFileName());
+    }
+
+    /**
+     * Remove sessions which have not been continued in time
+     */
+    @Scheduled(fixedDelayString = "${ola.hd.upload.session.cleanup-interval-ms:600000}")
+    public void removeExpired() {
+        try {
+            Instant now = Instant.now();
+            for (UploadSession candidate : uploadSessionRepository.findByExpiresAtBefore(now)) {
+                // Another node may remove it at the same time or a chunk may just have been received
+                UploadSession session = mongoTemplate.findAndRemove(
+                    Query.query(Criteria.where("id").is(candidate.getId())
+                        .and("state").is(UploadSessionState.OPEN)
+                        .and("expiresAt").lt(now)
+                        .orOperator(Criteria.where("lockedUntil").is(null), Criteria.where("lockedUntil").lt(now))),
+                    UploadSession.class
+                );
+                if (session != null) {
+                    logger.info("Removing expired upload session '{}' of user '{}'", session.getId(),
+                        session.getUsername()
+                    );
+                    FileSystemUtils.deleteRecursively(getDirectory(session).toFile());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error removing expired upload sessions", e);
+        }
+    }
+
+    /**
+     * Lock the session for writing a chunk at offset
+     *
+     * @throws HttpClientErrorException if the session cannot be locked
+     */
+    private UploadSession lock(String id, String username, long offset, String lockToken) {
+        Instant now = Instant.now();
+        UploadSession session = mongoTemplate.findAndModify(
+            Query.query(Criteria.where("id").is(id)
+                .and("username").is(username)
+                .and("state").is(UploadSessionState.OPEN)
+                .and("committedOffset").is(offset)
+                .orOperator(Criteria.where("lockedUntil").is(null), Criteria.where("lockedUntil").lt(now))),
+            Update.update("lockedUntil", now.plusSeconds(lockSeconds)).set("lockToken", lockToken),
+            FindAndModifyOptions.options().returnNew(true), UploadSession.class
+        );
+        if (session != null) {
+            return session;
+        }
+
+        // Find out why the session could not be locked
+        UploadSession current = get(id, username);
+        if (current.getState() != UploadSessionState.OPEN) {
+            throw new HttpClientErrorException(HttpStatus.CONFLICT, "Upload is already being finalized");
+        } else if (current.getCommittedOffset() != offset) {
+            throw new HttpClientErrorException(HttpStatus.CONFLICT, String.format(
+                "Chunk must start at offset %d", current.getCommittedOffset()
+            ));
+        } else {
+            throw new HttpClientErrorException(HttpStatus.CONFLICT, "Another chunk is currently being uploaded");
+        }
+    }
+
+    private void unlock(UploadSession session, long offset, String lockToken) {
+        commit(session, offset, 0, lockToken);
+    }
+
+    /**
+     * Save the new offset after writing a chunk and release the lock
+     */
+    private UploadSession commit(UploadSession session, long offset, long written, String lockToken) {
+        Instant now = Instant.now();
+        UploadSession committed = mongoTemplate.findAndModify(
+            Query.query(Criteria.where("id").is(session.getId())
+                .and("committedOffset").is(offset)
+                .and("lockToken").is(lockToken)),
+            Update.update("committedOffset", offset + written)
+                .unset("lockedUntil")
+                .unset("lockToken")
+                .set("expiresAt", nextExpiry())
+                .set("updatedAt", now),
+            FindAndModifyOptions.options().returnNew(true), UploadSession.class
+        );
+        if (committed == null) {
+            // The lock expired and was taken by another request
+            logger.warn("Lost lock of upload session '{}' while writing chunk at offset {}", session.getId(), offset);
+            throw new HttpClientErrorException(HttpStatus.CONFLICT, "The chunk took too long to upload");
+        }
+        return committed;
+    }
+
+    private Instant nextExpiry() {
+        return Instant.now().plus(Duration.ofHours(expiryHours));
+    }
+}
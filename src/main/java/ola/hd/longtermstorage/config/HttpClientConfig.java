@@ -0,0 +1,96 @@
+package ola.hd.longtermstorage.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * HTTP clients for the services used by the backend.
+ *
+ * Every upstream gets one client with its own connection pool, so connections are reused between calls and one slow
+ * upstream cannot use up the connections of the others. Pool sizes and timeouts are configured with the properties
+ * `<prefix>.http.*` (see application.properties.template). The clients are instrumented with
+ * {@linkplain HttpClientMetrics}.
+ */
+@Configuration
+public class HttpClientConfig {
+
+    private final Environment env;
+
+    private final MeterRegistry registry;
+
+    public HttpClientConfig(Environment env, MeterRegistry registry) {
+        this.env = env;
+        this.registry = registry;
+    }
+
+    @Bean
+    public OkHttpClient cdstarHttpClient(@Value("${cdstar.url}") String cdstarUrl) {
+        HttpUrl base = HttpUrl.parse(cdstarUrl);
+        int baseSize = base != null ? base.pathSize() - 1 : 0;
+        return buildClient("cdstar", "cdstar", request -> mapCdstarEndpoint(request, baseSize));
+    }
+
+    @Bean
+    public OkHttpClient pidHttpClient() {
+        return buildClient("pid", "epic", request -> "handles");
+    }
+
+    @Bean
+    public OkHttpClient webnotifierHttpClient() {
+        return buildClient("webnotifier", "webnotifier", request -> "jobs");
+    }
+
+    private OkHttpClient buildClient(String name, String prefix, Function<Request, String> endpointMapper) {
+        ConnectionPool pool = new ConnectionPool(
+            getInt(prefix, "max-idle-connections", 16), getInt(prefix, "keep-alive-seconds", 300), TimeUnit.SECONDS
+        );
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(getInt(prefix, "max-requests", 64));
+        dispatcher.setMaxRequestsPerHost(getInt(prefix, "max-requests-per-host", 32));
+
+        return new OkHttpClient.Builder()
+            .connectionPool(pool)
+            .dispatcher(dispatcher)
+            .connectTimeout(getInt(prefix, "connect-timeout-seconds", 10), TimeUnit.SECONDS)
+            .readTimeout(getInt(prefix, "read-timeout-seconds", 60), TimeUnit.SECONDS)
+            .writeTimeout(getInt(prefix, "write-timeout-seconds", 60), TimeUnit.SECONDS)
+            .eventListenerFactory(new HttpClientMetrics(registry, name, pool, endpointMapper))
+            .build();
+    }
+
+    private int getInt(String prefix, String key, int defaultValue) {
+        return env.getProperty(prefix + ".http." + key, Integer.class, defaultValue);
+    }
+
+    /**
+     * Map CDSTAR-URLs to the kind of resource they address: transaction, vault (search, create archive), archive or
+     * file
+     */
+    private static String mapCdstarEndpoint(Request request, int baseSize) {
+        List<String> segments = request.url().pathSegments();
+        int size = segments.size() - baseSize;
+        if (size > 0 && segments.get(segments.size() - 1).isEmpty()) {
+            size--;
+        }
+        if (size > 0 && "_tx".equals(segments.get(baseSize))) {
+            return "transaction";
+        } else if (size <= 1) {
+            return "vault";
+        } else if (size == 2) {
+            return "archive";
+        } else {
+            return "file";
+        }
+    }
+}
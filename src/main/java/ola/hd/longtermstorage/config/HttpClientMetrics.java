@@ -0,0 +1,116 @@
+package ola.hd.longtermstorage.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Records metrics for the calls of an OkHttpClient.
+ *
+ * - `olahd.http.client.requests`: timer for every call, tagged with client, endpoint, method and status (or
+ *   IO_ERROR if the call failed)
+ * - `olahd.http.client.connections`: counter of connections acquired by calls, tagged with `reused` true or false
+ * - `olahd.http.client.pool`: gauges for the total and idle connections of the pool
+ *
+ * The endpoint is the String-tag of the request (see {@linkplain Request.Builder#tag(Class, Object)}) or, if not
+ * set, determined with the endpoint-mapper of the client to avoid tagging with full URLs.
+ */
+public class HttpClientMetrics implements EventListener.Factory {
+
+    private final MeterRegistry registry;
+
+    private final String client;
+
+    private final Function<Request, String> endpointMapper;
+
+    public HttpClientMetrics(
+        MeterRegistry registry, String client, ConnectionPool pool, Function<Request, String> endpointMapper
+    ) {
+        this.registry = registry;
+        this.client = client;
+        this.endpointMapper = endpointMapper;
+        Gauge.builder("olahd.http.client.pool", pool, ConnectionPool::connectionCount)
+            .tag("client", client).tag("state", "total").register(registry);
+        Gauge.builder("olahd.http.client.pool", pool, ConnectionPool::idleConnectionCount)
+            .tag("client", client).tag("state", "idle").register(registry);
+    }
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallListener();
+    }
+
+    private String endpoint(Request request) {
+        String tag = request.tag(String.class);
+        return tag != null ? tag : endpointMapper.apply(request);
+    }
+
+    /**
+     * Listener for a single call
+     */
+    private class CallListener extends EventListener {
+
+        private long start;
+        private boolean connected;
+        private String status = "UNKNOWN";
+
+        @Override
+        public void callStart(Call call) {
+            start = System.nanoTime();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connected = true;
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            Counter.builder("olahd.http.client.connections")
+                .tag("client", client)
+                .tag("reused", String.valueOf(!connected))
+                .register(registry)
+                .increment();
+            // Following requests of the call (redirects) may get another connection
+            connected = false;
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            status = String.valueOf(response.code());
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            record(call, status);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            record(call, "IO_ERROR");
+        }
+
+        private void record(Call call, String outcome) {
+            Request request = call.request();
+            Timer.builder("olahd.http.client.requests")
+                .tag("client", client)
+                .tag("endpoint", endpoint(request))
+                .tag("method", request.method())
+                .tag("status", outcome)
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
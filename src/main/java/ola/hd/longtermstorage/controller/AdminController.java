@@ -6,8 +6,11 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import java.util.ArrayList;
 import java.util.List;
+import ola.hd.longtermstorage.component.IndexingOutbox;
 import ola.hd.longtermstorage.domain.Archive;
 import ola.hd.longtermstorage.domain.ArchiveResponse;
+import ola.hd.longtermstorage.domain.IndexingBacklog;
+import ola.hd.longtermstorage.domain.ResponseMessage;
 import ola.hd.longtermstorage.domain.TrackingInfo;
 import ola.hd.longtermstorage.domain.TrackingResponse;
 import ola.hd.longtermstorage.domain.TrackingStatus;
@@ -16,9 +19,11 @@ import ola.hd.longtermstorage.repository.mongo.TrackingRepository;
 import ola.hd.longtermstorage.utils.Utils;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -29,10 +34,13 @@ public class AdminController {
 
     private final TrackingRepository trackingRepository;
     private final ArchiveRepository archiveRepository;
+    private final IndexingOutbox indexingOutbox;
 
-    public AdminController(TrackingRepository trackingRepository, ArchiveRepository archiveRepository) {
+    public AdminController(TrackingRepository trackingRepository, ArchiveRepository archiveRepository,
+            IndexingOutbox indexingOutbox) {
         this.trackingRepository = trackingRepository;
         this.archiveRepository = archiveRepository;
+        this.indexingOutbox = indexingOutbox;
     }
 
     @ApiOperation(value = "Get information about the user's import processes.")
@@ -72,4 +80,23 @@ public class AdminController {
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(results);
     }
+
+    @ApiOperation(value = "Get the imports waiting to be sent to the web-notifier for indexing.")
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Query success", response = IndexingBacklog.class)
+    })
+    @GetMapping(value = "/indexing-backlog", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<IndexingBacklog> getIndexingBacklog() {
+        return ResponseEntity.ok(indexingOutbox.getBacklog());
+    }
+
+    @ApiOperation(value = "Send the imports again which could not be sent to the web-notifier.")
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Failed events are queued again", response = ResponseMessage.class)
+    })
+    @PostMapping(value = "/indexing-backlog/retry", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ResponseMessage> retryIndexing() {
+        long count = indexingOutbox.retryFailed();
+        return ResponseEntity.ok(new ResponseMessage(HttpStatus.OK, count + " events queued again"));
+    }
 }
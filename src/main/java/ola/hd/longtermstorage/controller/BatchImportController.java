@@ -0,0 +1,112 @@
+package ola.hd.longtermstorage.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiImplicitParam;
+import io.swagger.annotations.ApiImplicitParams;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import io.swagger.annotations.Authorization;
+import io.swagger.annotations.ResponseHeader;
+import java.io.IOException;
+import java.net.URI;
+import java.security.Principal;
+import javax.servlet.http.HttpServletRequest;
+import ola.hd.longtermstorage.controller.importarchive.BatchImport;
+import ola.hd.longtermstorage.domain.BatchImportRequest;
+import ola.hd.longtermstorage.domain.ImportBatch;
+import ola.hd.longtermstorage.domain.ImportBatchResponse;
+import ola.hd.longtermstorage.domain.ResponseMessage;
+import org.apache.commons.fileupload.FileUploadException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import springfox.documentation.annotations.ApiIgnore;
+
+@Api(description = "This endpoint is used to import many ZIP files with one request")
+@RestController
+@RequestMapping("/bag/batch")
+public class BatchImportController {
+
+    private final BatchImport batchImport;
+
+    public BatchImportController(BatchImport batchImport) {
+        this.batchImport = batchImport;
+    }
+
+    @ApiOperation(
+        value = "Import all ZIP files of the request. The previous version of a ZIP is determined from its Ocrd-Identifier or bag-info.txt.",
+        consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+        authorizations = { @Authorization(value = "basicAuth"), @Authorization(value = "bearer")}
+    )
+    @ApiResponses(value = {
+        @ApiResponse(
+            code = 202, message = "The ZIPs are being validated and imported.", response = ImportBatchResponse.class,
+            responseHeaders = { @ResponseHeader(name = "Location", description = "URL of the batch progress.", response = String.class) }
+        ),
+        @ApiResponse(code = 400, message = "No ZIP or too many ZIPs in the request.", response = ResponseMessage.class),
+        @ApiResponse(code = 401, message = "Invalid credentials.", response = ResponseMessage.class),
+        @ApiResponse(code = 429, message = "Too many uploads in progress. Retry after the time in the Retry-After header.", response = ResponseMessage.class),
+        @ApiResponse(code = 503, message = "Too many imports waiting or not enough disk space. Retry after the time in the Retry-After header.", response = ResponseMessage.class)
+    })
+    @ApiImplicitParams(value = {
+        @ApiImplicitParam(dataType = "__file", name = "file", value = "The files to be imported", required = true, paramType = "form", allowMultiple = true)
+    })
+    @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<ImportBatchResponse> importMultipart(
+        HttpServletRequest request, @ApiIgnore Principal principal
+    ) throws IOException, FileUploadException {
+        ImportBatch batch = batchImport.importMultipart(request, principal.getName());
+        return accepted(request, batch, principal);
+    }
+
+    @ApiOperation(
+        value = "Import ZIP files from the staging directory of the server.",
+        authorizations = { @Authorization(value = "basicAuth"), @Authorization(value = "bearer")}
+    )
+    @ApiResponses(value = {
+        @ApiResponse(
+            code = 202, message = "The ZIPs are being validated and imported.", response = ImportBatchResponse.class,
+            responseHeaders = { @ResponseHeader(name = "Location", description = "URL of the batch progress.", response = String.class) }
+        ),
+        @ApiResponse(code = 400, message = "A file does not exist or too many files.", response = ResponseMessage.class),
+        @ApiResponse(code = 401, message = "Invalid credentials.", response = ResponseMessage.class),
+        @ApiResponse(code = 404, message = "Imports from the server are not enabled.", response = ResponseMessage.class),
+        @ApiResponse(code = 503, message = "Too many imports waiting or not enough disk space. Retry after the time in the Retry-After header.", response = ResponseMessage.class)
+    })
+    @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ImportBatchResponse> importStaged(
+        @RequestBody BatchImportRequest body, HttpServletRequest request, @ApiIgnore Principal principal
+    ) throws IOException {
+        ImportBatch batch = batchImport.importStaged(body.getPaths(), principal.getName());
+        return accepted(request, batch, principal);
+    }
+
+    @ApiOperation(
+        value = "Get the progress of a batch import.",
+        authorizations = { @Authorization(value = "basicAuth"), @Authorization(value = "bearer")}
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Batch found.", response = ImportBatchResponse.class),
+        @ApiResponse(code = 403, message = "The batch belongs to another user.", response = ResponseMessage.class),
+        @ApiResponse(code = 404, message = "The batch does not exist.", response = ResponseMessage.class)
+    })
+    @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ImportBatchResponse> getProgress(@PathVariable String id, @ApiIgnore Principal principal) {
+        return ResponseEntity.ok(batchImport.getProgress(id, principal.getName()));
+    }
+
+    private ResponseEntity<ImportBatchResponse> accepted(
+        HttpServletRequest request, ImportBatch batch, Principal principal
+    ) {
+        URI location = URI.create(request.getRequestURL().append('/').append(batch.getId()).toString());
+        return ResponseEntity.accepted()
+            .location(location)
+            .body(batchImport.getProgress(batch.getId(), principal.getName()));
+    }
+}
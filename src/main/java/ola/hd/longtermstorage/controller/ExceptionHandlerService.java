@@ -1,6 +1,7 @@
 package ola.hd.longtermstorage.controller;
 
 import ola.hd.longtermstorage.domain.ResponseMessage;
+import ola.hd.longtermstorage.exceptions.AdmissionRejectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
@@ -34,6 +35,18 @@ public class ExceptionHandlerService extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(new ResponseMessage(status, message, uri), status);
     }
 
+    @ExceptionHandler({AdmissionRejectedException.class})
+    public ResponseEntity<?> handleAdmissionRejectedException(
+        AdmissionRejectedException ex, ServletWebRequest request
+    ) {
+        HttpStatus status = ex.getStatus();
+        String uri = request.getRequest().getRequestURI();
+
+        return ResponseEntity.status(status)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+            .body(new ResponseMessage(status, ex.getMessage(), uri));
+    }
+
     @ExceptionHandler({Exception.class, HttpServerErrorException.class})
     public ResponseEntity<?> handleException(Exception ex, ServletWebRequest request) {
         HttpStatus status = HttpStatus.INTERNAL_SERVER_ERROR;
@@ -12,6 +12,7 @@ import java.nio.file.Paths;
 import java.security.Principal;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
+import javax.xml.stream.XMLStreamException;
 import okhttp3.Headers;
 import okhttp3.Response;
 import ola.hd.longtermstorage.domain.ArchiveStatus;
@@ -21,6 +22,7 @@ import ola.hd.longtermstorage.domain.HttpFile;
 import ola.hd.longtermstorage.domain.ResponseMessage;
 import ola.hd.longtermstorage.msg.ErrMsg;
 import ola.hd.longtermstorage.repository.mongo.ExportRequestRepository;
+import ola.hd.longtermstorage.service.ArchiveFileCache;
 import ola.hd.longtermstorage.service.ArchiveManagerService;
 import ola.hd.longtermstorage.utils.MetsWebConverter;
 import ola.hd.longtermstorage.utils.Utils;
@@ -37,6 +39,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import springfox.documentation.annotations.ApiIgnore;
 
@@ -48,12 +51,16 @@ public class ExportController {
 
     private final ExportRequestRepository exportRequestRepository;
 
+    private final ArchiveFileCache archiveFileCache;
+
     public ExportController(
         ArchiveManagerService archiveManagerService,
-        ExportRequestRepository exportRequestRepository
+        ExportRequestRepository exportRequestRepository,
+        ArchiveFileCache archiveFileCache
     ) {
         this.archiveManagerService = archiveManagerService;
         this.exportRequestRepository = exportRequestRepository;
+        this.archiveFileCache = archiveFileCache;
     }
 
     @ApiOperation(value = "Quickly export a ZIP file via PID. This ZIP file only contains files stored on hard disks.")
@@ -261,7 +268,7 @@ public class ExportController {
 
         Map<String, String> bagInfoMap;
         try {
-            bagInfoMap = archiveManagerService.getBagInfoTxt(id);
+            bagInfoMap = archiveFileCache.getBagInfo(id);
         } catch (HttpClientErrorException e) {
             if (HttpStatus.NOT_FOUND == e.getStatusCode()) {
                 throw new HttpClientErrorException(
@@ -272,9 +279,9 @@ public class ExportController {
         }
         String metsPath = Utils.getMetsPath(bagInfoMap);
 
-        Response res;
+        ArchiveFileCache.ArchiveFile res;
         try {
-            res = archiveManagerService.exportFile(id, metsPath);
+            res = archiveFileCache.openFile(id, metsPath);
         } catch (HttpClientErrorException e) {
             // if the archive was not available (online) it would have failed getting the bag-info.txt. An 404 here
             // indicates an internal error because the METS-file was not found which is never expected
@@ -285,12 +292,14 @@ public class ExportController {
             }
             throw e;
         }
-        Headers headers = res.headers();
-
-        return ResponseEntity.ok()
-            .contentType(MediaType.parseMediaType(headers.get(HttpHeaders.CONTENT_TYPE)))
-            .header(HttpHeaders.CONTENT_LENGTH, headers.get(HttpHeaders.CONTENT_LENGTH))
-            .body(new InputStreamResource(res.body().byteStream()));
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        if (res.getContentType() != null) {
+            builder.contentType(MediaType.parseMediaType(res.getContentType()));
+        }
+        if (res.getLength() >= 0) {
+            builder.contentLength(res.getLength());
+        }
+        return builder.body(new InputStreamResource(res.getContent()));
     }
 
     /**
@@ -300,6 +309,9 @@ public class ExportController {
      * The links of the FLocat-Elements are converted to URLS where the corresponding files are
      * available for download. Additionally if DEFAULT fgrp is not available rename image-fgrp to DEFAULT
      *
+     * The converted METS-file is cached per PID and host, see {@linkplain ArchiveFileCache#openWebMets}. It is sent
+     * with an ETag, so the DFG-Viewer gets a 304 when it loads a work again.
+     *
      * @param id PID
      * @return archive's METS-file
      * @throws IOException
@@ -307,6 +319,7 @@ public class ExportController {
     @ApiOperation(value = "Export a METS-file via PID with all files referenced web-accessible. Purpose is to display the workspace in the DFG-Viewer.")
     @ApiResponses({
         @ApiResponse(code = 200, message = "METS-File for specified identifier was found.", response = byte[].class),
+        @ApiResponse(code = 304, message = "METS-File was not modified since it was requested with this ETag."),
         @ApiResponse(code = 404, message = "An archive with the specified identifier is not available.", response = ResponseMessage.class)
     })
     @GetMapping(value = "/export/mets-web", produces = { MediaType.APPLICATION_OCTET_STREAM_VALUE })
@@ -323,7 +336,7 @@ public class ExportController {
 
         Map<String, String> bagInfoMap;
         try {
-            bagInfoMap = archiveManagerService.getBagInfoTxt(id);
+            bagInfoMap = archiveFileCache.getBagInfo(id);
         } catch (HttpClientErrorException e) {
             if (HttpStatus.NOT_FOUND == e.getStatusCode()) {
                 throw new HttpClientErrorException(
@@ -333,10 +346,21 @@ public class ExportController {
             throw e;
         }
 		String metsPath = Utils.getMetsPath(bagInfoMap);
+        String host = Utils.readHost(request);
 
-        Response res;
+        String eTag = ArchiveFileCache.getWebMetsETag(id, metsPath, host);
+        if (new ServletWebRequest(request).checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+
+        InputStream res;
+        boolean converted;
         try {
-            res = archiveManagerService.exportFile(id, metsPath);
+            res = archiveFileCache.openWebMets(id, metsPath, host);
+            converted = res != null;
+            if (!converted) {
+                res = archiveFileCache.openFile(id, metsPath).getContent();
+            }
         } catch (HttpClientErrorException e) {
             if (HttpStatus.NOT_FOUND == e.getStatusCode()) {
                 throw new HttpClientErrorException(
@@ -344,13 +368,21 @@ public class ExportController {
                 );
             }
             throw e;
+        } catch (XMLStreamException e) {
+            Utils.logError(ErrMsg.METS_CONVERT_ERROR, e);
+            throw new HttpClientErrorException(
+                HttpStatus.INTERNAL_SERVER_ERROR, ErrMsg.METS_CONVERT_ERROR
+            );
         }
 
+        InputStream metsStream = res;
         StreamingResponseBody stream = outputStream -> {
-            try {
-                InputStream metsInStream = res.body().byteStream();
-                String host = Utils.readHost(request);
-                MetsWebConverter.convertMets(id, host, metsInStream, outputStream);
+            try (InputStream metsInStream = metsStream) {
+                if (converted) {
+                    metsInStream.transferTo(outputStream);
+                } else {
+                    MetsWebConverter.convertMets(id, host, metsInStream, outputStream);
+                }
             } catch (Exception e) {
                 Utils.logError(ErrMsg.METS_CONVERT_ERROR, e);
                 throw new HttpClientErrorException(
@@ -359,7 +391,7 @@ public class ExportController {
             }
         };
 
-        return ResponseEntity.ok().contentType(MediaType.parseMediaType("text/xml")).body(stream);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("text/xml")).eTag(eTag).body(stream);
     }
 
     /**
@@ -4,11 +4,11 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiImplicitParam;
 import io.swagger.annotations.ApiImplicitParams;
 import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import io.swagger.annotations.Authorization;
 import io.swagger.annotations.ResponseHeader;
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -17,36 +17,31 @@ import java.util.AbstractMap;
 import java.util.List;
 import java.util.UUID;
 import javax.servlet.http.HttpServletRequest;
-import net.jodah.failsafe.Failsafe;
-import ola.hd.longtermstorage.Constants;
-import ola.hd.longtermstorage.component.ExecutorWrapper;
-import ola.hd.longtermstorage.controller.importarchive.BagImport;
-import ola.hd.longtermstorage.controller.importarchive.BagImportParams;
+import ola.hd.longtermstorage.component.ImportAdmission;
 import ola.hd.longtermstorage.controller.importarchive.FormParams;
+import ola.hd.longtermstorage.controller.importarchive.ImportPipeline;
 import ola.hd.longtermstorage.controller.importarchive.ImportUtils;
-import ola.hd.longtermstorage.domain.Archive;
+import ola.hd.longtermstorage.domain.PreflightResponse;
 import ola.hd.longtermstorage.domain.ResponseMessage;
 import ola.hd.longtermstorage.domain.TrackingInfo;
 import ola.hd.longtermstorage.domain.TrackingStatus;
-import ola.hd.longtermstorage.repository.mongo.ArchiveRepository;
 import ola.hd.longtermstorage.repository.mongo.TrackingRepository;
-import ola.hd.longtermstorage.service.PidService;
-import ola.hd.longtermstorage.utils.Utils;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.context.request.ServletWebRequest;
 import springfox.documentation.annotations.ApiIgnore;
 
@@ -58,30 +53,23 @@ public class ImportController {
 
     private final TrackingRepository trackingRepository;
 
-    private final ArchiveRepository archiveRepository;
+    private final ImportPipeline importPipeline;
 
-    private final PidService pidService;
-
-    private final ExecutorWrapper executor;
-
-    private AutowireCapableBeanFactory beanFactory;
+    private final ImportAdmission importAdmission;
 
     @Value("${ola.hd.upload.dir}")
     private String uploadDir;
 
-    @Value("${webnotifier.url}")
-    private String webnotifierUrl;
+    /** Extract uploaded OCRD-ZIPs while they are still arriving instead of saving them first */
+    @Value("${ola.hd.upload.streaming:true}")
+    private boolean streamingUpload;
 
     public ImportController(
-        TrackingRepository trackingRepository, ArchiveRepository archiveRepository,
-        PidService pidService, ExecutorWrapper executor,
-        AutowireCapableBeanFactory beanFactory
+        TrackingRepository trackingRepository, ImportPipeline importPipeline, ImportAdmission importAdmission
     ) {
         this.trackingRepository = trackingRepository;
-        this.archiveRepository = archiveRepository;
-        this.pidService = pidService;
-        this.executor = executor;
-        this.beanFactory = beanFactory;
+        this.importPipeline = importPipeline;
+        this.importAdmission = importAdmission;
     }
 
     @ApiOperation(
@@ -98,7 +86,9 @@ public class ImportController {
         @ApiResponse(code = 400, message = "The OCRD-ZIP is invalid.", response = ResponseMessage.class),
         @ApiResponse(code = 401, message = "Invalid credentials.", response = ResponseMessage.class),
         @ApiResponse(code = 409, message = "The same archive (checked through payload checksum) with the same ocrd-identifier already exists.", response = ResponseMessage.class),
-        @ApiResponse(code = 415, message = "The request is not a multipart request.", response = ResponseMessage.class)
+        @ApiResponse(code = 415, message = "The request is not a multipart request.", response = ResponseMessage.class),
+        @ApiResponse(code = 429, message = "Too many uploads in progress. Retry after the time in the Retry-After header.", response = ResponseMessage.class),
+        @ApiResponse(code = 503, message = "Too many imports waiting or not enough disk space. Retry after the time in the Retry-After header.", response = ResponseMessage.class)
     })
     @ApiImplicitParams(value = {
             @ApiImplicitParam(dataType = "__file", name = "file", value = "The file to be imported", required = true, paramType = "form"),
@@ -117,67 +107,56 @@ public class ImportController {
             );
         }
         Path tempDir = Paths.get(uploadDir, UUID.randomUUID().toString());
-        FormParams formParams = ImportUtils.readFormParams(request, info, tempDir, trackingRepository);
-        File targetFile = formParams.getFile();  // The uploaded file (ZIP)
-        Path destination = tempDir.resolve(FilenameUtils.getBaseName(targetFile.getName()) + "_extracted");
-
-        List<AbstractMap.SimpleImmutableEntry<String, String>> bagInfos = ImportUtils.extractAndVerifyOcrdzip(
-                targetFile.toPath(), destination, tempDir, info, formParams, trackingRepository
-        );
-
-        // Set previous version in two cases: 1. If Ocrdzip with same OcrdIdentifier exist
-        // 2. if prev-pid is provided in the bag-info.txt
-        if (StringUtils.isBlank(formParams.getPrev())) {
-            String checksumPayloadmanifest = ImportUtils.generatePayloadmanifestChecksum(destination);
-            String ocrdIdentifier = ImportUtils.readOcrdIdentifier(bagInfos);
-            Archive prevArchive = archiveRepository.findTopByOcrdIdentifierOrderByCreatedAtDesc(ocrdIdentifier);
-            if (prevArchive != null) {
-                if (checksumPayloadmanifest.equals(prevArchive.getChecksumPayloadmanifest())) {
-                    // Abort if archive with same OcrdIdentifier and same payload already exists
-                    ImportUtils.throwClientException(
-                        String.format(
-                            "Newest archive of OcrdIdentifier '%s' has the same payload(-checksum).",
-                            ocrdIdentifier
-                        ), info,
-                        HttpStatus.CONFLICT, trackingRepository
-                    );
-                } else {
-                    formParams.setPrev(prevArchive.getPid());
-                }
-            } else {
-                String prevPid = ImportUtils.readBagInfoValue(bagInfos, Constants.BAGINFO_KEY_PREV_PID);
-                if (!Utils.isNullValue(prevPid)) {
-                    formParams.setPrev(prevPid);
-                }
-            }
-        }
-
-        // Create a PID with meta-data from bag-info.txt
-        String pid = Failsafe.with(ImportUtils.RETRY_POLICY).get(() -> pidService.createPid(bagInfos));
-        if (StringUtils.isBlank(pid)) {
-            ImportUtils.throwClientException(
-                "No PID received", info, HttpStatus.INTERNAL_SERVER_ERROR, trackingRepository
+        FormParams formParams;
+        List<AbstractMap.SimpleImmutableEntry<String, String>> bagInfos;
+
+        // Reject before the body is read if there are not enough resources left
+        ImportAdmission.Ticket ticket = importAdmission.admit(request);
+        try {
+            formParams = ImportUtils.readFormParams(
+                request, info, tempDir, trackingRepository, streamingUpload,
+                fingerprint -> importPipeline.rejectDuplicate(info, tempDir, fingerprint)
             );
-        } else {
-            info.setPid(pid);
+            bagInfos = importPipeline.verify(info, tempDir, formParams);
+        } finally {
+            ticket.close();
         }
-
-        // **here the OCRD-ZIP is scheduled to be saved** to the external archive
-        executor.submit(
-            BagImport.create(
-                beanFactory,
-                new BagImportParams(destination, pid, formParams, bagInfos, info, tempDir, webnotifierUrl)
-            )
-        );
-
-        // Inform the user that the import is done in the background.
-        trackingRepository.save(info);
-        ResponseMessage responseMessage = new ResponseMessage(HttpStatus.ACCEPTED, "Your data is being processed.");
-        responseMessage.setPid(pid);
+        ResponseMessage responseMessage = importPipeline.schedule(info, tempDir, formParams, bagInfos);
 
         return ResponseEntity.accepted().body(responseMessage);
     }
 
+    @ApiOperation(
+        value = "Check what an import of a bag would result in without uploading it. Optionally check if an upload of the given size would currently be accepted.",
+        authorizations = { @Authorization(value = "basicAuth"), @Authorization(value = "bearer")}
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "DUPLICATE, NEW_VERSION (of prevPid) or NEW_WORK", response = PreflightResponse.class),
+        @ApiResponse(code = 400, message = "Ocrd-Identifier or checksum missing.", response = ResponseMessage.class)
+    })
+    @GetMapping(value = "/bag/preflight", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<PreflightResponse> preflight(
+        @ApiParam(value = "Ocrd-Identifier from bag-info.txt", required = true)
+        @RequestParam String ocrdIdentifier,
+        @ApiParam(value = "SHA-512 of manifest-sha512.txt", required = true)
+        @RequestParam String payloadManifestChecksum,
+        @ApiParam(value = "Size of the ZIP in bytes, to check if the upload would be accepted now")
+        @RequestParam(required = false) Long size
+    ) {
+        if (StringUtils.isAnyBlank(ocrdIdentifier, payloadManifestChecksum)) {
+            throw new HttpClientErrorException(
+                HttpStatus.BAD_REQUEST, "ocrdIdentifier and payloadManifestChecksum must be provided"
+            );
+        }
+        PreflightResponse response = importPipeline.preflight(ocrdIdentifier, payloadManifestChecksum);
+        if (size != null) {
+            String rejection = importAdmission.probe(size);
+            response.setAdmitted(rejection == null);
+            response.setMessage(rejection);
+        }
+        return ResponseEntity.ok(response);
+    }
+
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<?> handleIllegalArgumentException(IllegalArgumentException ex, ServletWebRequest request) {
 
@@ -6,10 +6,8 @@ import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import java.io.IOException;
-import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
-import okhttp3.Response;
 import ola.hd.longtermstorage.Constants;
 import ola.hd.longtermstorage.domain.Archive;
 import ola.hd.longtermstorage.domain.ArchiveResponse;
@@ -21,6 +19,7 @@ import ola.hd.longtermstorage.model.Detail;
 import ola.hd.longtermstorage.model.ResultSet;
 import ola.hd.longtermstorage.msg.ErrMsg;
 import ola.hd.longtermstorage.repository.mongo.ArchiveRepository;
+import ola.hd.longtermstorage.service.ArchiveFileCache;
 import ola.hd.longtermstorage.service.ArchiveManagerService;
 import ola.hd.longtermstorage.utils.Utils;
 import org.apache.commons.lang3.StringUtils;
@@ -42,14 +41,16 @@ public class SearchController {
     private final ArchiveManagerService archiveManagerService;
     private final ArchiveRepository archiveRepository;
     private final ElasticsearchService elasticsearchService;
+    private final ArchiveFileCache archiveFileCache;
 
     public SearchController(
         ArchiveManagerService archiveManagerService, ArchiveRepository archiveRepository,
-        ElasticsearchService elasticsearchService
+        ElasticsearchService elasticsearchService, ArchiveFileCache archiveFileCache
     ) {
         this.archiveManagerService = archiveManagerService;
         this.archiveRepository = archiveRepository;
         this.elasticsearchService = elasticsearchService;
+        this.archiveFileCache = archiveFileCache;
     }
 
     @ApiOperation(value = "Search for an archive based on its internal (CDStar-) ID or PID.")
@@ -303,19 +304,15 @@ public class SearchController {
             );
         }
 
-        String bagInfo = null;
-        try (
-            Response response = archiveManagerService.exportFile(pid, Paths.get("data", "../bag-info.txt").toString())
-        ) {
-            byte[] data = response.body().bytes();
-            bagInfo = new String(data, "utf-8");
+        Map<String, String> bagInfoMap;
+        try {
+            bagInfoMap = archiveFileCache.getBagInfo(pid);
         } catch (HttpClientErrorException e) {
             if (HttpStatus.NOT_FOUND == e.getStatusCode()) {
                 throw new HttpClientErrorException(HttpStatus.NOT_FOUND, ErrMsg.ID_NOT_FOUND_ONLINE);
             }
             throw e;
         }
-        Map<String, String> bagInfoMap = Utils.readBagInfoToMap(bagInfo);
 
         Archive archive = archiveRepository.findByPid(pid);
         Archive prevArchive = archive.getPreviousVersion();
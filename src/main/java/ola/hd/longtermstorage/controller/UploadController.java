@@ -0,0 +1,204 @@
+package ola.hd.longtermstorage.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import io.swagger.annotations.Authorization;
+import io.swagger.annotations.ResponseHeader;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.util.AbstractMap;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import ola.hd.longtermstorage.component.ImportAdmission;
+import ola.hd.longtermstorage.component.UploadSessionStore;
+import ola.hd.longtermstorage.controller.importarchive.FormParams;
+import ola.hd.longtermstorage.controller.importarchive.ImportPipeline;
+import ola.hd.longtermstorage.controller.importarchive.ImportUtils;
+import ola.hd.longtermstorage.domain.ResponseMessage;
+import ola.hd.longtermstorage.domain.TrackingInfo;
+import ola.hd.longtermstorage.domain.TrackingStatus;
+import ola.hd.longtermstorage.domain.UploadSession;
+import ola.hd.longtermstorage.domain.UploadSessionResponse;
+import ola.hd.longtermstorage.repository.mongo.TrackingRepository;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import springfox.documentation.annotations.ApiIgnore;
+
+@Api(description = "This endpoint is used to upload large ZIP files in chunks and import them into the system")
+@RestController
+@RequestMapping("/bag/uploads")
+public class UploadController {
+
+    /** Header containing the number of bytes received by the server */
+    public static final String UPLOAD_OFFSET_HEADER = "Upload-Offset";
+
+    private final TrackingRepository trackingRepository;
+
+    private final UploadSessionStore uploadSessionStore;
+
+    private final ImportPipeline importPipeline;
+
+    private final ImportAdmission importAdmission;
+
+    public UploadController(
+        TrackingRepository trackingRepository, UploadSessionStore uploadSessionStore, ImportPipeline importPipeline,
+        ImportAdmission importAdmission
+    ) {
+        this.trackingRepository = trackingRepository;
+        this.uploadSessionStore = uploadSessionStore;
+        this.importPipeline = importPipeline;
+        this.importAdmission = importAdmission;
+    }
+
+    @ApiOperation(
+        value = "Start a resumable upload of a ZIP file.",
+        authorizations = { @Authorization(value = "basicAuth"), @Authorization(value = "bearer")}
+    )
+    @ApiResponses(value = {
+        @ApiResponse(
+            code = 201, message = "Upload session created. Send the chunks to the returned location.",
+            response = UploadSessionResponse.class,
+            responseHeaders = { @ResponseHeader(name = "Location", description = "URL of the upload session.", response = String.class) }
+        ),
+        @ApiResponse(code = 400, message = "File name or size is missing.", response = ResponseMessage.class),
+        @ApiResponse(code = 401, message = "Invalid credentials.", response = ResponseMessage.class),
+        @ApiResponse(code = 413, message = "The file is too large.", response = ResponseMessage.class)
+    })
+    @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<UploadSessionResponse> createSession(
+        @ApiParam(value = "Name of the ZIP file", required = true) @RequestParam String fileName,
+        @ApiParam(value = "Size of the ZIP file in bytes", required = true) @RequestParam long size,
+        @ApiParam(value = "The PID of the previous version") @RequestParam(required = false) String prev,
+        HttpServletRequest request, @ApiIgnore Principal principal
+    ) {
+        UploadSession session = uploadSessionStore.create(principal.getName(), fileName, size, prev);
+        URI location = URI.create(request.getRequestURL().append('/').append(session.getId()).toString());
+        return ResponseEntity.created(location)
+            .header(UPLOAD_OFFSET_HEADER, "0")
+            .body(new UploadSessionResponse(session));
+    }
+
+    @ApiOperation(
+        value = "Get the number of bytes received for an upload. The next chunk has to start at this offset.",
+        authorizations = { @Authorization(value = "basicAuth"), @Authorization(value = "bearer")}
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Upload found.", response = UploadSessionResponse.class),
+        @ApiResponse(code = 403, message = "The upload belongs to another user.", response = ResponseMessage.class),
+        @ApiResponse(code = 404, message = "The upload does not exist or has expired.", response = ResponseMessage.class)
+    })
+    @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<UploadSessionResponse> getSession(@PathVariable String id, @ApiIgnore Principal principal) {
+        return toResponse(uploadSessionStore.get(id, principal.getName()));
+    }
+
+    @ApiOperation(
+        value = "Upload a chunk of the ZIP file. The chunk is the request body and must start at the offset received so far.",
+        consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+        authorizations = { @Authorization(value = "basicAuth"), @Authorization(value = "bearer")}
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Chunk saved.", response = UploadSessionResponse.class),
+        @ApiResponse(code = 409, message = "The offset is wrong or another chunk is being uploaded.", response = ResponseMessage.class),
+        @ApiResponse(code = 411, message = "The Content-Length is missing.", response = ResponseMessage.class),
+        @ApiResponse(code = 413, message = "The chunk is too large.", response = ResponseMessage.class),
+        @ApiResponse(code = 429, message = "Too many uploads in progress. Retry after the time in the Retry-After header.", response = ResponseMessage.class),
+        @ApiResponse(code = 503, message = "Too many imports waiting or not enough disk space. Retry after the time in the Retry-After header.", response = ResponseMessage.class)
+    })
+    @PutMapping(
+        value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE,
+        consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE
+    )
+    public ResponseEntity<UploadSessionResponse> uploadChunk(
+        @PathVariable String id,
+        @ApiParam(value = "Position of the chunk in the file", required = true) @RequestParam long offset,
+        HttpServletRequest request, @ApiIgnore Principal principal
+    ) throws IOException {
+        UploadSession session;
+        ImportAdmission.Ticket ticket = importAdmission.admit(request);
+        try {
+            session = uploadSessionStore.writeChunk(
+                id, principal.getName(), offset, request.getContentLengthLong(), request.getInputStream()
+            );
+        } finally {
+            ticket.close();
+        }
+        return toResponse(session);
+    }
+
+    @ApiOperation(
+        value = "Import a completely uploaded ZIP file. From here on the import is the same as for /bag.",
+        authorizations = { @Authorization(value = "basicAuth"), @Authorization(value = "bearer")}
+    )
+    @ApiResponses(value = {
+        @ApiResponse(
+            code = 202, message = "The OCRD-ZIP has a valid BagIt structure. The system is saving it to the archive.",
+            response = ResponseMessage.class
+        ),
+        @ApiResponse(code = 400, message = "The OCRD-ZIP is invalid.", response = ResponseMessage.class),
+        @ApiResponse(code = 409, message = "The upload is not complete, or the same archive (checked through payload checksum) with the same ocrd-identifier already exists.", response = ResponseMessage.class)
+    })
+    @PostMapping(value = "/{id}/finalize", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ResponseMessage> finalizeUpload(@PathVariable String id, @ApiIgnore Principal principal)
+        throws IOException {
+        UploadSession session = uploadSessionStore.startFinalize(id, principal.getName());
+
+        // **every** Import-Request creates an info in tracking-database-table
+        TrackingInfo info = new TrackingInfo(principal.getName(), TrackingStatus.PROCESSING, "Processing...", null);
+        Path tempDir = uploadSessionStore.getDirectory(session);
+        Path file = uploadSessionStore.getFile(session);
+        FormParams formParams = new FormParams();
+        formParams.setFile(file.toFile());
+        formParams.setExtractedDir(tempDir.resolve(FilenameUtils.getBaseName(file.toString()) + "_extracted"));
+        formParams.setPrev(session.getPrev());
+
+        boolean scheduled = false;
+        try {
+            ImportUtils.checkIsZip(file.toFile(), info, tempDir, trackingRepository);
+            List<AbstractMap.SimpleImmutableEntry<String, String>> bagInfos = importPipeline.verify(
+                info, tempDir, formParams
+            );
+            ResponseMessage responseMessage = importPipeline.schedule(info, tempDir, formParams, bagInfos);
+            scheduled = true;
+            return ResponseEntity.accepted().body(responseMessage);
+        } finally {
+            // The directory belongs to the import job now or is not needed anymore
+            uploadSessionStore.remove(session, !scheduled);
+        }
+    }
+
+    @ApiOperation(
+        value = "Abort an upload and remove the received data.",
+        authorizations = { @Authorization(value = "basicAuth"), @Authorization(value = "bearer")}
+    )
+    @ApiResponses(value = {
+        @ApiResponse(code = 204, message = "Upload removed."),
+        @ApiResponse(code = 409, message = "The upload is being finalized or a chunk is being uploaded.", response = ResponseMessage.class)
+    })
+    @DeleteMapping(value = "/{id}")
+    public ResponseEntity<Void> abortUpload(@PathVariable String id, @ApiIgnore Principal principal) {
+        uploadSessionStore.abort(id, principal.getName());
+        return ResponseEntity.noContent().build();
+    }
+
+    private static ResponseEntity<UploadSessionResponse> toResponse(UploadSession session) {
+        return ResponseEntity.ok()
+            .header(UPLOAD_OFFSET_HEADER, String.valueOf(session.getCommittedOffset()))
+            .body(new UploadSessionResponse(session));
+    }
+}
@@ -0,0 +1,128 @@
+package ola.hd.longtermstorage.controller.importarchive;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import gov.loc.repository.bagit.exceptions.InvalidBagMetadataException;
+import gov.loc.repository.bagit.reader.KeyValueReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.List;
+import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.FileHeader;
+import ola.hd.longtermstorage.Constants;
+import ola.hd.longtermstorage.utils.DigestTable;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * What identifies an imported bag as a duplicate: the Ocrd-Identifier from bag-info.txt and the checksum of
+ * manifest-sha512.txt.
+ *
+ * Both files are small, so they can be read before the whole OCRD-ZIP is extracted and validated. This way a
+ * re-submitted bag can be rejected without extracting and hashing all files.
+ */
+public class BagFingerprint {
+
+    private static final Logger logger = LoggerFactory.getLogger(BagFingerprint.class);
+
+    private static final String BAG_INFO_NAME = "bag-info.txt";
+
+    private final String ocrdIdentifier;
+
+    private final String payloadManifestChecksum;
+
+    BagFingerprint(String ocrdIdentifier, String payloadManifestChecksum) {
+        this.ocrdIdentifier = ocrdIdentifier;
+        this.payloadManifestChecksum = payloadManifestChecksum;
+    }
+
+    public String getOcrdIdentifier() {
+        return ocrdIdentifier;
+    }
+
+    public String getPayloadManifestChecksum() {
+        return payloadManifestChecksum;
+    }
+
+    /**
+     * Check if a file of the ZIP is needed for the fingerprint
+     *
+     * @param name path of the file relative to the bag root
+     */
+    static boolean isFingerprintFile(String name) {
+        return BAG_INFO_NAME.equals(name) || Constants.PAYLOAD_MANIFEST_NAME.equals(name);
+    }
+
+    /**
+     * Read the fingerprint from a (partially) extracted bag
+     *
+     * @param bagDir  root of the bag
+     * @param digests checksums calculated while extracting
+     * @return the fingerprint or null if bag-info.txt or the payload manifest is not extracted (yet) or there is no
+     *         Ocrd-Identifier
+     */
+    static BagFingerprint fromDirectory(Path bagDir, DigestTable digests) {
+        String checksum = digests.get(Constants.PAYLOAD_MANIFEST_NAME);
+        Path bagInfo = bagDir.resolve(BAG_INFO_NAME);
+        if (checksum == null || !Files.exists(bagInfo)) {
+            return null;
+        }
+        return create(bagInfo, checksum);
+    }
+
+    /**
+     * Read the fingerprint from a ZIP without extracting it. Only the two files are read using the central directory
+     *
+     * @param zip     the OCRD-ZIP
+     * @param workDir directory to temporarily save bag-info.txt to
+     * @return the fingerprint or null if it cannot be read. The full validation will report why
+     */
+    static BagFingerprint fromZip(Path zip, Path workDir) {
+        Path bagInfo = null;
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            FileHeader bagInfoHeader = zipFile.getFileHeader(BAG_INFO_NAME);
+            FileHeader manifestHeader = zipFile.getFileHeader(Constants.PAYLOAD_MANIFEST_NAME);
+            if (bagInfoHeader == null || manifestHeader == null) {
+                return null;
+            }
+
+            Hasher hasher = Hashing.sha512().newHasher();
+            try (InputStream in = zipFile.getInputStream(manifestHeader)) {
+                ByteStreams.copy(in, Funnels.asOutputStream(hasher));
+            }
+            bagInfo = Files.createTempFile(workDir, "bag-info", ".txt");
+            try (InputStream in = zipFile.getInputStream(bagInfoHeader)) {
+                Files.copy(in, bagInfo, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return create(bagInfo, hasher.hash().toString());
+        } catch (IOException e) {
+            logger.debug("Cannot read fingerprint of '{}'", zip, e);
+            return null;
+        } finally {
+            if (bagInfo != null) {
+                bagInfo.toFile().delete();
+            }
+        }
+    }
+
+    private static BagFingerprint create(Path bagInfo, String checksum) {
+        try {
+            List<SimpleImmutableEntry<String, String>> bagInfos = KeyValueReader.readKeyValuesFromFile(
+                bagInfo, ":", StandardCharsets.UTF_8
+            );
+            String ocrdIdentifier = ImportUtils.readOcrdIdentifier(bagInfos);
+            return StringUtils.isBlank(ocrdIdentifier) ? null : new BagFingerprint(ocrdIdentifier, checksum);
+        } catch (IOException | InvalidBagMetadataException e) {
+            logger.debug("Cannot read '{}'", bagInfo, e);
+            return null;
+        }
+    }
+}
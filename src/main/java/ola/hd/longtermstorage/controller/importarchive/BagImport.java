@@ -1,29 +1,25 @@
 package ola.hd.longtermstorage.controller.importarchive;
 
-import java.time.Duration;
-import java.time.temporal.ChronoUnit;
 import java.util.AbstractMap;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import net.jodah.failsafe.Failsafe;
-import net.jodah.failsafe.FailsafeException;
-import net.jodah.failsafe.RetryPolicy;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
+import ola.hd.longtermstorage.component.ImportJobQueue;
+import ola.hd.longtermstorage.component.IndexingOutbox;
 import ola.hd.longtermstorage.component.MutexFactory;
 import ola.hd.longtermstorage.controller.ExportController;
 import ola.hd.longtermstorage.domain.Archive;
+import ola.hd.longtermstorage.domain.ImportProgress;
 import ola.hd.longtermstorage.domain.ImportResult;
+import ola.hd.longtermstorage.domain.ImportStage;
 import ola.hd.longtermstorage.domain.TrackingInfo;
 import ola.hd.longtermstorage.domain.TrackingStatus;
+import ola.hd.longtermstorage.exceptions.ImportInterruptedException;
 import ola.hd.longtermstorage.repository.mongo.ArchiveRepository;
 import ola.hd.longtermstorage.repository.mongo.TrackingRepository;
+import ola.hd.longtermstorage.service.ArchiveFileCache;
+import ola.hd.longtermstorage.service.ArchiveIdResolver;
 import ola.hd.longtermstorage.service.ArchiveManagerService;
 import ola.hd.longtermstorage.service.PidService;
-import ola.hd.longtermstorage.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -47,11 +43,22 @@ public class BagImport implements Runnable {
     private PidService pidService;
     @Autowired
     private MutexFactory<String> mutexFactory;
+    @Autowired
+    private ImportJobQueue importJobQueue;
+    @Autowired
+    private IndexingOutbox indexingOutbox;
+    @Autowired
+    private ArchiveIdResolver archiveIdResolver;
+    @Autowired
+    private ArchiveFileCache archiveFileCache;
 
     private BagImportParams params;
 
     private String exportUrl;
 
+    /** The import failed temporarily and will be resumed by the queue */
+    private boolean interrupted;
+
     private static final Logger logger = LoggerFactory.getLogger(BagImport.class);
 
     private BagImport() {
@@ -69,179 +76,180 @@ public class BagImport implements Runnable {
         BagImport res = new BagImport();
         factory.autowireBean(res);
         res.params = params;
+        res.exportUrl = params.exportUrl != null ? params.exportUrl : createExportUrl(params.pid);
+        return res;
+    }
 
-        // URL where the stored file will be available after completed import
+    /**
+     * Create the URL where the stored file will be available after completed import.
+     *
+     * Must be called while processing the request, otherwise the host is unknown
+     *
+     * @param pid PID of the OCRD-ZIP
+     * @return
+     */
+    public static String createExportUrl(String pid) {
         WebMvcLinkBuilder linkBuilder = WebMvcLinkBuilder.linkTo(
-            WebMvcLinkBuilder.methodOn(ExportController.class).export(params.pid, false)
+            WebMvcLinkBuilder.methodOn(ExportController.class).export(pid, false)
         );
-        res.exportUrl = linkBuilder.toString();
-        return res;
+        return linkBuilder.toString();
+    }
+
+    /**
+     * Save the completed stage if the import is processed by a job
+     */
+    private void checkpoint(ImportStage stage) {
+        if (params.jobId != null) {
+            try {
+                importJobQueue.checkpoint(params.jobId, stage);
+            } catch (Exception e) {
+                logger.warn("Saving checkpoint '{}' for job '{}' failed", stage, params.jobId, e);
+            }
+        }
     }
 
+    /**
+     * Save the progress of the archive import if the import is processed by a job
+     */
+    private void saveProgress(ImportProgress progress) {
+        if (params.jobId != null) {
+            try {
+                importJobQueue.saveProgress(params.jobId, progress);
+            } catch (Exception e) {
+                logger.warn("Saving import progress for job '{}' failed", params.jobId, e);
+            }
+        }
+    }
+
+    /**
+     * Run the import stages which are not completed yet.
+     *
+     * Every stage retries its own steps, so a temporary failure of one service does not start the whole import again.
+     * A resumed import (see {@linkplain ImportJobQueue}) skips the stages already completed and continues the archive
+     * import with the transaction and files of the previous attempt.
+     *
+     * If the archive manager is not available for longer than the retries of a step, the import is interrupted instead
+     * of cleaned up: PID, transaction and extracted files are kept, and the queue runs the job again later.
+     */
     @Override
     public void run() {
         ImportResult importResult = null;
         String prevPid = params.formParams.getPrev();
+        ImportStage completed = params.stage != null ? params.stage : ImportStage.QUEUED;
+        ImportProgress progress = params.progress != null ? params.progress : new ImportProgress();
 
         try {
-            /* TODO: think about no retries. There are cases (pid service or cdstar temporarily not available) when it
-             * makes sense just to try again, but I thinks most of the time multiple tries would fail too */
-            if (prevPid != null) {
-                importResult = Failsafe.with(ImportUtils.RETRY_POLICY).get(
-                    () -> archiveManagerService.importZipFile(
-                        params.destination,
-                        params.pid,
-                        params.bagInfos,
-                        prevPid
-                    )
-                );
-            } else {
-                importResult = Failsafe.with(ImportUtils.RETRY_POLICY).get(
-                    () -> archiveManagerService.importZipFile(
-                        params.destination,
-                        params.pid,
-                        params.bagInfos
-                    )
-                );
+            // Returns immediately if the archives were already committed by a previous attempt
+            importResult = archiveManagerService.importZipFile(
+                params.destination,
+                params.pid,
+                params.bagInfos,
+                prevPid,
+                progress,
+                this::saveProgress
+            );
+            if (completed.compareTo(ImportStage.ARCHIVE_IMPORTED) < 0) {
+                checkpoint(ImportStage.ARCHIVE_IMPORTED);
             }
 
-            List<AbstractMap.SimpleImmutableEntry<String, String>> metaData = importResult
-                .getMetaData();
-
-            if (prevPid != null) {
-                metaData.add(new AbstractMap.SimpleImmutableEntry<>("PREVIOUS-VERSION", prevPid));
-            }
+            if (completed.compareTo(ImportStage.PID_UPDATED) < 0) {
+                List<AbstractMap.SimpleImmutableEntry<String, String>> metaData = importResult
+                    .getMetaData();
 
-            /*
-             * Send metadata and URL to PID-Service. (Use update instead of append to save 1 HTTP
-             * call to the PID Service)
-             */
-            metaData.addAll(params.bagInfos);
-            metaData.add(new AbstractMap.SimpleImmutableEntry<>("URL", exportUrl));
-            pidService.updatePid(params.pid, metaData);
+                if (prevPid != null) {
+                    metaData.add(new AbstractMap.SimpleImmutableEntry<>("PREVIOUS-VERSION", prevPid));
+                }
 
-            if (prevPid != null) {
-                // Update the old PID to link to the new version
-                List<AbstractMap.SimpleImmutableEntry<String, String>> pidAppendedData = new ArrayList<>();
-                pidAppendedData
-                    .add(new AbstractMap.SimpleImmutableEntry<>("NEXT-VERSION", params.pid));
-                pidService.appendData(prevPid, pidAppendedData);
+                /*
+                 * Send metadata and URL to PID-Service. (Use update instead of append to save 1 HTTP
+                 * call to the PID Service)
+                 */
+                metaData.addAll(params.bagInfos);
+                metaData.add(new AbstractMap.SimpleImmutableEntry<>("URL", exportUrl));
+                Failsafe.with(ImportUtils.RETRY_POLICY).run(() -> pidService.updatePid(params.pid, metaData));
+                checkpoint(ImportStage.PID_UPDATED);
             }
 
-            params.info.setStatus(TrackingStatus.SUCCESS);
-            params.info.setMessage("Data has been successfully imported.");
-            trackingRepository.save(params.info);
+            if (completed.compareTo(ImportStage.ARCHIVE_SAVED) < 0) {
+                ImportResult result = importResult;
+                // The outbox event also links the previous version to this one. Both are done in the background by the
+                // PostImportPipeline, so this worker is free for the next import
+                Failsafe.with(ImportUtils.RETRY_POLICY).run(() -> {
+                    saveArchive(result, prevPid);
+                    indexingOutbox.add(params.pid, prevPid, params.jobId);
+                });
 
-            String checksumPayloadmanifest = ImportUtils.generatePayloadmanifestChecksum(params.destination);
-            String ocrdIdentifier = ImportUtils.readOcrdIdentifier(params.bagInfos);
-            // New archive in mongoDB for this import
-            Archive archive = new Archive(
-                params.pid, importResult.getOnlineId(), importResult.getOfflineId(), ocrdIdentifier,
-                checksumPayloadmanifest
-            );
-            if (prevPid != null) {
-                /*
-                 * - this block finds the prevVersion-Archive in mongoDB, links between it and the
-                 * current uploaded archive and removes its onlineId so that ... I don't know why
-                 * that yet - synchronized because it could happen that two imports occur at the
-                 * same time and both change the same prevVersion-Archive
-                 */
-                synchronized (mutexFactory.getMutex(prevPid)) {
-                    Archive prevVersion = archiveRepository.findByPid(prevPid);
-                    archive.setPreviousVersion(prevVersion);
-                    prevVersion.setOnlineId(null);
-                    prevVersion.addNextVersion(archive);
-                    archiveRepository.save(archive);
-                    archiveRepository.save(prevVersion);
-                }
+                params.info.setStatus(TrackingStatus.SUCCESS);
+                params.info.setMessage("Data has been successfully imported.");
+                trackingRepository.save(params.info);
+                checkpoint(ImportStage.ARCHIVE_SAVED);
+
+                // The extracted files are still here, so the METS-file is not fetched from the archive manager later
+                archiveFileCache.addImport(params.pid, params.destination);
+            }
+        } catch (ImportInterruptedException ex) {
+            if (params.jobId != null) {
+                logger.warn("Archive Import interrupted, it will be resumed: {}", ex.getMessage());
+                interrupted = true;
             } else {
-                archiveRepository.save(archive);
+                logger.error("Archive Import failed", ex);
+                handleFailedImport(ex, params.pid, importResult, params.info);
             }
-            sendToElastic(params.formParams.getPrev());
         } catch (Exception ex) {
             logger.error("Archive Import failed", ex);
             handleFailedImport(ex, params.pid, importResult, params.info);
         } finally {
             // Clean up the temp: Files are saved in CDStar and not needed any more
-            FileSystemUtils.deleteRecursively(params.tempDir.toFile());
+            if (!interrupted) {
+                FileSystemUtils.deleteRecursively(params.tempDir.toFile());
+            }
         }
     }
 
     /**
-     * Inform web-notifier about the new ocrd-zip so that it can put it into the search-index.
-     *
-     * @param conf Config read from bag-info.txt and possibly updated with form parameters. Must not be null
+     * @return true if the import was interrupted by a temporary error and must be run again
      */
-    private void sendToElastic(String prevPid) {
-        String pid = this.params.pid;
-
-        try {
-            waitTillMetsAvailable(this.params.pid);
-        } catch (FailsafeException e) {
-            logger.error("Error waiting for mets.xml availability for pid: '" + pid + "'", e);
-            return;
-        }
-
-        try {
-            final String json = String.format(
-                "{"
-                    + "\"document\":\"%s\", \"context\":\"ocrd\", \"product\":\"olahds\","
-                    + "\"prev\":\"%s\""
-                + "}",
-                pid, prevPid != null ? prevPid : ""
-            );
-
-            Utils.logDebug("Sending json to mets-Importer: '" + json + "'");
-
-            RequestBody body = RequestBody.create(
-                okhttp3.MediaType.parse(
-                    "application/json; charset=utf-8"
-                ), json
-            );
-
-            Request request = new Request.Builder().url(this.params.webnotifierUrl)
-                .addHeader("Accept", "*/*").addHeader("Content-Type", "application/json")
-                .addHeader("Cache-Control", "no-cache").post(body).build();
-
-            try (Response response = new OkHttpClient().newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    logger.error(
-                        "Request to web-notifier failed. Message: '{}'. Code: '{}'",
-                        response.message(), response.code()
-                    );
-                } else {
-                    logger.info("Successfully sent request to web-notifier for PID: '" + pid + "'");
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error while trying to send request to web-notifier", e);
-        }
+    public boolean isInterrupted() {
+        return interrupted;
     }
 
     /**
-     * This method tries to read the mets for the provided pid until it is available but not longer
-     * than 'seconds'.
-     *
-     * @param pid
-     * @param seconds
+     * Save the archive of this import to the database and link it with the previous version. Nothing is done if the
+     * archive was already saved by a previous try.
      */
-    private void waitTillMetsAvailable(String pid) {
-        RetryPolicy<Object> retryPolicy = new RetryPolicy<>()
-            .withBackoff(5, 120, ChronoUnit.SECONDS)
-            .withMaxRetries(-1)
-            .withMaxDuration(Duration.ofMinutes(10));
-
-        Failsafe.with(retryPolicy).run(() -> {
-            Map<String, String> bagInfoMap = archiveManagerService.getBagInfoTxt(pid);
-            String metsPath = Utils.getMetsPath(bagInfoMap);
-            try (Response response = archiveManagerService.exportFile(pid, metsPath)) {
-                if (response.isSuccessful()) {
-                    return;
-                } else {
-                    throw new Exception("Failed to export mets");
-                }
+    private void saveArchive(ImportResult importResult, String prevPid) {
+        if (archiveRepository.findByPid(params.pid) != null) {
+            return;
+        }
+        String checksumPayloadmanifest = ImportUtils.generatePayloadmanifestChecksum(
+            params.destination, params.formParams.getDigests()
+        );
+        String ocrdIdentifier = ImportUtils.readOcrdIdentifier(params.bagInfos);
+        // New archive in mongoDB for this import
+        Archive archive = new Archive(
+            params.pid, importResult.getOnlineId(), importResult.getOfflineId(), ocrdIdentifier,
+            checksumPayloadmanifest
+        );
+        if (prevPid != null) {
+            /*
+             * - this block finds the prevVersion-Archive in mongoDB, links between it and the
+             * current uploaded archive and removes its onlineId so that ... I don't know why
+             * that yet - synchronized because it could happen that two imports occur at the
+             * same time and both change the same prevVersion-Archive
+             */
+            synchronized (mutexFactory.getMutex(prevPid)) {
+                Archive prevVersion = archiveRepository.findByPid(prevPid);
+                archive.setPreviousVersion(prevVersion);
+                prevVersion.setOnlineId(null);
+                prevVersion.addNextVersion(archive);
+                archiveRepository.save(archive);
+                archiveRepository.save(prevVersion);
             }
-        });
+            // The online archive of the previous version is gone now
+            archiveIdResolver.invalidate(prevPid);
+        } else {
+            archiveRepository.save(archive);
+        }
     }
 
     /**
@@ -4,6 +4,8 @@ import java.nio.file.Path;
 import java.util.AbstractMap;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.List;
+import ola.hd.longtermstorage.domain.ImportProgress;
+import ola.hd.longtermstorage.domain.ImportStage;
 import ola.hd.longtermstorage.domain.TrackingInfo;
 
 /**
@@ -32,6 +34,18 @@ public class BagImportParams {
     /** URL to webnotifier for sending requests*/
     String webnotifierUrl;
 
+    /** Id of the ImportJob processing this import */
+    String jobId;
+
+    /** URL where the stored file will be available after completed import */
+    String exportUrl;
+
+    /** Last completed stage of a resumed import. Null for a new import */
+    ImportStage stage;
+
+    /** Progress of the archive import of a resumed import. Null for a new import */
+    ImportProgress progress;
+
     public BagImportParams(Path destination, String pid, FormParams formParams,
         List<SimpleImmutableEntry<String, String>> bagInfos, TrackingInfo info, Path tempDir, String webnotifierUrl
     ) {
@@ -44,4 +58,60 @@ public class BagImportParams {
         this.tempDir = tempDir;
         this.webnotifierUrl = webnotifierUrl;
     }
+
+    public Path getDestination() {
+        return destination;
+    }
+
+    public String getPid() {
+        return pid;
+    }
+
+    public FormParams getFormParams() {
+        return formParams;
+    }
+
+    public List<AbstractMap.SimpleImmutableEntry<String, String>> getBagInfos() {
+        return bagInfos;
+    }
+
+    public TrackingInfo getInfo() {
+        return info;
+    }
+
+    public Path getTempDir() {
+        return tempDir;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getExportUrl() {
+        return exportUrl;
+    }
+
+    public void setExportUrl(String exportUrl) {
+        this.exportUrl = exportUrl;
+    }
+
+    public ImportStage getStage() {
+        return stage;
+    }
+
+    public void setStage(ImportStage stage) {
+        this.stage = stage;
+    }
+
+    public ImportProgress getProgress() {
+        return progress;
+    }
+
+    public void setProgress(ImportProgress progress) {
+        this.progress = progress;
+    }
 }
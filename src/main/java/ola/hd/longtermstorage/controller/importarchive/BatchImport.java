@@ -0,0 +1,337 @@
+package ola.hd.longtermstorage.controller.importarchive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.ZipException;
+import javax.servlet.http.HttpServletRequest;
+import ola.hd.longtermstorage.component.ImportAdmission;
+import ola.hd.longtermstorage.domain.ImportBatch;
+import ola.hd.longtermstorage.domain.ImportBatchResponse;
+import ola.hd.longtermstorage.domain.TrackingInfo;
+import ola.hd.longtermstorage.domain.TrackingStatus;
+import ola.hd.longtermstorage.repository.mongo.ImportBatchRepository;
+import ola.hd.longtermstorage.repository.mongo.TrackingRepository;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+
+/**
+ * Import of many OCRD-ZIPs with one request.
+ *
+ * The ZIPs are either sent as the file parts of one multipart request or are already in the staging directory of the
+ * server (`ola.hd.batch.staging-dir`). Every bag gets its own {@linkplain TrackingInfo} and is then processed like a
+ * single import by the {@linkplain ImportPipeline}: validation, PID creation and queueing run for
+ * `ola.hd.batch.parallelism` bags at the same time. ZIPs of a multipart request are extracted while they arrive, and
+ * the validation of a bag starts while the next one is still being received.
+ *
+ * A failing bag does not affect the other bags of the batch, its failure is saved to its tracking info.
+ */
+@Component
+public class BatchImport implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchImport.class);
+
+    private final TrackingRepository trackingRepository;
+
+    private final ImportBatchRepository importBatchRepository;
+
+    private final ImportPipeline importPipeline;
+
+    private final ImportAdmission importAdmission;
+
+    @Value("${ola.hd.upload.dir}")
+    private String uploadDir;
+
+    /** Directory containing OCRD-ZIPs to be imported by path. Empty to disable imports from the server */
+    @Value("${ola.hd.batch.staging-dir:}")
+    private String stagingDir;
+
+    /** Number of bags of all batches processed at the same time */
+    @Value("${ola.hd.batch.parallelism:4}")
+    private int parallelism;
+
+    @Value("${ola.hd.batch.max-bags:500}")
+    private int maxBags;
+
+    private ExecutorService executor;
+
+    public BatchImport(
+        TrackingRepository trackingRepository, ImportBatchRepository importBatchRepository,
+        ImportPipeline importPipeline, ImportAdmission importAdmission
+    ) {
+        this.trackingRepository = trackingRepository;
+        this.importBatchRepository = importBatchRepository;
+        this.importPipeline = importPipeline;
+        this.importAdmission = importAdmission;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "batch-import-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdown();
+    }
+
+    /**
+     * Import all ZIP-files of a multipart request. Form fields are ignored, the previous version of a bag is determined
+     * from its Ocrd-Identifier or bag-info.txt.
+     *
+     * The batch is saved before a bag is submitted, so every submitted bag can be found with the batch. If the request
+     * fails after the first bag was submitted, receiving stops and the batch is returned with a message saying which
+     * bags were not received.
+     *
+     * @param request  multipart request. The body must not be read yet
+     * @param username user who sent the request
+     * @return the batch. The bags are still being processed
+     * @throws HttpClientErrorException 400 if the request contains no ZIP or too many ZIPs
+     */
+    public ImportBatch importMultipart(HttpServletRequest request, String username)
+        throws IOException, FileUploadException {
+        ImportBatch batch = new ImportBatch(username);
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        ImportAdmission.Ticket ticket = importAdmission.admit(request);
+        try {
+            FileItemIterator iterStream = new ServletFileUpload().getItemIterator(request);
+            while (iterStream.hasNext()) {
+                FileItemStream item = iterStream.next();
+                if (item.isFormField()) {
+                    continue;
+                }
+                if (batch.getItems().size() >= maxBags) {
+                    throw new HttpClientErrorException(
+                        HttpStatus.BAD_REQUEST, "At most " + maxBags + " bags can be imported with one request"
+                    );
+                }
+                String name = FilenameUtils.getName(item.getName());
+                if (StringUtils.isBlank(name)) {
+                    name = "bag-" + (batch.getItems().size() + 1) + ".zip";
+                }
+                TrackingInfo info = createTrackingInfo(username);
+                batch.addItem(name, info.getId());
+
+                Path tempDir = Paths.get(uploadDir, UUID.randomUUID().toString());
+                FormParams formParams = createFormParams(tempDir, tempDir.resolve(name));
+                try (InputStream in = item.openStream()) {
+                    StreamingZipExtractor.Result result = new StreamingZipExtractor(
+                        formParams.getExtractedDir(), formParams.getDigests()
+                    ).extract(in, formParams.getFile().toPath());
+                    formParams.setExtracted(result == StreamingZipExtractor.Result.STREAMED);
+                    formParams.setPartiallySpooled(result == StreamingZipExtractor.Result.PARTIALLY_SPOOLED);
+                } catch (ZipException e) {
+                    fail(info, tempDir, e instanceof StreamingZipExtractor.NotAZipException
+                        ? "The file must be in the ZIP format"
+                        : "Invalid file input. The uploaded file must be a ZIP file with BagIt structure."
+                    );
+                    batch = importBatchRepository.save(batch);
+                    continue;
+                } catch (IOException e) {
+                    fail(info, tempDir, "The upload process was interrupted. Please try again.");
+                    throw e;
+                }
+                batch = importBatchRepository.save(batch);
+                tasks.add(submit(info, tempDir, formParams));
+            }
+        } catch (IOException | FileUploadException | HttpClientErrorException e) {
+            if (batch.getId() == null) {
+                throw e;
+            }
+            // Bags of the batch are already being imported, the client needs the batch to follow them
+            logger.warn("Receiving batch {} aborted after {} bags", batch.getId(), batch.getItems().size(), e);
+            String reason = e instanceof HttpClientErrorException
+                ? ((HttpClientErrorException)e).getStatusText() : "The upload process was interrupted";
+            batch.setMessage(reason + ". Only the listed bags were received, the others have to be sent again.");
+            return importBatchRepository.save(batch);
+        } finally {
+            // The ZIPs are received, release the ticket after the bags are extracted and validated
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((res, ex) -> ticket.close());
+        }
+        if (batch.getItems().isEmpty()) {
+            throw new HttpClientErrorException(HttpStatus.BAD_REQUEST, "The request must contain at least 1 zip file.");
+        }
+        return batch;
+    }
+
+    /**
+     * Import ZIP-files from the staging directory. The files are not changed or removed.
+     *
+     * @param paths    paths of the ZIP-files relative to the staging directory
+     * @param username user who sent the request
+     * @return the batch. The bags are still being processed
+     * @throws HttpClientErrorException 400 if a path is invalid, 404 if imports from the server are disabled
+     */
+    public ImportBatch importStaged(List<String> paths, String username) throws IOException {
+        if (StringUtils.isBlank(stagingDir)) {
+            throw new HttpClientErrorException(HttpStatus.NOT_FOUND, "Imports from the server are not enabled");
+        }
+        if (paths == null || paths.isEmpty()) {
+            throw new HttpClientErrorException(HttpStatus.BAD_REQUEST, "At least 1 path must be provided");
+        }
+        if (paths.size() > maxBags) {
+            throw new HttpClientErrorException(
+                HttpStatus.BAD_REQUEST, "At most " + maxBags + " bags can be imported with one request"
+            );
+        }
+
+        // Check all files first, so that nothing is imported if the request is wrong
+        List<Path> files = new ArrayList<>();
+        long size = 0;
+        for (String path : paths) {
+            Path file = resolveStaged(path);
+            files.add(file);
+            size += Files.size(file);
+        }
+
+        ImportBatch batch = new ImportBatch(username);
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        ImportAdmission.Ticket ticket = importAdmission.admit(size);
+        try {
+            for (Path file : files) {
+                TrackingInfo info = createTrackingInfo(username);
+                batch.addItem(file.getFileName().toString(), info.getId());
+                Path tempDir = Paths.get(uploadDir, UUID.randomUUID().toString());
+                FormParams formParams = createFormParams(tempDir, file);
+                tasks.add(submit(info, tempDir, formParams, () -> ImportUtils.checkIsZip(
+                    file.toFile(), info, tempDir, trackingRepository
+                )));
+            }
+        } finally {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((res, ex) -> ticket.close());
+        }
+        return importBatchRepository.save(batch);
+    }
+
+    /**
+     * Get the progress of a batch
+     *
+     * @param id       id of the batch
+     * @param username user asking for the progress
+     * @throws HttpClientErrorException 404 if the batch does not exist, 403 if it belongs to another user
+     */
+    public ImportBatchResponse getProgress(String id, String username) {
+        ImportBatch batch = importBatchRepository.findById(id).orElseThrow(
+            () -> new HttpClientErrorException(HttpStatus.NOT_FOUND, "Batch not found")
+        );
+        if (!batch.getUsername().equals(username)) {
+            throw new HttpClientErrorException(HttpStatus.FORBIDDEN, "Batch belongs to another user");
+        }
+        List<String> trackingIds = batch.getItems().stream()
+            .map(ImportBatch.Item::getTrackingId)
+            .collect(Collectors.toList());
+        Map<String, TrackingInfo> infos = new HashMap<>();
+        trackingRepository.findAllById(trackingIds).forEach(info -> infos.put(info.getId(), info));
+
+        ImportBatchResponse res = new ImportBatchResponse(batch);
+        for (ImportBatch.Item item : batch.getItems()) {
+            res.addItem(item.getName(), infos.get(item.getTrackingId()));
+        }
+        return res;
+    }
+
+    /**
+     * Resolve a path against the staging directory
+     *
+     * @throws HttpClientErrorException 400 if the path points outside of the staging directory or is not a file
+     */
+    private Path resolveStaged(String path) {
+        Path base = Paths.get(stagingDir).toAbsolutePath().normalize();
+        Path file = base.resolve(StringUtils.defaultString(path)).normalize();
+        if (!file.startsWith(base) || !Files.isRegularFile(file)) {
+            throw new HttpClientErrorException(HttpStatus.BAD_REQUEST, "File not found in staging directory: " + path);
+        }
+        return file;
+    }
+
+    private TrackingInfo createTrackingInfo(String username) {
+        return trackingRepository.save(
+            new TrackingInfo(username, TrackingStatus.PROCESSING, "Processing...", null)
+        );
+    }
+
+    private static FormParams createFormParams(Path tempDir, Path file) {
+        FormParams res = new FormParams();
+        res.setFile(file.toFile());
+        res.setExtractedDir(tempDir.resolve(FilenameUtils.getBaseName(file.toString()) + "_extracted"));
+        return res;
+    }
+
+    private CompletableFuture<Void> submit(TrackingInfo info, Path tempDir, FormParams formParams) {
+        return submit(info, tempDir, formParams, () -> {});
+    }
+
+    /**
+     * Validate and schedule one bag on the batch pool
+     *
+     * @param check called before the validation
+     */
+    private CompletableFuture<Void> submit(TrackingInfo info, Path tempDir, FormParams formParams, Check check) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                check.run();
+                List<AbstractMap.SimpleImmutableEntry<String, String>> bagInfos = importPipeline.verify(
+                    info, tempDir, formParams
+                );
+                importPipeline.schedule(info, tempDir, formParams, bagInfos);
+            } catch (HttpStatusCodeException e) {
+                // Client errors are already saved to the tracking info
+                if (info.getStatus() != TrackingStatus.FAILED) {
+                    fail(info, tempDir, e.getStatusText());
+                }
+            } catch (Exception e) {
+                logger.error("Unexpected error importing bag of a batch", e);
+                fail(info, tempDir, "Unexpected error: " + e.getMessage());
+            }
+        }, executor);
+    }
+
+    private void fail(TrackingInfo info, Path tempDir, String message) {
+        FileSystemUtils.deleteRecursively(tempDir.toFile());
+        info.setStatus(TrackingStatus.FAILED);
+        info.setMessage(message);
+        trackingRepository.save(info);
+    }
+
+    /**
+     * Check of a bag before it is validated
+     */
+    @FunctionalInterface
+    private interface Check {
+        void run() throws IOException;
+    }
+}
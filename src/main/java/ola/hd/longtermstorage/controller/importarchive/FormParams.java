@@ -1,6 +1,8 @@
 package ola.hd.longtermstorage.controller.importarchive;
 
 import java.io.File;
+import java.nio.file.Path;
+import ola.hd.longtermstorage.utils.DigestTable;
 
 /**
  * This class contains the form-parameters provided with the POST request of the import
@@ -9,6 +11,10 @@ public class FormParams {
 
     private File file = null;
     private String prev = null;
+    private Path extractedDir = null;
+    private boolean extracted = false;
+    private boolean partiallySpooled = false;
+    private final DigestTable digests = new DigestTable();
 
     public File getFile() {
         return file;
@@ -26,4 +32,45 @@ public class FormParams {
         this.prev = prev;
     }
 
+    /**
+     * Directory where the ZIP is (or has to be) extracted to
+     */
+    public Path getExtractedDir() {
+        return extractedDir;
+    }
+
+    public void setExtractedDir(Path extractedDir) {
+        this.extractedDir = extractedDir;
+    }
+
+    /**
+     * True if the ZIP was already extracted while it was uploaded
+     */
+    public boolean isExtracted() {
+        return extracted;
+    }
+
+    public void setExtracted(boolean extracted) {
+        this.extracted = extracted;
+    }
+
+    /**
+     * True if the ZIP was partly extracted while it was uploaded and only the rest was written to the file. The file
+     * starts with a hole then, see {@linkplain StreamingZipExtractor.Result#PARTIALLY_SPOOLED}
+     */
+    public boolean isPartiallySpooled() {
+        return partiallySpooled;
+    }
+
+    public void setPartiallySpooled(boolean partiallySpooled) {
+        this.partiallySpooled = partiallySpooled;
+    }
+
+    /**
+     * Checksums of the files calculated while extracting the ZIP
+     */
+    public DigestTable getDigests() {
+        return digests;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+package ola.hd.longtermstorage.controller.importarchive;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Locale;
+import net.jodah.failsafe.Failsafe;
+import ola.hd.longtermstorage.Constants;
+import ola.hd.longtermstorage.component.ImportJobQueue;
+import ola.hd.longtermstorage.component.PidPool;
+import ola.hd.longtermstorage.domain.Archive;
+import ola.hd.longtermstorage.domain.ArchiveFingerprint;
+import ola.hd.longtermstorage.domain.PreflightResponse;
+import ola.hd.longtermstorage.domain.PreflightResult;
+import ola.hd.longtermstorage.domain.ResponseMessage;
+import ola.hd.longtermstorage.domain.TrackingInfo;
+import ola.hd.longtermstorage.repository.mongo.ArchiveRepository;
+import ola.hd.longtermstorage.repository.mongo.TrackingRepository;
+import ola.hd.longtermstorage.utils.Utils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * Steps of an import after the OCRD-ZIP has been received: validate it, find the previous version, create the PID and
+ * queue the import into the archive manager.
+ *
+ * Used for the direct upload and for resumable upload sessions.
+ */
+@Component
+public class ImportPipeline {
+
+    private final TrackingRepository trackingRepository;
+
+    private final ArchiveRepository archiveRepository;
+
+    private final PidPool pidPool;
+
+    private final ImportJobQueue importJobQueue;
+
+    @Value("${webnotifier.url}")
+    private String webnotifierUrl;
+
+    public ImportPipeline(
+        TrackingRepository trackingRepository, ArchiveRepository archiveRepository, PidPool pidPool,
+        ImportJobQueue importJobQueue
+    ) {
+        this.trackingRepository = trackingRepository;
+        this.archiveRepository = archiveRepository;
+        this.pidPool = pidPool;
+        this.importJobQueue = importJobQueue;
+    }
+
+    /**
+     * Reject the import if the newest archive with the same Ocrd-Identifier has the same payload. This is checked with
+     * the fingerprint before the bag is validated, and again after the validation when the previous version is
+     * determined
+     *
+     * @param info        tracking info of the import
+     * @param tempDir     directory containing the ZIP, removed if the import is a duplicate
+     * @param fingerprint Ocrd-Identifier and payload manifest checksum of the bag
+     * @throws HttpClientErrorException with status 409 if the import is a duplicate
+     */
+    public void rejectDuplicate(TrackingInfo info, Path tempDir, BagFingerprint fingerprint) {
+        PreflightResponse check = preflight(
+            fingerprint.getOcrdIdentifier(), fingerprint.getPayloadManifestChecksum()
+        );
+        if (check.getResult() == PreflightResult.DUPLICATE) {
+            throwDuplicate(info, tempDir, fingerprint.getOcrdIdentifier());
+        }
+    }
+
+    /**
+     * Determine what an import of a bag would result in. Only the PID and checksum of the newest archive with the
+     * Ocrd-Identifier are read, using the index on ocrdIdentifier and createdAt
+     *
+     * @param ocrdIdentifier          Ocrd-Identifier from bag-info.txt
+     * @param payloadManifestChecksum sha512-checksum of manifest-sha512.txt in hex, upper or lower case
+     * @return duplicate, new version of the newest archive or new work
+     */
+    public PreflightResponse preflight(String ocrdIdentifier, String payloadManifestChecksum) {
+        // Checksums are saved in lower case, compared exactly like in schedule()
+        String checksum = payloadManifestChecksum.toLowerCase(Locale.ROOT);
+        ArchiveFingerprint prevArchive = archiveRepository.findTopByOcrdIdentifierOrderByCreatedAtDesc(
+            ocrdIdentifier, ArchiveFingerprint.class
+        );
+        if (prevArchive == null) {
+            return new PreflightResponse(PreflightResult.NEW_WORK, null);
+        } else if (checksum.equals(prevArchive.getChecksumPayloadmanifest())) {
+            return new PreflightResponse(PreflightResult.DUPLICATE, prevArchive.getPid());
+        } else {
+            return new PreflightResponse(PreflightResult.NEW_VERSION, prevArchive.getPid());
+        }
+    }
+
+    /**
+     * Extract (if not done yet) and validate the OCRD-ZIP.
+     *
+     * If the ZIP was not extracted while uploading, duplicates are rejected first using only bag-info.txt and the
+     * payload manifest of the ZIP.
+     *
+     * @param info       tracking info of the import
+     * @param tempDir    directory containing the ZIP, removed on failure
+     * @param formParams the received ZIP and the form parameters
+     * @return the entries of bag-info.txt
+     * @throws IOException
+     */
+    public List<AbstractMap.SimpleImmutableEntry<String, String>> verify(
+        TrackingInfo info, Path tempDir, FormParams formParams
+    ) throws IOException {
+        if (!formParams.isExtracted() && StringUtils.isBlank(formParams.getPrev())) {
+            BagFingerprint fingerprint = BagFingerprint.fromZip(formParams.getFile().toPath(), tempDir);
+            if (fingerprint != null) {
+                rejectDuplicate(info, tempDir, fingerprint);
+            }
+        }
+        return ImportUtils.extractAndVerifyOcrdzip(
+            formParams.getFile().toPath(), formParams.getExtractedDir(), tempDir, info, formParams, trackingRepository
+        );
+    }
+
+    /**
+     * Determine the previous version, create the PID and queue the import
+     *
+     * @param info       tracking info of the import
+     * @param tempDir    directory containing the ZIP, removed after the import
+     * @param formParams the received ZIP and the form parameters
+     * @param bagInfos   the entries of bag-info.txt
+     * @return message for the user containing the PID
+     */
+    public ResponseMessage schedule(
+        TrackingInfo info, Path tempDir, FormParams formParams,
+        List<AbstractMap.SimpleImmutableEntry<String, String>> bagInfos
+    ) {
+        Path destination = formParams.getExtractedDir();
+
+        // Set previous version in two cases: 1. If Ocrdzip with same OcrdIdentifier exist
+        // 2. if prev-pid is provided in the bag-info.txt
+        if (StringUtils.isBlank(formParams.getPrev())) {
+            String checksumPayloadmanifest = ImportUtils.generatePayloadmanifestChecksum(
+                destination, formParams.getDigests()
+            );
+            String ocrdIdentifier = ImportUtils.readOcrdIdentifier(bagInfos);
+            Archive prevArchive = archiveRepository.findTopByOcrdIdentifierOrderByCreatedAtDesc(ocrdIdentifier);
+            if (prevArchive != null) {
+                if (checksumPayloadmanifest.equals(prevArchive.getChecksumPayloadmanifest())) {
+                    // Abort if archive with same OcrdIdentifier and same payload already exists
+                    throwDuplicate(info, tempDir, ocrdIdentifier);
+                } else {
+                    formParams.setPrev(prevArchive.getPid());
+                }
+            } else {
+                String prevPid = ImportUtils.readBagInfoValue(bagInfos, Constants.BAGINFO_KEY_PREV_PID);
+                if (!Utils.isNullValue(prevPid)) {
+                    formParams.setPrev(prevPid);
+                }
+            }
+        }
+
+        // Take a PID from the pool or create one with meta-data from bag-info.txt
+        String pid = Failsafe.with(ImportUtils.RETRY_POLICY).get(() -> pidPool.take(bagInfos));
+        if (StringUtils.isBlank(pid)) {
+            ImportUtils.throwClientException(
+                "No PID received", info, HttpStatus.INTERNAL_SERVER_ERROR, trackingRepository
+            );
+        } else {
+            info.setPid(pid);
+        }
+
+        // The job references the tracking info, so it must be saved first
+        trackingRepository.save(info);
+
+        // **here the OCRD-ZIP is scheduled to be saved** to the external archive
+        importJobQueue.enqueue(
+            new BagImportParams(destination, pid, formParams, bagInfos, info, tempDir, webnotifierUrl)
+        );
+
+        // Inform the user that the import is done in the background.
+        ResponseMessage responseMessage = new ResponseMessage(HttpStatus.ACCEPTED, "Your data is being processed.");
+        responseMessage.setPid(pid);
+        return responseMessage;
+    }
+
+    private void throwDuplicate(TrackingInfo info, Path tempDir, String ocrdIdentifier) {
+        FileSystemUtils.deleteRecursively(tempDir.toFile());
+        ImportUtils.throwClientException(
+            String.format("Newest archive of OcrdIdentifier '%s' has the same payload(-checksum).", ocrdIdentifier),
+            info, HttpStatus.CONFLICT, trackingRepository
+        );
+    }
+}
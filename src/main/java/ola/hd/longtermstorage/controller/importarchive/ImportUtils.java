@@ -15,11 +15,12 @@ import java.time.Duration;
 import java.util.AbstractMap;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.zip.ZipException;
 import javax.servlet.http.HttpServletRequest;
 import net.jodah.failsafe.RetryPolicy;
-import net.lingala.zip4j.ZipFile;
 import ola.hd.longtermstorage.Constants;
 import ola.hd.longtermstorage.domain.TrackingInfo;
 import ola.hd.longtermstorage.domain.TrackingStatus;
@@ -29,6 +30,7 @@ import ola.hd.longtermstorage.exceptions.MetsSchemaException;
 import ola.hd.longtermstorage.exceptions.OcrdzipInvalidException;
 import ola.hd.longtermstorage.repository.mongo.TrackingRepository;
 import ola.hd.longtermstorage.utils.BagitManifestValidation;
+import ola.hd.longtermstorage.utils.DigestTable;
 import ola.hd.longtermstorage.utils.Utils;
 import org.apache.commons.fileupload.FileItemIterator;
 import org.apache.commons.fileupload.FileItemStream;
@@ -36,6 +38,7 @@ import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.apache.commons.fileupload.util.Streams;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.tika.Tika;
@@ -114,6 +117,19 @@ public class ImportUtils {
         return "";
     }
 
+    /**
+     * Create sha512-checksum for file "manifest-sha512.txt". Take it from the checksums calculated while extracting if
+     * available
+     *
+     * @param bagDir Path to unpacked ocrdzip
+     * @param digests Checksums calculated while extracting
+     * @return
+     */
+    public static String generatePayloadmanifestChecksum(Path bagDir, DigestTable digests) {
+        String checksum = digests.get(Constants.PAYLOAD_MANIFEST_NAME);
+        return checksum != null ? checksum : generatePayloadmanifestChecksum(bagDir);
+    }
+
     /**
      * Create sha512-checksum for file "manifest-sha512.txt"
      *
@@ -133,7 +149,8 @@ public class ImportUtils {
     /**
      * Extract bagit, read metadata and verify that the ZIP-file is a valid bagit.
      *
-     * Additionally validate that bag is valid according to ocrd-zip: https://ocr-d.de/en/spec/ocrd_zip.
+     * Additionally validate that bag is valid according to ocrd-zip: https://ocr-d.de/en/spec/ocrd_zip. If the ZIP was
+     * already extracted while uploading (see {@linkplain FormParams#isExtracted()}) the extraction is skipped.
      *
      * @param targetFile Location of the ZIP-File
      * @param destination Where to extract the file
@@ -147,29 +164,36 @@ public class ImportUtils {
         Path targetFile, Path destination, Path tempDir, TrackingInfo info, FormParams params,
         TrackingRepository trackingRepository
     ) throws IOException {
-        Bag bag;
-        // Default executor service used crashes with about more than 20.00 files.
-        ExecutorService exeService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-        try (BagVerifier verifier = new BagVerifier(exeService); ZipFile zipFile = new ZipFile(targetFile.toFile())) {
-            // Extract the zip file
-            zipFile.extractAll(destination.toString());
-            BagReader reader = new BagReader();
-
-            // Create a bag from an existing directory
-            bag = reader.read(destination);
-
-            if (BagVerifier.canQuickVerify(bag)) {
-                BagVerifier.quicklyVerify(bag);
-                MandatoryVerifier.checkBagitFileExists(bag.getRootDir(), bag.getVersion());
-                MandatoryVerifier.checkPayloadDirectoryExists(bag);
-                MandatoryVerifier.checkIfAtLeastOnePayloadManifestsExist(bag.getRootDir(), bag.getVersion());
-            }
-
+        AtomicReference<Bag> bag = new AtomicReference<>();
+        try {
+            // The checks only depend on the extracted bag, not on each other, so they run concurrently
+            ValidationStages stages = new ValidationStages(destination.getFileName().toString());
+            AtomicBoolean manifestsCancelled = stages.getCancellation("manifests");
+            AtomicBoolean metsCancelled = stages.getCancellation("mets-schema");
+            stages.add("read-bag", () -> {
+                // Extract the zip file if this was not already done while uploading
+                if (!params.isExtracted()) {
+                    new StreamingZipExtractor(destination, params.getDigests()).extract(targetFile);
+                }
+                // Create a bag from an existing directory
+                bag.set(new BagReader().read(destination));
+            });
+            stages.add("bagit-structure", () -> {
+                Bag b = bag.get();
+                if (BagVerifier.canQuickVerify(b)) {
+                    BagVerifier.quicklyVerify(b);
+                    MandatoryVerifier.checkBagitFileExists(b.getRootDir(), b.getVersion());
+                    MandatoryVerifier.checkPayloadDirectoryExists(b);
+                    MandatoryVerifier.checkIfAtLeastOnePayloadManifestsExist(b.getRootDir(), b.getVersion());
+                }
+            }, "read-bag");
             // Validate payload and tag manifest
-            new BagitManifestValidation(destination).validate(true);
-
-            Validation.validateOcrdzip(bag, destination, params);
-            Validation.validateMetsfileSchema(bag);
+            stages.add("manifests", () -> new BagitManifestValidation(destination, params.getDigests())
+                .validate(true, manifestsCancelled), "read-bag"
+            );
+            stages.add("ocrdzip", () -> Validation.validateOcrdzip(bag.get(), destination, params), "read-bag");
+            stages.add("mets-schema", () -> Validation.validateMetsfileSchema(bag.get(), metsCancelled), "read-bag");
+            stages.run();
         } catch (Exception ex) {
             // Clean up the temp
             FileSystemUtils.deleteRecursively(tempDir.toFile());
@@ -200,7 +224,7 @@ public class ImportUtils {
             // Throw a friendly message to the client
             throw new HttpClientErrorException(HttpStatus.BAD_REQUEST, message);
         }
-        return bag.getMetadata().getAll();
+        return bag.get().getMetadata().getAll();
     }
 
     /**
@@ -212,9 +236,19 @@ public class ImportUtils {
      * not exactly one ZIP-file provided in the request a HttpClientErrorException is thrown.
      * More form parameter have been added over time and all the parameters are read, validated and returned here.
      *
+     * With `streaming` the ZIP is extracted while it is uploaded (see {@linkplain StreamingZipExtractor}) so that it is
+     * not written to disk and read again before the validation can start. The ZIP-file is only saved if it cannot be
+     * extracted this way.
+     *
+     * While streaming, `duplicateCheck` is called as soon as bag-info.txt and the payload manifest are extracted, so
+     * that a duplicate can be rejected before the rest of the upload is read. It is only called if `prev` was not sent
+     * before the file.
+     *
      * @param request   request is needed to get the parameters
      * @param principal user who initiated request. User name is needed for potential error messages
      * @param uploadDir   Temporary directory to store the ZIP-file in
+     * @param streaming   Extract the ZIP while it is uploaded
+     * @param duplicateCheck called with the fingerprint of the bag while streaming, optional
      * @return
      * @throws IOException              forwarded from apache-commons
      * @throws FileUploadException      forwarded from apache-commons
@@ -222,7 +256,8 @@ public class ImportUtils {
      *                                  occurred while writing to temporary-directory
      */
     public static FormParams readFormParams(
-        HttpServletRequest request, TrackingInfo info, Path tempDir, TrackingRepository trackingRepository
+        HttpServletRequest request, TrackingInfo info, Path tempDir, TrackingRepository trackingRepository,
+        boolean streaming, Consumer<BagFingerprint> duplicateCheck
     ) throws FileUploadException, IOException {
         Utils.logDebug("Trying to read form params. Request: " + Utils.readRequestInfos(request));
         FormParams res = new FormParams();
@@ -247,14 +282,51 @@ public class ImportUtils {
 
                 targetFile = tempDir.resolve(item.getName()).toFile();
                 res.setFile(targetFile);
-                try (InputStream uploadedStream = item.openStream();
-                    OutputStream out = FileUtils.openOutputStream(targetFile)
-                ) {
-                    IOUtils.copy(uploadedStream, out);
-                } catch (IOException e) {
-                    logger.error(e.getMessage(), e);
-                    throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR,
-                            "The upload process was interrupted. Please try again.");
+                res.setExtractedDir(
+                    tempDir.resolve(FilenameUtils.getBaseName(targetFile.getName()) + "_extracted")
+                );
+                if (streaming) {
+                    try (InputStream uploadedStream = item.openStream()) {
+                        StreamingZipExtractor extractor = new StreamingZipExtractor(
+                            res.getExtractedDir(), res.getDigests()
+                        );
+                        if (duplicateCheck != null && StringUtils.isBlank(res.getPrev())) {
+                            extractor.setListener(path -> {
+                                if (BagFingerprint.isFingerprintFile(path)) {
+                                    BagFingerprint fingerprint = BagFingerprint.fromDirectory(
+                                        res.getExtractedDir(), res.getDigests()
+                                    );
+                                    if (fingerprint != null) {
+                                        duplicateCheck.accept(fingerprint);
+                                    }
+                                }
+                            });
+                        }
+                        StreamingZipExtractor.Result result = extractor.extract(uploadedStream, targetFile.toPath());
+                        res.setExtracted(result == StreamingZipExtractor.Result.STREAMED);
+                        res.setPartiallySpooled(result == StreamingZipExtractor.Result.PARTIALLY_SPOOLED);
+                    } catch (ZipException e) {
+                        FileSystemUtils.deleteRecursively(tempDir.toFile());
+                        String msg = e instanceof StreamingZipExtractor.NotAZipException
+                            ? "The file must be in the ZIP format"
+                            : "Invalid file input. The uploaded file must be a ZIP file with BagIt structure.";
+                        throwClientException(msg, info, HttpStatus.BAD_REQUEST, trackingRepository);
+                    } catch (IOException e) {
+                        logger.error(e.getMessage(), e);
+                        FileSystemUtils.deleteRecursively(tempDir.toFile());
+                        throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR,
+                                "The upload process was interrupted. Please try again.");
+                    }
+                } else {
+                    try (InputStream uploadedStream = item.openStream();
+                        OutputStream out = FileUtils.openOutputStream(targetFile)
+                    ) {
+                        IOUtils.copy(uploadedStream, out);
+                    } catch (IOException e) {
+                        logger.error(e.getMessage(), e);
+                        throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR,
+                                "The upload process was interrupted. Please try again.");
+                    }
                 }
             } else {
                 // a request can be an update of an existing ZIP. In this case prevPID is provided
@@ -272,8 +344,42 @@ public class ImportUtils {
         }
 
         // Not a ZIP file?
+        checkIsZip(res, info, tempDir, trackingRepository);
+
+        return res;
+    }
+
+    /**
+     * Make sure the uploaded file is a ZIP, like {@linkplain #checkIsZip(File, TrackingInfo, Path, TrackingRepository)}.
+     * Streamed uploads are skipped, their first local file header was already checked while extracting.
+     *
+     * @param params  form parameters of the upload
+     * @param info    tracking info of the import
+     * @param tempDir temporary directory containing the file
+     * @throws IOException              if the file cannot be read
+     * @throws HttpClientErrorException if the file is not a ZIP
+     */
+    public static void checkIsZip(FormParams params, TrackingInfo info, Path tempDir,
+        TrackingRepository trackingRepository) throws IOException {
+        if (params.isExtracted() || params.isPartiallySpooled()) {
+            return;
+        }
+        checkIsZip(params.getFile(), info, tempDir, trackingRepository);
+    }
+
+    /**
+     * Make sure the uploaded file is a ZIP. Otherwise the temporary directory is removed and the request is rejected.
+     *
+     * @param file    the uploaded file
+     * @param info    tracking info of the import
+     * @param tempDir temporary directory containing the file
+     * @throws IOException              if the file cannot be read
+     * @throws HttpClientErrorException if the file is not a ZIP
+     */
+    public static void checkIsZip(File file, TrackingInfo info, Path tempDir, TrackingRepository trackingRepository)
+        throws IOException {
         Tika tika = new Tika();
-        String mimeType = tika.detect(targetFile);
+        String mimeType = tika.detect(file);
         if (!mimeType.equals("application/zip")) {
             // Clean up the temporary directory
             FileSystemUtils.deleteRecursively(tempDir.toFile());
@@ -281,8 +387,6 @@ public class ImportUtils {
                 HttpStatus.BAD_REQUEST, trackingRepository
             );
         }
-
-        return res;
     }
 
 
@@ -0,0 +1,23 @@
+package ola.hd.longtermstorage.controller.importarchive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compiles the METS schema at startup, so the first import does not have to wait for it. The schema only consists of
+ * bundled files, so if it cannot be compiled the application is broken and does not start.
+ */
+@Component
+public class MetsSchemaInitializer implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetsSchemaInitializer.class);
+
+    @Override
+    public void run(String... args) {
+        long start = System.currentTimeMillis();
+        Validation.initMetsValidationSchema();
+        logger.info("Compiled METS schema in {}ms", System.currentTimeMillis() - start);
+    }
+}
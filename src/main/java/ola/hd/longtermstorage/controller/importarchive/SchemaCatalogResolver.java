@@ -0,0 +1,175 @@
+package ola.hd.longtermstorage.controller.importarchive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+
+/**
+ * Resolves imported schemas to copies bundled on the classpath.
+ *
+ * The mapping is read from an OASIS XML catalog. `system` entries map a schema location, `uri` entries map a target
+ * namespace (used for imports without a schema location). A referenced schema which is not in the catalog is not
+ * loaded from the network: resolving it fails, so a missing schema is noticed when the schema is compiled.
+ */
+class SchemaCatalogResolver implements LSResourceResolver {
+
+    private static final String CATALOG_NS = "urn:oasis:names:tc:entity:xmlns:xml:catalog";
+
+    /** schema location to bundled file */
+    private final Map<String, URL> systemIds = new HashMap<>();
+
+    /** namespace to bundled file */
+    private final Map<String, URL> namespaces = new HashMap<>();
+
+    /**
+     * @param catalog classpath location of the catalog
+     */
+    SchemaCatalogResolver(String catalog) {
+        URL catalogUrl = SchemaCatalogResolver.class.getClassLoader().getResource(catalog);
+        if (catalogUrl == null) {
+            throw new IllegalArgumentException("Schema catalog not found: '" + catalog + "'");
+        }
+        try (InputStream in = catalogUrl.openStream()) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            Document doc = factory.newDocumentBuilder().parse(in);
+            readEntries(doc, "system", "systemId", catalogUrl, systemIds);
+            readEntries(doc, "uri", "name", catalogUrl, namespaces);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot read schema catalog '" + catalog + "'", e);
+        }
+    }
+
+    private static void readEntries(Document doc, String element, String keyAttribute, URL base, Map<String, URL> res)
+        throws IOException {
+        NodeList entries = doc.getElementsByTagNameNS(CATALOG_NS, element);
+        for (int i = 0; i < entries.getLength(); i++) {
+            Element entry = (Element)entries.item(i);
+            res.put(entry.getAttribute(keyAttribute), new URL(base, entry.getAttribute("uri")));
+        }
+    }
+
+    @Override
+    public LSInput resolveResource(
+        String type, String namespaceURI, String publicId, String systemId, String baseURI
+    ) {
+        URL url = systemId != null ? systemIds.get(systemId) : null;
+        if (url == null && namespaceURI != null) {
+            url = namespaces.get(namespaceURI);
+        }
+        if (url == null) {
+            if (systemId != null && systemId.matches("(?i)^(https?|ftp):.*")) {
+                throw new IllegalStateException("Schema not bundled: '" + systemId + "'");
+            }
+            // Relative references inside the bundle are resolved by the parser itself
+            return null;
+        }
+        return new BundledInput(publicId, url.toString(), baseURI);
+    }
+
+    /**
+     * A schema read from the classpath
+     */
+    private static class BundledInput implements LSInput {
+
+        private String publicId;
+        private String systemId;
+        private String baseURI;
+
+        BundledInput(String publicId, String systemId, String baseURI) {
+            this.publicId = publicId;
+            this.systemId = systemId;
+            this.baseURI = baseURI;
+        }
+
+        @Override
+        public InputStream getByteStream() {
+            try {
+                return new URL(systemId).openStream();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read bundled schema '" + systemId + "'", e);
+            }
+        }
+
+        @Override
+        public String getSystemId() {
+            return systemId;
+        }
+
+        @Override
+        public void setSystemId(String systemId) {
+            this.systemId = systemId;
+        }
+
+        @Override
+        public String getPublicId() {
+            return publicId;
+        }
+
+        @Override
+        public void setPublicId(String publicId) {
+            this.publicId = publicId;
+        }
+
+        @Override
+        public String getBaseURI() {
+            return baseURI;
+        }
+
+        @Override
+        public void setBaseURI(String baseURI) {
+            this.baseURI = baseURI;
+        }
+
+        @Override
+        public Reader getCharacterStream() {
+            return null;
+        }
+
+        @Override
+        public void setCharacterStream(Reader characterStream) {
+        }
+
+        @Override
+        public void setByteStream(InputStream byteStream) {
+        }
+
+        @Override
+        public String getStringData() {
+            return null;
+        }
+
+        @Override
+        public void setStringData(String stringData) {
+        }
+
+        @Override
+        public String getEncoding() {
+            return null;
+        }
+
+        @Override
+        public void setEncoding(String encoding) {
+        }
+
+        @Override
+        public boolean getCertifiedText() {
+            return false;
+        }
+
+        @Override
+        public void setCertifiedText(boolean certifiedText) {
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package ola.hd.longtermstorage.controller.importarchive;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import javax.xml.bind.DatatypeConverter;
+import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.FileHeader;
+import ola.hd.longtermstorage.utils.DigestTable;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Extracts an OCRD-ZIP directly from the (upload-)stream while it is still arriving.
+ *
+ * The entries are read one after another through their local file headers, so the ZIP does not have to be written to
+ * disk before it can be unpacked. Some ZIPs cannot be read like this, because the size of an entry is only known from
+ * the central directory at the end of the file (STORED entries followed by a data descriptor) or because the entries
+ * are encrypted. This is detected with the header of the first entry. In that case the stream is written to a spool
+ * file instead and has to be extracted with {@linkplain #extract(Path)} afterwards.
+ *
+ * If such an entry only appears later in the ZIP, the rest of the stream is written to the spool file at its original
+ * offset. The part of the ZIP which was already extracted is left as a hole in the (sparse) spool file, and
+ * {@linkplain #extract(Path)} only extracts the entries which are still missing.
+ *
+ * While writing the files their SHA-512 checksums are calculated and saved to a {@linkplain DigestTable}, so the bag
+ * manifests can be validated without reading the extracted files again.
+ */
+public class StreamingZipExtractor {
+
+    /** Result of {@linkplain StreamingZipExtractor#extract(InputStream, Path)} */
+    public enum Result {
+        /** ZIP was extracted to the destination directory */
+        STREAMED,
+        /** ZIP was written to the spool file and still has to be extracted */
+        SPOOLED,
+        /**
+         * ZIP was partly extracted, the rest was written to the spool file and still has to be extracted. The spool
+         * file starts with a hole, so it cannot be recognized as ZIP by its content
+         */
+        PARTIALLY_SPOOLED
+    }
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int FLAG_ENCRYPTED = 0x1;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x8;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of bytes kept of the end of the stream read so far. ZipInputStream reads ahead at most 512 bytes, so this
+     * always contains the header of the entry which could not be read
+     */
+    private static final int TAIL_SIZE = 64 * 1024;
+
+    /** Where to extract the ZIP to */
+    private final Path destination;
+
+    /** Checksums of the extracted files */
+    private final DigestTable digests;
+
+    /** Reused for every entry */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private final MessageDigest sha512;
+
+    /** Informed about every extracted file, optional */
+    private EntryListener listener;
+
+    public StreamingZipExtractor(Path destination, DigestTable digests) {
+        super();
+        this.destination = destination.toAbsolutePath().normalize();
+        this.digests = digests;
+        try {
+            this.sha512 = MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Unexpected error when creating sha512-hash");
+        }
+    }
+
+    /**
+     * Set a listener which is called after every extracted file. Exceptions thrown by the listener abort the extraction
+     */
+    public void setListener(EntryListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Extract the ZIP from the stream into the destination directory or, if that is not possible, write it to
+     * `spoolFile`.
+     *
+     * @param in        stream containing the ZIP
+     * @param spoolFile where to save the ZIP if it cannot be extracted while streaming
+     * @return how the ZIP was processed
+     * @throws NotAZipException if the stream does not start with a ZIP local file header
+     * @throws ZipException     if the ZIP is corrupt
+     * @throws IOException      if reading the stream or writing a file fails
+     */
+    public Result extract(InputStream in, Path spoolFile) throws IOException {
+        TailInputStream tail = new TailInputStream(in);
+        PushbackInputStream pin = new PushbackInputStream(tail, LOCAL_HEADER_SIZE);
+        byte[] header = new byte[LOCAL_HEADER_SIZE];
+        int len = IOUtils.read(pin, header);
+        if (len < LOCAL_HEADER_SIZE || readInt(header, 0) != LOCAL_HEADER_SIGNATURE) {
+            throw new NotAZipException();
+        }
+        pin.unread(header, 0, len);
+
+        if (!isStreamable(header)) {
+            Files.createDirectories(spoolFile.getParent());
+            try (OutputStream out = Files.newOutputStream(spoolFile)) {
+                IOUtils.copy(pin, out, BUFFER_SIZE);
+            }
+            return Result.SPOOLED;
+        }
+
+        Files.createDirectories(destination);
+        try (ZipInputStream zin = new ZipInputStream(pin)) {
+            int entries = 0;
+            while (true) {
+                ZipEntry entry;
+                try {
+                    entry = zin.getNextEntry();
+                } catch (ZipException e) {
+                    if (entries == 0) {
+                        throw e;
+                    }
+                    // Probably an entry which can only be read with the central directory, extract the rest from disk
+                    spoolRest(tail, spoolFile);
+                    return Result.PARTIALLY_SPOOLED;
+                }
+                if (entry == null) {
+                    return Result.STREAMED;
+                }
+                extractEntry(entry.getName(), entry.isDirectory(), zin);
+                entries++;
+            }
+        }
+    }
+
+    /**
+     * Write the remaining stream to the spool file at the offset where it is located in the ZIP
+     */
+    private static void spoolRest(TailInputStream tail, Path spoolFile) throws IOException {
+        Files.createDirectories(spoolFile.getParent());
+        try (SeekableByteChannel channel = Files.newByteChannel(spoolFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+            tail.writeTail(channel);
+            IOUtils.copy(tail.in(), Channels.newOutputStream(channel), BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Extract a ZIP-file from disk into the destination directory. This is used for ZIPs which could not be extracted
+     * while streaming. Files which already have a checksum were extracted while streaming and are skipped.
+     *
+     * @param zip Location of the ZIP-file
+     * @throws IOException if the ZIP is corrupt or writing a file fails
+     */
+    public void extract(Path zip) throws IOException {
+        Files.createDirectories(destination);
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            for (FileHeader header : zipFile.getFileHeaders()) {
+                if (header.isDirectory()) {
+                    Files.createDirectories(resolveEntry(header.getFileName()));
+                    continue;
+                }
+                Path target = resolveEntry(header.getFileName());
+                if (digests.get(destination.relativize(target).toString()) != null && Files.exists(target)) {
+                    continue;
+                }
+                try (InputStream in = zipFile.getInputStream(header)) {
+                    extractEntry(header.getFileName(), header.isDirectory(), in);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write one entry of the ZIP to the destination and save its checksum
+     *
+     * @param name        name of the ZIP entry
+     * @param isDirectory if the entry is a directory
+     * @param in          content of the entry
+     * @throws IOException
+     */
+    private void extractEntry(String name, boolean isDirectory, InputStream in) throws IOException {
+        Path target = resolveEntry(name);
+        if (isDirectory) {
+            Files.createDirectories(target);
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        sha512.reset();
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                sha512.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        }
+        String hash = DatatypeConverter.printHexBinary(sha512.digest()).toLowerCase();
+        String relativePath = destination.relativize(target).toString();
+        digests.put(relativePath, hash);
+        if (listener != null) {
+            listener.extracted(relativePath);
+        }
+    }
+
+    /**
+     * Resolve the name of a ZIP entry against the destination and make sure it does not point outside of it
+     *
+     * @param name name of the ZIP entry
+     * @return path to extract the entry to
+     * @throws ZipException if the entry would be extracted outside of the destination directory
+     */
+    private Path resolveEntry(String name) throws ZipException {
+        Path target = destination.resolve(name).normalize();
+        if (!target.startsWith(destination) || target.equals(destination)) {
+            throw new ZipException("Invalid entry name in ZIP: '" + name + "'");
+        }
+        return target;
+    }
+
+    /**
+     * Check the first local file header if the ZIP can be read without the central directory
+     *
+     * @param header first 30 bytes of the ZIP
+     * @return
+     */
+    private static boolean isStreamable(byte[] header) {
+        int flags = readShort(header, 6);
+        int method = readShort(header, 8);
+        if ((flags & FLAG_ENCRYPTED) != 0) {
+            return false;
+        } else if (method == METHOD_STORED) {
+            return (flags & FLAG_DATA_DESCRIPTOR) == 0;
+        } else {
+            return method == METHOD_DEFLATED;
+        }
+    }
+
+    private static int readShort(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return readShort(b, off) | (readShort(b, off + 2) << 16);
+    }
+
+    /**
+     * Keeps the last bytes read from the stream and counts them, so the stream can be written to a file at its original
+     * offset after an entry could not be read
+     */
+    private static class TailInputStream extends FilterInputStream {
+
+        private final byte[] tail = new byte[TAIL_SIZE];
+
+        /** Number of bytes read */
+        private long count;
+
+        private TailInputStream(InputStream in) {
+            super(in);
+        }
+
+        private InputStream in() {
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                tail[(int)(count % TAIL_SIZE)] = (byte)b;
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            for (int i = 0; i < n; i++) {
+                tail[(int)((count + i) % TAIL_SIZE)] = b[off + i];
+            }
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes would be missing in the tail
+            return Math.max(0, read(new byte[(int)Math.min(n, BUFFER_SIZE)]));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Write the kept bytes to the channel at the position they were read from
+         */
+        private void writeTail(SeekableByteChannel channel) throws IOException {
+            int len = (int)Math.min(count, TAIL_SIZE);
+            long start = count - len;
+            int from = (int)(start % TAIL_SIZE);
+            channel.position(start);
+            ByteBuffer first = ByteBuffer.wrap(tail, from, Math.min(len, TAIL_SIZE - from));
+            ByteBuffer second = ByteBuffer.wrap(tail, 0, len - first.remaining());
+            while (first.hasRemaining()) {
+                channel.write(first);
+            }
+            while (second.hasRemaining()) {
+                channel.write(second);
+            }
+        }
+    }
+
+    /**
+     * Called when a file was extracted and its checksum was saved
+     */
+    @FunctionalInterface
+    public interface EntryListener {
+
+        /**
+         * @param path path of the file relative to the destination
+         * @throws IOException
+         */
+        void extracted(String path) throws IOException;
+    }
+
+    /**
+     * Thrown if the stream to extract does not contain a ZIP
+     */
+    public static class NotAZipException extends ZipException {
+
+        private static final long serialVersionUID = 3402861853096472818L;
+
+        public NotAZipException() {
+            super("Not a ZIP file");
+        }
+    }
+}
@@ -2,12 +2,16 @@ package ola.hd.longtermstorage.controller.importarchive;
 
 import gov.loc.repository.bagit.domain.Bag;
 import gov.loc.repository.bagit.domain.Metadata;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import javax.xml.XMLConstants;
 import javax.xml.transform.stream.StreamSource;
@@ -26,7 +30,13 @@ import org.xml.sax.SAXException;
  */
 class Validation {
 
-    private static Schema METS_VALIDATION_SCHEMA;
+    /**
+     * Validators are not thread-safe but can be reused, so every thread keeps one. Creating a validator from the
+     * compiled schema is cheap compared to compiling the schema
+     */
+    private static final ThreadLocal<Validator> METS_VALIDATOR = ThreadLocal.withInitial(
+        () -> getMetsValidationSchema().newValidator()
+    );
 
     private Validation() {}
 
@@ -149,6 +159,18 @@ class Validation {
      * @throws MetsInvalidException - if mets of bag is invalid
      */
     static void validateMetsfileSchema(Bag bag) {
+        validateMetsfileSchema(bag, new AtomicBoolean());
+    }
+
+    /**
+     * Validate that mets adheres to its xsd. Parsing is aborted when `stop` is set
+     *
+     * @param bag
+     * @param stop cancellation token
+     * @throws MetsInvalidException  - if mets of bag is invalid
+     * @throws CancellationException - if stopped
+     */
+    static void validateMetsfileSchema(Bag bag, AtomicBoolean stop) {
         var metadata = bag.getMetadata();
         Path mets;
         if (metadata.contains(Constants.BAGINFO_KEY_METS)) {
@@ -157,28 +179,88 @@ class Validation {
         } else {
             mets = bag.getRootDir().resolve("data").resolve("mets.xml");
         }
-        try {
-            var schema = getMetsValidationSchema();
-            Validator validator = schema.newValidator();
-            validator.validate(new StreamSource(mets.toFile()));
+        Validator validator = METS_VALIDATOR.get();
+        try (InputStream in = new CancellableInputStream(Files.newInputStream(mets), stop)) {
+            validator.validate(new StreamSource(in, mets.toUri().toString()));
         } catch (IOException | SAXException e) {
+            if (stop.get()) {
+                throw new CancellationException();
+            }
             throw new MetsInvalidException(e.getMessage());
         }
     }
 
+    /**
+     * Stops reading when the cancellation token is set
+     */
+    private static class CancellableInputStream extends FilterInputStream {
+
+        private final AtomicBoolean stop;
+
+        CancellableInputStream(InputStream in, AtomicBoolean stop) {
+            super(in);
+            this.stop = stop;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkCancelled();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkCancelled();
+            return super.read(b, off, len);
+        }
+
+        private void checkCancelled() throws InterruptedIOException {
+            if (stop.get()) {
+                throw new InterruptedIOException("Validation cancelled");
+            }
+        }
+    }
+
+    /**
+     * Compile the METS schema now instead of at the first validation
+     *
+     * @throws MetsSchemaException if the schema cannot be compiled
+     */
+    static void initMetsValidationSchema() {
+        getMetsValidationSchema();
+    }
+
     private static Schema getMetsValidationSchema() {
-        if (Validation.METS_VALIDATION_SCHEMA == null) {
+        if (MetsSchemaHolder.ERROR != null) {
+            throw new MetsSchemaException("Error creating XML validation schema", MetsSchemaHolder.ERROR);
+        }
+        return MetsSchemaHolder.SCHEMA;
+    }
+
+    /**
+     * Compiles the METS schema when it is first used. The class is initialized only once, so concurrent first
+     * validations wait for the same schema. Imported schemas (xlink) are bundled and resolved through
+     * validation/catalog.xml, so no request to loc.gov is made.
+     */
+    private static class MetsSchemaHolder {
+
+        private static final Schema SCHEMA;
+
+        private static final Exception ERROR;
+
+        static {
+            Schema schema = null;
+            Exception error = null;
             var factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-            InputStream is = Validation.class.getClassLoader().getResourceAsStream("validation/mets-1121.xsd");
-            try {
-                Validation.METS_VALIDATION_SCHEMA = factory.newSchema(new StreamSource(is));
+            factory.setResourceResolver(new SchemaCatalogResolver("validation/catalog.xml"));
+            try (InputStream is = Validation.class.getClassLoader().getResourceAsStream("validation/mets-1121.xsd")) {
+                schema = factory.newSchema(new StreamSource(is));
             } catch (Exception e) {
-                // This error happened to me once when loc.gov was under maintenance. Seems when generating the scheme a
-                // request to loc.gov is made, which might fail. Seems nothing then waiting can be done about it
                 Utils.logError("Error creating XML validation schema", e);
-                throw new MetsSchemaException("Error creating XML validation schema", e);
+                error = e;
             }
+            SCHEMA = schema;
+            ERROR = error;
         }
-        return Validation.METS_VALIDATION_SCHEMA;
     }
 }
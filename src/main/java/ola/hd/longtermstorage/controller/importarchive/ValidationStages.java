@@ -0,0 +1,199 @@
+package ola.hd.longtermstorage.controller.importarchive;
+
+import io.micrometer.core.instrument.Metrics;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the checks of an import as a small graph of stages.
+ *
+ * A stage starts as soon as the stages it depends on are finished, so independent stages run concurrently and the
+ * validation takes as long as the longest path instead of the sum of all stages. Every stage has a cancellation
+ * token. A failing stage sets the tokens of the stages added after it: these are skipped if not yet started, long
+ * running stages check their token to stop early. Stages stopped because of the token throw a
+ * {@linkplain CancellationException}, which is not reported.
+ *
+ * Stages added before a failed stage are never cancelled, they always finish. If more than one stage fails, the error
+ * of the stage added first is thrown, so the reported error does not depend on which stage happens to fail first. The
+ * time of every stage is logged and recorded as metric `olahd.import.validation.stage`.
+ */
+class ValidationStages {
+
+    private static final Logger logger = LoggerFactory.getLogger(ValidationStages.class);
+
+    /** Runs the stages. Threads are daemons so they do not block the shutdown */
+    private static final ExecutorService POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "validation-stage-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** Work of a stage */
+    @FunctionalInterface
+    interface Task {
+        void run() throws Exception;
+    }
+
+    /** Name used in the log, e.g. the name of the bag */
+    private final String name;
+
+    /** Cancellation tokens by stage name. Created on request, before the stage is added */
+    private final Map<String, AtomicBoolean> tokens = new HashMap<>();
+
+    /** Stages in the order they were added */
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    ValidationStages(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Add a stage. Stages it depends on have to be added before
+     *
+     * @param stageName name of the stage
+     * @param task      the work of the stage
+     * @param dependsOn names of the stages which must have succeeded before this stage starts
+     * @return this
+     */
+    ValidationStages add(String stageName, Task task, String... dependsOn) {
+        List<Stage> dependencies = new ArrayList<>();
+        for (String dependency : dependsOn) {
+            Stage stage = stages.get(dependency);
+            if (stage == null) {
+                throw new IllegalArgumentException("Unknown stage: '" + dependency + "'");
+            }
+            dependencies.add(stage);
+        }
+        stages.put(stageName, new Stage(stageName, stages.size(), task, dependencies, getCancellation(stageName)));
+        return this;
+    }
+
+    /**
+     * Token of a stage, set when a stage added before it has failed. Long running stages should check it and throw a
+     * {@linkplain CancellationException} when it is set
+     *
+     * @param stageName name of the stage. It may be added after getting the token
+     */
+    AtomicBoolean getCancellation(String stageName) {
+        return tokens.computeIfAbsent(stageName, k -> new AtomicBoolean());
+    }
+
+    /**
+     * Cancel the stages added after a failed stage
+     */
+    private void cancelAfter(Stage failed) {
+        for (Stage stage : stages.values()) {
+            if (stage.index > failed.index) {
+                stage.cancelled.set(true);
+            }
+        }
+    }
+
+    /**
+     * Run all stages and wait until they are finished
+     *
+     * @throws Exception the error of the first failed stage in the order the stages were added
+     */
+    void run() throws Exception {
+        long start = System.nanoTime();
+        for (Stage stage : stages.values()) {
+            CompletableFuture<?>[] dependencies = stage.dependencies.stream()
+                .map(s -> s.future)
+                .toArray(CompletableFuture[]::new);
+            stage.future = CompletableFuture.allOf(dependencies).thenRunAsync(stage::execute, POOL);
+        }
+
+        for (Stage stage : stages.values()) {
+            try {
+                stage.future.join();
+            } catch (CompletionException | CancellationException e) {
+                // Recorded in the stage
+            }
+        }
+        logTimings(System.nanoTime() - start);
+
+        for (Stage stage : stages.values()) {
+            if (stage.failure != null && !(stage.failure instanceof CancellationException)) {
+                throw stage.failure;
+            }
+        }
+    }
+
+    /**
+     * Time of every stage in milliseconds. Stages which were not run are missing
+     */
+    Map<String, Long> getTimings() {
+        Map<String, Long> res = new LinkedHashMap<>();
+        for (Stage stage : stages.values()) {
+            if (stage.nanos >= 0) {
+                res.put(stage.name, TimeUnit.NANOSECONDS.toMillis(stage.nanos));
+            }
+        }
+        return res;
+    }
+
+    private void logTimings(long totalNanos) {
+        StringJoiner joiner = new StringJoiner(", ");
+        getTimings().forEach((stage, millis) -> joiner.add(stage + "=" + millis + "ms"));
+        logger.info("Validated '{}' in {}ms ({})", name, TimeUnit.NANOSECONDS.toMillis(totalNanos), joiner);
+    }
+
+    private class Stage {
+
+        private final String name;
+        /** Position in the order the stages were added */
+        private final int index;
+        private final Task task;
+        private final List<Stage> dependencies;
+        private final AtomicBoolean cancelled;
+        private CompletableFuture<Void> future;
+        private volatile Exception failure;
+        private volatile long nanos = -1;
+
+        Stage(String name, int index, Task task, List<Stage> dependencies, AtomicBoolean cancelled) {
+            this.name = name;
+            this.index = index;
+            this.task = task;
+            this.dependencies = dependencies;
+            this.cancelled = cancelled;
+        }
+
+        private void execute() {
+            if (cancelled.get()) {
+                failure = new CancellationException();
+                throw (CancellationException)failure;
+            }
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (Exception e) {
+                failure = e;
+                cancelAfter(this);
+                throw new CompletionException(e);
+            } finally {
+                nanos = System.nanoTime() - start;
+                Metrics.timer("olahd.import.validation.stage", "stage", name).record(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
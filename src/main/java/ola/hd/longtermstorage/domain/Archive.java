@@ -5,16 +5,20 @@ import java.util.ArrayList;
 import java.util.List;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document(collection = "archive")
+@CompoundIndex(name = "ocrdIdentifier_createdAt", def = "{'ocrdIdentifier': 1, 'createdAt': -1}")
 public class Archive {
 
     @Id
     private String id;
 
     // PID of the archive
+    @Indexed
     private String pid;
 
     // CDSTAR-ID of an online archive
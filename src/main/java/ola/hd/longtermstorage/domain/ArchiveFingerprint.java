@@ -0,0 +1,11 @@
+package ola.hd.longtermstorage.domain;
+
+/**
+ * Projection of an {@linkplain Archive} with the fields needed to recognize duplicate imports
+ */
+public interface ArchiveFingerprint {
+
+    String getPid();
+
+    String getChecksumPayloadmanifest();
+}
@@ -0,0 +1,11 @@
+package ola.hd.longtermstorage.domain;
+
+/**
+ * Projection of an {@linkplain Archive} with the ids of its archives in the archive manager
+ */
+public interface ArchiveIds {
+
+    String getOnlineId();
+
+    String getOfflineId();
+}
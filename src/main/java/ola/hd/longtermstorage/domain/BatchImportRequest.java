@@ -0,0 +1,20 @@
+package ola.hd.longtermstorage.domain;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import java.util.List;
+
+@ApiModel(description = "OCRD-ZIPs in the staging directory of the server to be imported")
+public class BatchImportRequest {
+
+    @ApiModelProperty(value = "Paths of the ZIP-files relative to the staging directory", required = true)
+    private List<String> paths;
+
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    public void setPaths(List<String> paths) {
+        this.paths = paths;
+    }
+}
@@ -0,0 +1,120 @@
+package ola.hd.longtermstorage.domain;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Many bags imported with one request.
+ *
+ * Every bag is imported on its own and has its own {@linkplain TrackingInfo}. The batch only references them, the
+ * progress of the batch is aggregated from the tracking infos.
+ */
+@Document(collection = "importBatch")
+public class ImportBatch {
+
+    @Id
+    private String id;
+
+    private String username;
+
+    private List<Item> items = new ArrayList<>();
+
+    private Instant createdAt;
+
+    /** Why not all bags of the request were received, null if they were */
+    private String message;
+
+    protected ImportBatch() {
+        // no-args constructor required by JPA spec
+        // this one is protected since it shouldn't be used directly
+    }
+
+    public ImportBatch(String username) {
+        this.username = username;
+        this.createdAt = Instant.now();
+    }
+
+    public void addItem(String name, String trackingId) {
+        items.add(new Item(name, trackingId));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public void setItems(List<Item> items) {
+        this.items = items;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    /**
+     * One bag of the batch
+     */
+    public static class Item {
+
+        /** Name of the ZIP-file */
+        private String name;
+
+        /** Id of the TrackingInfo of the import */
+        private String trackingId;
+
+        protected Item() {
+            // required for mapping
+        }
+
+        public Item(String name, String trackingId) {
+            this.name = name;
+            this.trackingId = trackingId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getTrackingId() {
+            return trackingId;
+        }
+
+        public void setTrackingId(String trackingId) {
+            this.trackingId = trackingId;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ola.hd.longtermstorage.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+@ApiModel(description = "Progress of a batch import")
+public class ImportBatchResponse {
+
+    @ApiModelProperty(value = "Id of the batch")
+    private final String id;
+
+    private final Instant createdAt;
+
+    @ApiModelProperty(value = "Why not all bags of the request were received. Only set if receiving was aborted")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final String message;
+
+    @ApiModelProperty(value = "Number of bags in the batch")
+    private int total;
+
+    @ApiModelProperty(value = "Number of bags being validated or imported")
+    private int processing;
+
+    @ApiModelProperty(value = "Number of bags imported successfully")
+    private int succeeded;
+
+    @ApiModelProperty(value = "Number of bags which could not be imported")
+    private int failed;
+
+    private final List<Item> items = new ArrayList<>();
+
+    public ImportBatchResponse(ImportBatch batch) {
+        this.id = batch.getId();
+        this.createdAt = batch.getCreatedAt();
+        this.message = batch.getMessage();
+    }
+
+    /**
+     * Add a bag and count its status
+     *
+     * @param name ZIP-file of the bag
+     * @param info tracking info of the import of the bag. Null if not available
+     */
+    public void addItem(String name, TrackingInfo info) {
+        TrackingStatus status = info != null ? info.getStatus() : TrackingStatus.FAILED;
+        total++;
+        if (status == TrackingStatus.SUCCESS) {
+            succeeded++;
+        } else if (status == TrackingStatus.FAILED) {
+            failed++;
+        } else {
+            processing++;
+        }
+        items.add(new Item(
+            name, status, info != null ? info.getMessage() : "Tracking info not found",
+            info != null ? info.getPid() : null
+        ));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getProcessing() {
+        return processing;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Item {
+
+        private final String name;
+        private final TrackingStatus status;
+        private final String message;
+        private final String pid;
+
+        public Item(String name, TrackingStatus status, String message, String pid) {
+            this.name = name;
+            this.status = status;
+            this.message = message;
+            this.pid = pid;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public TrackingStatus getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getPid() {
+            return pid;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package ola.hd.longtermstorage.domain;
+
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A bag import waiting for or being processed by a worker.
+ *
+ * The jobs are saved in the database so that they survive a restart of the backend and can be processed by any
+ * backend node. A worker claims a job by setting itself as lease owner. The lease has to be renewed while the job is
+ * running, otherwise the job is assumed to be abandoned and can be claimed again.
+ */
+@Document(collection = "importJob")
+@CompoundIndex(name = "state_createdAt", def = "{'state': 1, 'createdAt': 1}")
+public class ImportJob {
+
+    @Id
+    private String id;
+
+    private ImportJobState state;
+
+    /** Id of the backend node which is processing the job */
+    private String leaseOwner;
+
+    /** Until when the job belongs to the lease owner */
+    private Instant leaseUntil;
+
+    /** How often the job has been claimed */
+    private int attempts;
+
+    /** Last completed stage of the import */
+    private ImportStage stage;
+
+    /** Progress of the archive import, to resume it with the files already uploaded */
+    private ImportProgress progress;
+
+    /** Id of the TrackingInfo of the import */
+    private String trackingId;
+
+    private String pid;
+
+    /** PID of the previous version */
+    private String prevPid;
+
+    /** Path to extracted OCRD-ZIP. Must be accessible for every backend node */
+    private String destination;
+
+    /** Parent of destination. Deleted after the import */
+    private String tempDir;
+
+    /** URL where the stored file will be available after completed import */
+    private String exportUrl;
+
+    /** Info from bag-info.txt of the OCRD-ZIP */
+    private List<BagInfoEntry> bagInfos;
+
+    /** Message of the last failure */
+    private String lastError;
+
+    private Instant createdAt;
+
+    private Instant updatedAt;
+
+    protected ImportJob() {
+        // no-args constructor required by JPA spec
+        // this one is protected since it shouldn't be used directly
+    }
+
+    public ImportJob(
+        String trackingId, String pid, String prevPid, String destination, String tempDir, String exportUrl,
+        List<AbstractMap.SimpleImmutableEntry<String, String>> bagInfos
+    ) {
+        this.state = ImportJobState.QUEUED;
+        this.stage = ImportStage.QUEUED;
+        this.trackingId = trackingId;
+        this.pid = pid;
+        this.prevPid = prevPid;
+        this.destination = destination;
+        this.tempDir = tempDir;
+        this.exportUrl = exportUrl;
+        this.bagInfos = bagInfos.stream()
+            .map(x -> new BagInfoEntry(x.getKey(), x.getValue()))
+            .collect(Collectors.toList());
+        this.createdAt = Instant.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    /**
+     * Get the bag-info.txt entries in the format used for the import
+     */
+    public List<AbstractMap.SimpleImmutableEntry<String, String>> readBagInfos() {
+        return bagInfos.stream()
+            .map(x -> new AbstractMap.SimpleImmutableEntry<>(x.getKey(), x.getValue()))
+            .collect(Collectors.toList());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public ImportJobState getState() {
+        return state;
+    }
+
+    public void setState(ImportJobState state) {
+        this.state = state;
+    }
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    public Instant getLeaseUntil() {
+        return leaseUntil;
+    }
+
+    public void setLeaseUntil(Instant leaseUntil) {
+        this.leaseUntil = leaseUntil;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public ImportStage getStage() {
+        return stage;
+    }
+
+    public void setStage(ImportStage stage) {
+        this.stage = stage;
+    }
+
+    public ImportProgress getProgress() {
+        return progress;
+    }
+
+    public void setProgress(ImportProgress progress) {
+        this.progress = progress;
+    }
+
+    public String getTrackingId() {
+        return trackingId;
+    }
+
+    public void setTrackingId(String trackingId) {
+        this.trackingId = trackingId;
+    }
+
+    public String getPid() {
+        return pid;
+    }
+
+    public void setPid(String pid) {
+        this.pid = pid;
+    }
+
+    public String getPrevPid() {
+        return prevPid;
+    }
+
+    public void setPrevPid(String prevPid) {
+        this.prevPid = prevPid;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public String getTempDir() {
+        return tempDir;
+    }
+
+    public void setTempDir(String tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    public String getExportUrl() {
+        return exportUrl;
+    }
+
+    public void setExportUrl(String exportUrl) {
+        this.exportUrl = exportUrl;
+    }
+
+    public List<BagInfoEntry> getBagInfos() {
+        return bagInfos;
+    }
+
+    public void setBagInfos(List<BagInfoEntry> bagInfos) {
+        this.bagInfos = bagInfos;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    /**
+     * One key-value pair of the bag-info.txt
+     */
+    public static class BagInfoEntry {
+
+        private String key;
+        private String value;
+
+        protected BagInfoEntry() {
+            // required for mapping
+        }
+
+        public BagInfoEntry(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public void setValue(String value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ola.hd.longtermstorage.domain;
+
+/**
+ * State of an {@linkplain ImportJob}
+ */
+public enum ImportJobState {
+    /** Waiting to be claimed by a worker */
+    QUEUED,
+    /** Claimed by a worker. Can be claimed by another worker again when the lease has expired */
+    RUNNING,
+    SUCCEEDED,
+    FAILED
+}
@@ -0,0 +1,156 @@
+package ola.hd.longtermstorage.domain;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Progress of the import of a bag into the archive manager.
+ *
+ * Saved in the {@linkplain ImportJob} so that an import which was interrupted can be resumed with the transaction and
+ * the files already uploaded instead of starting from scratch. Files are marked as uploaded concurrently by the upload
+ * threads, so all access is synchronized.
+ */
+public class ImportProgress {
+
+    /** Id of the CDSTAR transaction */
+    private String txId;
+
+    private String onlineArchiveId;
+
+    private String offlineArchiveId;
+
+    /** Paths of the files available in the online archive */
+    private Set<String> uploadedOnline = new HashSet<>();
+
+    /** Paths of the files available in the offline archive */
+    private Set<String> uploadedOffline = new HashSet<>();
+
+    /** Unchanged files of the previous version have been copied */
+    private boolean deltaCopied;
+
+    /** Metadata of the archives has been set */
+    private boolean metadataSet;
+
+    /** Commit of the transaction has been sent. If the answer got lost, it may have been successful */
+    private boolean commitStarted;
+
+    /** Transaction has been committed */
+    private boolean committed;
+
+    /**
+     * Start over, e.g. because the transaction is not available anymore
+     */
+    public synchronized void reset() {
+        txId = null;
+        onlineArchiveId = null;
+        offlineArchiveId = null;
+        uploadedOnline = new HashSet<>();
+        uploadedOffline = new HashSet<>();
+        deltaCopied = false;
+        metadataSet = false;
+        commitStarted = false;
+        committed = false;
+    }
+
+    /**
+     * Create a snapshot to be saved while the upload goes on
+     */
+    public synchronized ImportProgress copy() {
+        ImportProgress res = new ImportProgress();
+        res.txId = txId;
+        res.onlineArchiveId = onlineArchiveId;
+        res.offlineArchiveId = offlineArchiveId;
+        res.uploadedOnline = new HashSet<>(uploadedOnline);
+        res.uploadedOffline = new HashSet<>(uploadedOffline);
+        res.deltaCopied = deltaCopied;
+        res.metadataSet = metadataSet;
+        res.commitStarted = commitStarted;
+        res.committed = committed;
+        return res;
+    }
+
+    public synchronized void markUploaded(String path, boolean offline) {
+        (offline ? uploadedOffline : uploadedOnline).add(path);
+    }
+
+    public synchronized void markUploaded(Collection<String> paths, boolean offline) {
+        (offline ? uploadedOffline : uploadedOnline).addAll(paths);
+    }
+
+    public synchronized boolean isUploaded(String path, boolean offline) {
+        return (offline ? uploadedOffline : uploadedOnline).contains(path);
+    }
+
+    public synchronized String getTxId() {
+        return txId;
+    }
+
+    public synchronized void setTxId(String txId) {
+        this.txId = txId;
+    }
+
+    public synchronized String getOnlineArchiveId() {
+        return onlineArchiveId;
+    }
+
+    public synchronized void setOnlineArchiveId(String onlineArchiveId) {
+        this.onlineArchiveId = onlineArchiveId;
+    }
+
+    public synchronized String getOfflineArchiveId() {
+        return offlineArchiveId;
+    }
+
+    public synchronized void setOfflineArchiveId(String offlineArchiveId) {
+        this.offlineArchiveId = offlineArchiveId;
+    }
+
+    public synchronized Set<String> getUploadedOnline() {
+        return uploadedOnline;
+    }
+
+    public synchronized void setUploadedOnline(Set<String> uploadedOnline) {
+        this.uploadedOnline = uploadedOnline;
+    }
+
+    public synchronized Set<String> getUploadedOffline() {
+        return uploadedOffline;
+    }
+
+    public synchronized void setUploadedOffline(Set<String> uploadedOffline) {
+        this.uploadedOffline = uploadedOffline;
+    }
+
+    public synchronized boolean isDeltaCopied() {
+        return deltaCopied;
+    }
+
+    public synchronized void setDeltaCopied(boolean deltaCopied) {
+        this.deltaCopied = deltaCopied;
+    }
+
+    public synchronized boolean isMetadataSet() {
+        return metadataSet;
+    }
+
+    public synchronized void setMetadataSet(boolean metadataSet) {
+        this.metadataSet = metadataSet;
+    }
+
+    public synchronized boolean isCommitStarted() {
+        return commitStarted;
+    }
+
+    public synchronized void setCommitStarted(boolean commitStarted) {
+        this.commitStarted = commitStarted;
+    }
+
+    public synchronized boolean isCommitted() {
+        return committed;
+    }
+
+    public synchronized void setCommitted(boolean committed) {
+        this.committed = committed;
+    }
+}
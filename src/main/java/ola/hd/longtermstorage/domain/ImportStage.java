@@ -0,0 +1,17 @@
+package ola.hd.longtermstorage.domain;
+
+/**
+ * Stages of a bag import. The last completed stage is saved in the {@linkplain ImportJob} as checkpoint.
+ */
+public enum ImportStage {
+    /** Nothing is done yet */
+    QUEUED,
+    /** Files are saved in the archive manager */
+    ARCHIVE_IMPORTED,
+    /** Metadata is saved to the PID */
+    PID_UPDATED,
+    /** Archive and outbox event (indexing, link of the previous version) are saved to the database */
+    ARCHIVE_SAVED,
+    /** Web-notifier has been informed. Set when the indexing event was delivered, after the job has finished */
+    NOTIFIED
+}
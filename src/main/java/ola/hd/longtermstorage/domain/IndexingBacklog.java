@@ -0,0 +1,47 @@
+package ola.hd.longtermstorage.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import java.time.Instant;
+import java.util.List;
+
+@ApiModel(description = "Imports waiting to be sent to the web-notifier for indexing")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IndexingBacklog {
+
+    @ApiModelProperty(value = "Number of events waiting to be sent")
+    private final long pending;
+
+    @ApiModelProperty(value = "Number of events which could not be sent with the maximum number of attempts")
+    private final long failed;
+
+    @ApiModelProperty(value = "Creation time of the oldest waiting event")
+    private final Instant oldestPending;
+
+    @ApiModelProperty(value = "The oldest failed events")
+    private final List<IndexingEvent> failedEvents;
+
+    public IndexingBacklog(long pending, long failed, Instant oldestPending, List<IndexingEvent> failedEvents) {
+        this.pending = pending;
+        this.failed = failed;
+        this.oldestPending = oldestPending;
+        this.failedEvents = failedEvents;
+    }
+
+    public long getPending() {
+        return pending;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public Instant getOldestPending() {
+        return oldestPending;
+    }
+
+    public List<IndexingEvent> getFailedEvents() {
+        return failedEvents;
+    }
+}
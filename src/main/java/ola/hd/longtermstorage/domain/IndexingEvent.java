@@ -0,0 +1,142 @@
+package ola.hd.longtermstorage.domain;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Request to put an imported OCRD-ZIP into the search-index, waiting in the outbox to be sent to the web-notifier.
+ *
+ * The event is saved together with the {@linkplain Archive} of an import and deleted when the web-notifier accepted it.
+ * The PID is used as id, so saving the event of an import twice does not create a second event. The event of a new
+ * version also links the previous version to it (NEXT-VERSION in the PID) before it is sent.
+ */
+@Document(collection = "indexingEvent")
+@CompoundIndex(name = "state_nextAttemptAt", def = "{'state': 1, 'nextAttemptAt': 1}")
+public class IndexingEvent {
+
+    /** PID of the imported OCRD-ZIP */
+    @Id
+    private String pid;
+
+    /** PID of the previous version */
+    private String prevPid;
+
+    /** NEXT-VERSION has still to be appended to the PID of the previous version */
+    private boolean linkPending;
+
+    /** Id of the ImportJob of the import, to checkpoint it when the event is delivered. Can be null */
+    private String jobId;
+
+    private IndexingEventState state;
+
+    /** How often sending the event was tried */
+    private int attempts;
+
+    /** When the event is sent next. Also set while an event is being sent, so no other node takes it */
+    private Instant nextAttemptAt;
+
+    /** Message of the last failure */
+    private String lastError;
+
+    private Instant createdAt;
+
+    private Instant updatedAt;
+
+    protected IndexingEvent() {
+        // no-args constructor required by JPA spec
+        // this one is protected since it shouldn't be used directly
+    }
+
+    public IndexingEvent(String pid, String prevPid, String jobId) {
+        this.pid = pid;
+        this.prevPid = prevPid;
+        this.linkPending = prevPid != null;
+        this.jobId = jobId;
+        this.state = IndexingEventState.PENDING;
+        this.createdAt = Instant.now();
+        this.updatedAt = this.createdAt;
+        this.nextAttemptAt = this.createdAt;
+    }
+
+    public String getPid() {
+        return pid;
+    }
+
+    public void setPid(String pid) {
+        this.pid = pid;
+    }
+
+    public String getPrevPid() {
+        return prevPid;
+    }
+
+    public void setPrevPid(String prevPid) {
+        this.prevPid = prevPid;
+    }
+
+    public boolean isLinkPending() {
+        return linkPending;
+    }
+
+    public void setLinkPending(boolean linkPending) {
+        this.linkPending = linkPending;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public IndexingEventState getState() {
+        return state;
+    }
+
+    public void setState(IndexingEventState state) {
+        this.state = state;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Instant getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(Instant nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,11 @@
+package ola.hd.longtermstorage.domain;
+
+/**
+ * State of an {@linkplain IndexingEvent}. Delivered events are deleted
+ */
+public enum IndexingEventState {
+    /** Waiting to be sent to the web-notifier */
+    PENDING,
+    /** Could not be delivered with the maximum number of attempts */
+    FAILED
+}
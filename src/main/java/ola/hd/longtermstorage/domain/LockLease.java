@@ -0,0 +1,51 @@
+package ola.hd.longtermstorage.domain;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A lock held by one backend node. The lock is free when the document does not exist or is expired.
+ */
+@Document(collection = "lockLease")
+public class LockLease {
+
+    /** Name of the locked resource */
+    @Id
+    private String name;
+
+    /** Random value of the holder, so only the holder can release the lock */
+    private String token;
+
+    /** The lock can be taken by others after this, in case the holder died */
+    private Instant expiresAt;
+
+    protected LockLease() {
+        // no-args constructor required by JPA spec
+        // this one is protected since it shouldn't be used directly
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
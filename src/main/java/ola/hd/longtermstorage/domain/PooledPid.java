@@ -0,0 +1,45 @@
+package ola.hd.longtermstorage.domain;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A PID created in advance, waiting to be used by an import. Removed from the collection when it is taken
+ */
+@Document(collection = "pidPool")
+public class PooledPid {
+
+    @Id
+    private String pid;
+
+    @Indexed
+    private Instant createdAt;
+
+    protected PooledPid() {
+        // no-args constructor required by JPA spec
+        // this one is protected since it shouldn't be used directly
+    }
+
+    public PooledPid(String pid) {
+        this.pid = pid;
+        this.createdAt = Instant.now();
+    }
+
+    public String getPid() {
+        return pid;
+    }
+
+    public void setPid(String pid) {
+        this.pid = pid;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
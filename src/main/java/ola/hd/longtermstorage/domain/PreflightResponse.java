@@ -0,0 +1,51 @@
+package ola.hd.longtermstorage.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+@ApiModel(description = "What an import of a bag would result in")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PreflightResponse {
+
+    @ApiModelProperty(value = "DUPLICATE, NEW_VERSION or NEW_WORK")
+    private final PreflightResult result;
+
+    @ApiModelProperty(value = "PID of the newest archive with the Ocrd-Identifier")
+    private final String prevPid;
+
+    @ApiModelProperty(value = "If an upload of the given size would currently be accepted. Only set if a size is given")
+    private Boolean admitted;
+
+    @ApiModelProperty(value = "Why an upload would currently be rejected")
+    private String message;
+
+    public PreflightResponse(PreflightResult result, String prevPid) {
+        this.result = result;
+        this.prevPid = prevPid;
+    }
+
+    public PreflightResult getResult() {
+        return result;
+    }
+
+    public String getPrevPid() {
+        return prevPid;
+    }
+
+    public Boolean getAdmitted() {
+        return admitted;
+    }
+
+    public void setAdmitted(Boolean admitted) {
+        this.admitted = admitted;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
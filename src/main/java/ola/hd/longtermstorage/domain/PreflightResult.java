@@ -0,0 +1,13 @@
+package ola.hd.longtermstorage.domain;
+
+/**
+ * What an import of a bag would result in, see {@linkplain PreflightResponse}
+ */
+public enum PreflightResult {
+    /** The newest archive with the Ocrd-Identifier has the same payload. The import would be rejected */
+    DUPLICATE,
+    /** An archive with the Ocrd-Identifier exists. The import would be a new version of it */
+    NEW_VERSION,
+    /** No archive with the Ocrd-Identifier exists */
+    NEW_WORK
+}
@@ -0,0 +1,114 @@
+package ola.hd.longtermstorage.domain;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A resumable upload of an OCRD-ZIP.
+ *
+ * The ZIP is sent in chunks which are written to a file in the (shared) upload directory. The session saves how many
+ * bytes have been received, so that an interrupted upload can be continued from there. While a chunk is written the
+ * session is locked, so that only one chunk of a session is received at the same time, even across backend nodes.
+ */
+@Document(collection = "uploadSession")
+public class UploadSession {
+
+    @Id
+    private String id;
+
+    /** User who created the session. Only this user may upload to it */
+    private String username;
+
+    private String fileName;
+
+    /** Size of the complete ZIP */
+    private long totalSize;
+
+    /** Number of bytes received and written to the file */
+    private long committedOffset;
+
+    /** PID of the previous version, optional */
+    private String prev;
+
+    private UploadSessionState state;
+
+    /** Until when a chunk is being written. Null if the session is not locked */
+    private Instant lockedUntil;
+
+    /** Identifies the request holding the lock */
+    private String lockToken;
+
+    /** When the session and its file are removed if it is not continued */
+    @Indexed
+    private Instant expiresAt;
+
+    private Instant createdAt;
+
+    private Instant updatedAt;
+
+    protected UploadSession() {
+        // no-args constructor required by JPA spec
+        // this one is protected since it shouldn't be used directly
+    }
+
+    public UploadSession(String username, String fileName, long totalSize, String prev, Instant expiresAt) {
+        this.username = username;
+        this.fileName = fileName;
+        this.totalSize = totalSize;
+        this.prev = prev;
+        this.state = UploadSessionState.OPEN;
+        this.expiresAt = expiresAt;
+        this.createdAt = Instant.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public long getCommittedOffset() {
+        return committedOffset;
+    }
+
+    public String getPrev() {
+        return prev;
+    }
+
+    public UploadSessionState getState() {
+        return state;
+    }
+
+    public Instant getLockedUntil() {
+        return lockedUntil;
+    }
+
+    public String getLockToken() {
+        return lockToken;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+}
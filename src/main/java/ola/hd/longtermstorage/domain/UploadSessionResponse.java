@@ -0,0 +1,44 @@
+package ola.hd.longtermstorage.domain;
+
+import java.time.Instant;
+
+/**
+ * Progress of an {@linkplain UploadSession} returned to the client
+ */
+public class UploadSessionResponse {
+
+    private final String id;
+    private final String fileName;
+    private final long totalSize;
+    private final long offset;
+    private final Instant expiresAt;
+
+    public UploadSessionResponse(UploadSession session) {
+        this.id = session.getId();
+        this.fileName = session.getFileName();
+        this.totalSize = session.getTotalSize();
+        this.offset = session.getCommittedOffset();
+        this.expiresAt = session.getExpiresAt();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /** Number of bytes received. The next chunk has to start here */
+    public long getOffset() {
+        return offset;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+}
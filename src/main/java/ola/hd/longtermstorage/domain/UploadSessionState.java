@@ -0,0 +1,11 @@
+package ola.hd.longtermstorage.domain;
+
+/**
+ * State of an {@linkplain UploadSession}
+ */
+public enum UploadSessionState {
+    /** Chunks can be uploaded */
+    OPEN,
+    /** The upload is complete and being passed to the import */
+    FINALIZING
+}
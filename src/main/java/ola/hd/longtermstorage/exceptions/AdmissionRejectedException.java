@@ -0,0 +1,30 @@
+package ola.hd.longtermstorage.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when an import is not accepted because the system is currently too busy. The client should try again after
+ * the given number of seconds.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 5187063356482398271L;
+
+    private final HttpStatus status;
+
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(HttpStatus status, String message, long retryAfterSeconds) {
+        super(message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,16 @@
+package ola.hd.longtermstorage.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the import into the archive manager failed because of an error which might go away, e.g. the archive
+ * manager is not reachable. The transaction and the progress of the import are kept, so it can be resumed later.
+ */
+public class ImportInterruptedException extends IOException {
+
+    private static final long serialVersionUID = -2470932283519411847L;
+
+    public ImportInterruptedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
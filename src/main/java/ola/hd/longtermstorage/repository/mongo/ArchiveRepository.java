@@ -9,9 +9,19 @@ import org.springframework.util.CollectionUtils;
 public interface ArchiveRepository extends MongoRepository<Archive, String> {
 
     Archive findByPid(String pid);
+
+    /**
+     * Find the archive of a PID and only read the fields of the projection `type`
+     */
+    <T> T findByPid(String pid, Class<T> type);
     Archive findByOnlineIdOrOfflineId(String onlineId, String offlineId);
     Archive findTopByOcrdIdentifierOrderByCreatedAtDesc(String ocrdIdentifier);
 
+    /**
+     * Find the newest archive of an Ocrd-Identifier and only read the fields of the projection `type`
+     */
+    <T> T findTopByOcrdIdentifierOrderByCreatedAtDesc(String ocrdIdentifier, Class<T> type);
+
     /**
      * Tries to find one of the latest versions of an archive.
      *
@@ -0,0 +1,9 @@
+package ola.hd.longtermstorage.repository.mongo;
+
+import ola.hd.longtermstorage.domain.ImportBatch;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ImportBatchRepository extends MongoRepository<ImportBatch, String> {
+}
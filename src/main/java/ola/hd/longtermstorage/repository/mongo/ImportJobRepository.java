@@ -0,0 +1,18 @@
+package ola.hd.longtermstorage.repository.mongo;
+
+import java.time.Instant;
+import java.util.List;
+import ola.hd.longtermstorage.domain.ImportJob;
+import ola.hd.longtermstorage.domain.ImportJobState;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ImportJobRepository extends MongoRepository<ImportJob, String> {
+
+    List<ImportJob> findByStateAndLeaseUntilBeforeAndAttemptsGreaterThanEqual(
+        ImportJobState state, Instant leaseUntil, int attempts
+    );
+
+    long countByState(ImportJobState state);
+}
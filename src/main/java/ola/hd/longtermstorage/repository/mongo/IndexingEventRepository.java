@@ -0,0 +1,16 @@
+package ola.hd.longtermstorage.repository.mongo;
+
+import java.util.List;
+import ola.hd.longtermstorage.domain.IndexingEvent;
+import ola.hd.longtermstorage.domain.IndexingEventState;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface IndexingEventRepository extends MongoRepository<IndexingEvent, String> {
+
+    long countByState(IndexingEventState state);
+
+    List<IndexingEvent> findByState(IndexingEventState state, Pageable pageable);
+}
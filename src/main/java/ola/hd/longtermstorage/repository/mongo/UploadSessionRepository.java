@@ -0,0 +1,13 @@
+package ola.hd.longtermstorage.repository.mongo;
+
+import java.time.Instant;
+import java.util.List;
+import ola.hd.longtermstorage.domain.UploadSession;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UploadSessionRepository extends MongoRepository<UploadSession, String> {
+
+    List<UploadSession> findByExpiresAtBefore(Instant expiresAt);
+}
@@ -0,0 +1,299 @@
+package ola.hd.longtermstorage.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import javax.xml.stream.XMLStreamException;
+import okhttp3.Response;
+import ola.hd.longtermstorage.domain.ArchiveIds;
+import ola.hd.longtermstorage.msg.ErrMsg;
+import ola.hd.longtermstorage.repository.mongo.ArchiveRepository;
+import ola.hd.longtermstorage.utils.DiskLruCache;
+import ola.hd.longtermstorage.utils.MetsWebConverter;
+import ola.hd.longtermstorage.utils.Utils;
+import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * Cache of the bag-info.txt and the METS-file of the online archives.
+ *
+ * Both files never change for a PID, so they are read from the archive manager only once: the bag-info.txt is kept in
+ * memory (at most `ola.hd.file-cache.bag-info-entries`), the METS-files in a {@linkplain DiskLruCache} in
+ * `ola.hd.file-cache.dir` (at most `ola.hd.file-cache.max-size-mb`). An import adds its files right away from the
+ * extracted bag. The METS-files converted for the DFG-Viewer share the disk cache with them.
+ *
+ * Only PIDs saved in MongoDB are cached. The online archive of a PID is deleted when a new version is imported, so
+ * MongoDB is asked for every request whether it still exists; a cached file is never served for a PID which is not
+ * online anymore.
+ */
+@Component
+public class ArchiveFileCache implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveFileCache.class);
+
+    private final ArchiveManagerService archiveManagerService;
+
+    private final ArchiveRepository archiveRepository;
+
+    /** Directory of the METS cache. Empty to disable it */
+    @Value("${ola.hd.file-cache.dir:}")
+    private String dir;
+
+    @Value("${ola.hd.file-cache.max-size-mb:1024}")
+    private long maxSizeMb;
+
+    @Value("${ola.hd.file-cache.bag-info-entries:10000}")
+    private long bagInfoEntries;
+
+    private Cache<String, Map<String, String>> bagInfos;
+
+    private DiskLruCache files;
+
+    /** Detects the content type of cached files like it was detected when they were uploaded */
+    private final Tika tika = new Tika();
+
+    public ArchiveFileCache(ArchiveManagerService archiveManagerService, ArchiveRepository archiveRepository) {
+        this.archiveManagerService = archiveManagerService;
+        this.archiveRepository = archiveRepository;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        bagInfos = Caffeine.newBuilder().maximumSize(bagInfoEntries).build();
+        if (!dir.isBlank()) {
+            files = new DiskLruCache(Paths.get(dir), maxSizeMb * 1024 * 1024);
+        }
+    }
+
+    /**
+     * Get the content of the bag-info.txt of an online archive
+     *
+     * @param pid PID of the archive
+     * @return a modifiable copy of the bag-info.txt
+     * @throws IOException
+     */
+    public Map<String, String> getBagInfo(String pid) throws IOException {
+        if (!isCacheable(pid)) {
+            return archiveManagerService.getBagInfoTxt(pid);
+        }
+        Map<String, String> res = bagInfos.getIfPresent(pid);
+        if (res == null) {
+            res = archiveManagerService.getBagInfoTxt(pid);
+            bagInfos.put(pid, new HashMap<>(res));
+        }
+        return new HashMap<>(res);
+    }
+
+    /**
+     * Open a file of an online archive, e.g. the METS-file
+     *
+     * @param pid  PID of the archive
+     * @param path path of the file in the archive
+     * @return the file. Its content must be closed by the caller
+     * @throws IOException
+     */
+    public ArchiveFile openFile(String pid, String path) throws IOException {
+        if (files == null || !isCacheable(pid)) {
+            return exportFile(pid, path);
+        }
+        return openCachedFile(pid, path);
+    }
+
+    /**
+     * Open the METS-file of an online archive converted for the DFG-Viewer by {@linkplain MetsWebConverter}.
+     *
+     * The converted file depends on the host its links point to, so it is cached per PID and host. It is created when
+     * it is requested the first time; the host is not known at the import.
+     *
+     * @param pid      PID of the archive
+     * @param metsPath path of the METS-file in the archive
+     * @param host     host for the links, see {@linkplain Utils#readHost}
+     * @return the converted METS-file, or null if it cannot be cached. Must be closed by the caller
+     * @throws IOException
+     * @throws XMLStreamException if the METS-file cannot be converted
+     */
+    public InputStream openWebMets(String pid, String metsPath, String host) throws IOException, XMLStreamException {
+        if (files == null || !isCacheable(pid)) {
+            return null;
+        }
+        String key = createWebMetsKey(pid, metsPath, host);
+        InputStream res = files.get(key);
+        if (res == null) {
+            Path mets = getCachedFile(pid, metsPath);
+            Path tmp = Files.createTempFile("mets-web", ".xml");
+            try {
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    MetsWebConverter.convertMets(pid, host, mets, out);
+                }
+                files.put(key, tmp);
+            } finally {
+                Files.deleteIfExists(tmp);
+                Files.deleteIfExists(mets);
+            }
+            res = files.get(key);
+        }
+        return res;
+    }
+
+    /**
+     * Get a file of an archive as local file to read it more than once. It is taken from the cache, or exported to a
+     * temporary file and added to the cache
+     *
+     * @return the file, to be deleted by the caller
+     */
+    private Path getCachedFile(String pid, String path) throws IOException {
+        String key = createKey(pid, path);
+        Path res = files.snapshot(key);
+        if (res == null) {
+            res = Files.createTempFile("mets", ".xml");
+            try (InputStream in = exportFile(pid, path).getContent()) {
+                Files.copy(in, res, StandardCopyOption.REPLACE_EXISTING);
+                files.put(key, res);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(res);
+                throw e;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Strong ETag of the converted METS-file of {@linkplain #openWebMets}. The METS-file of a PID never changes, so
+     * the ETag is derived from PID, host and the version of the converter only
+     */
+    public static String getWebMetsETag(String pid, String metsPath, String host) {
+        String key = createWebMetsKey(pid, metsPath, host);
+        return "\"" + UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    private ArchiveFile openCachedFile(String pid, String path) throws IOException {
+        String key = createKey(pid, path);
+        InputStream in = files.get(key);
+        if (in == null) {
+            try (InputStream exported = exportFile(pid, path).getContent()) {
+                files.put(key, exported);
+            }
+            in = files.get(key);
+            if (in == null) {
+                // Too big for the cache
+                return exportFile(pid, path);
+            }
+        }
+        long length = files.length(key);
+        BufferedInputStream content = new BufferedInputStream(in);
+        try {
+            String contentType = tika.detect(content, Paths.get(path).getFileName().toString());
+            return new ArchiveFile(content, contentType, length);
+        } catch (IOException | RuntimeException e) {
+            content.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Add the files of an import to the cache
+     *
+     * @param pid PID of the import
+     * @param bag directory of the extracted bag
+     */
+    public void addImport(String pid, Path bag) {
+        try {
+            Map<String, String> bagInfo = Utils.readBagInfoToMap(Files.readString(bag.resolve("bag-info.txt")));
+            bagInfos.put(pid, bagInfo);
+            if (files != null) {
+                String metsPath = Utils.getMetsPath(bagInfo);
+                files.put(createKey(pid, metsPath), bag.resolve(metsPath));
+            }
+        } catch (Exception e) {
+            logger.warn("Adding files of PID '{}' to the cache failed", pid, e);
+        }
+    }
+
+    /**
+     * Only archives known to MongoDB are cached and only as long as they are online
+     *
+     * @throws HttpClientErrorException with 404 if the online archive was deleted
+     */
+    private boolean isCacheable(String pid) {
+        ArchiveIds ids = archiveRepository.findByPid(pid, ArchiveIds.class);
+        if (ids == null) {
+            return false;
+        }
+        if (ids.getOnlineId() == null) {
+            bagInfos.invalidate(pid);
+            throw new HttpClientErrorException(HttpStatus.NOT_FOUND, ErrMsg.ARCHIVE_NOT_FOUND);
+        }
+        return true;
+    }
+
+    private ArchiveFile exportFile(String pid, String path) throws IOException {
+        Response response = archiveManagerService.exportFile(pid, path);
+        String length = response.header(HttpHeaders.CONTENT_LENGTH);
+        return new ArchiveFile(
+            response.body().byteStream(), response.header(HttpHeaders.CONTENT_TYPE),
+            length != null ? Long.parseLong(length) : -1
+        );
+    }
+
+    private static String createKey(String pid, String path) {
+        return pid + "\n" + path;
+    }
+
+    private static String createWebMetsKey(String pid, String metsPath, String host) {
+        return createKey(pid, metsPath) + "\n" + host + "\n" + MetsWebConverter.VERSION;
+    }
+
+    /**
+     * An opened file of an archive with the headers to send it with
+     */
+    public static class ArchiveFile {
+
+        private final InputStream content;
+
+        private final String contentType;
+
+        private final long length;
+
+        ArchiveFile(InputStream content, String contentType, long length) {
+            this.content = content;
+            this.contentType = contentType;
+            this.length = length;
+        }
+
+        public InputStream getContent() {
+            return content;
+        }
+
+        /**
+         * @return content type as sent by the archive manager, or null if unknown
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return length in bytes, or -1 if unknown
+         */
+        public long getLength() {
+            return length;
+        }
+    }
+}
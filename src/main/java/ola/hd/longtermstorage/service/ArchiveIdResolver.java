@@ -0,0 +1,121 @@
+package ola.hd.longtermstorage.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.io.IOException;
+import java.time.Duration;
+import ola.hd.longtermstorage.domain.ArchiveIds;
+import ola.hd.longtermstorage.repository.mongo.ArchiveRepository;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Finds the CDSTAR archive of a PID with a given profile.
+ *
+ * The ids of the online and offline archive of every import are saved in MongoDB. The online archive has the online
+ * profile till a new version is imported; then it is deleted and its id removed from MongoDB. The offline archive is
+ * moved between the offline and the mirror profile, so its current profile is read from CDSTAR. Only PIDs unknown to
+ * MongoDB are searched in CDSTAR.
+ *
+ * Found ids are cached for `cdstar.archive-id-cache.expire-seconds`, at most `cdstar.archive-id-cache.max-size`
+ * entries. The cache of a PID must be invalidated when its archives change; other backend nodes see the change after
+ * the cached entry expired.
+ */
+@Component
+public class ArchiveIdResolver implements InitializingBean {
+
+    private final ArchiveRepository archiveRepository;
+
+    @Value("${cdstar.onlineProfile}")
+    private String onlineProfile;
+
+    @Value("${cdstar.archive-id-cache.max-size:10000}")
+    private long maxSize;
+
+    @Value("${cdstar.archive-id-cache.expire-seconds:300}")
+    private long expireSeconds;
+
+    /** Archive id by PID and profile. Not found archives are not cached */
+    private Cache<String, String> cache;
+
+    public ArchiveIdResolver(ArchiveRepository archiveRepository) {
+        this.archiveRepository = archiveRepository;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        cache = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(Duration.ofSeconds(expireSeconds))
+            .build();
+    }
+
+    /**
+     * Get the archive id of a PID
+     *
+     * @param pid     the PID
+     * @param profile profile the archive must have
+     * @param lookup  access to CDSTAR
+     * @return the archive id, or null if the PID has no archive with this profile
+     * @throws IOException if CDSTAR cannot be queried
+     */
+    public String resolve(String pid, String profile, ArchiveLookup lookup) throws IOException {
+        String key = createKey(pid, profile);
+        String res = cache.getIfPresent(key);
+        if (res == null) {
+            res = load(pid, profile, lookup);
+            if (res != null) {
+                cache.put(key, res);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Forget the cached archives of a PID, after they were changed
+     */
+    public void invalidate(String pid) {
+        String prefix = createKey(pid, "");
+        cache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private String load(String pid, String profile, ArchiveLookup lookup) throws IOException {
+        ArchiveIds ids = archiveRepository.findByPid(pid, ArchiveIds.class);
+        if (ids == null) {
+            return lookup.search(pid, profile);
+        }
+        if (profile.equals(onlineProfile)) {
+            return ids.getOnlineId();
+        }
+        String offlineId = ids.getOfflineId();
+        if (offlineId == null) {
+            return lookup.search(pid, profile);
+        }
+        return profile.equals(lookup.getProfile(offlineId)) ? offlineId : null;
+    }
+
+    private static String createKey(String pid, String profile) {
+        return pid + "\n" + profile;
+    }
+
+    /**
+     * Requests to CDSTAR needed to resolve an archive id
+     */
+    public interface ArchiveLookup {
+
+        /**
+         * Search the newest archive of a PID with a profile
+         *
+         * @return the archive id, or null if not found
+         */
+        String search(String pid, String profile) throws IOException;
+
+        /**
+         * Get the current profile of an archive
+         *
+         * @return the profile, or null if the archive does not exist
+         */
+        String getProfile(String archiveId) throws IOException;
+    }
+}
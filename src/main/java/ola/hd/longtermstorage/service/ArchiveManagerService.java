@@ -6,9 +6,12 @@ import java.nio.file.Path;
 import java.util.AbstractMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import okhttp3.Response;
 import ola.hd.longtermstorage.domain.HttpFile;
+import ola.hd.longtermstorage.domain.ImportProgress;
 import ola.hd.longtermstorage.domain.ImportResult;
+import ola.hd.longtermstorage.exceptions.ImportInterruptedException;
 
 public interface ArchiveManagerService {
 
@@ -40,6 +43,31 @@ public interface ArchiveManagerService {
                                List<AbstractMap.SimpleImmutableEntry<String, String>> metaData,
                                String prevPid) throws IOException;
 
+    /**
+     * Import a ZIP file and keep track of the progress, so that an interrupted import can be resumed.
+     *
+     * Every step (transaction, archives, every single file, meta-data, commit) is retried on its own. Steps already
+     * completed according to `progress` are skipped.
+     *
+     * @param extractedDir The path to the folder where the ZIP file was extracted
+     * @param pid          The PID which was assigned for this file
+     * @param metaData     The list of meta-data of this ZIP
+     * @param prevPid      The PID of the previous version. Null for a new work
+     * @param progress     Progress of a previous attempt or an empty progress. Updated while importing
+     * @param checkpoint   Called with the progress whenever it should be saved
+     * @return Meta-data from the import process (e.g. URL to archive on disk / tape)
+     * @throws ImportInterruptedException if the archive manager is not available. The transaction is kept in
+     *                                    `progress`, so the import can be resumed
+     * @throws IOException Thrown if something's wrong when connecting to different services. The transaction is
+     *                     rolled back
+     */
+    ImportResult importZipFile(Path extractedDir,
+                               String pid,
+                               List<AbstractMap.SimpleImmutableEntry<String, String>> metaData,
+                               String prevPid,
+                               ImportProgress progress,
+                               Consumer<ImportProgress> checkpoint) throws IOException;
+
     /**
      * Export an archive from the hard drive or tape.
      *
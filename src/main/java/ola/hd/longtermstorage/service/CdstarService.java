@@ -2,22 +2,50 @@ package ola.hd.longtermstorage.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
+import net.jodah.failsafe.Failsafe;
+import net.jodah.failsafe.FailsafeException;
+import net.jodah.failsafe.RetryPolicy;
+import net.jodah.failsafe.function.CheckedRunnable;
+import net.jodah.failsafe.function.CheckedSupplier;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.Credentials;
 import okhttp3.Headers;
 import okhttp3.HttpUrl;
@@ -27,21 +55,33 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import ola.hd.longtermstorage.Constants;
 import ola.hd.longtermstorage.domain.HttpFile;
+import ola.hd.longtermstorage.domain.ImportProgress;
 import ola.hd.longtermstorage.domain.ImportResult;
 import ola.hd.longtermstorage.domain.SearchRequest;
 import ola.hd.longtermstorage.domain.SearchResults;
+import ola.hd.longtermstorage.exceptions.ImportInterruptedException;
 import ola.hd.longtermstorage.msg.ErrMsg;
+import ola.hd.longtermstorage.utils.ManifestDelta;
 import ola.hd.longtermstorage.utils.Utils;
 import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
 
 @Service
-public class CdstarService implements ArchiveManagerService, SearchService {
+public class CdstarService implements ArchiveManagerService, SearchService, InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CdstarService.class);
 
     @Value("${cdstar.url}")
     private String url;
@@ -67,100 +107,395 @@ public class CdstarService implements ArchiveManagerService, SearchService {
     @Value("${offline.mimeTypes}")
     private String offlineMimeTypes;
 
+    /** Number of threads uploading files to CDSTAR, shared by all imports */
+    @Value("${cdstar.upload.parallelism:8}")
+    private int uploadParallelism;
+
+    /** Copy files which did not change since the previous version server-side instead of uploading them */
+    @Value("${cdstar.delta-import.enabled:false}")
+    private boolean deltaImport;
+
+    /** Maximum number of files of one transaction being uploaded at the same time */
+    @Value("${cdstar.upload.max-in-flight:16}")
+    private int uploadMaxInFlight;
+
+    /**
+     * Memory per file for the chunks read for both archives but not sent to both yet. If one upload gets further
+     * ahead, it reads the file on its own
+     */
+    @Value("${cdstar.upload.shared-buffer-kb:4096}")
+    private long uploadSharedBufferKb;
+
+    /** Save the progress of an import after this many uploaded files */
+    @Value("${cdstar.upload.checkpoint-interval:100}")
+    private int uploadCheckpointInterval;
+
+    /** How often a single step of an import (request to CDSTAR) is retried */
+    @Value("${cdstar.retry.max-retries:3}")
+    private int retryMaxRetries;
+
+    /** Delay before the first retry of a step, doubled for every further retry */
+    @Value("${cdstar.retry.delay-ms:2000}")
+    private long retryDelayMs;
+
+    @Value("${cdstar.retry.max-delay-ms:30000}")
+    private long retryMaxDelayMs;
+
+    /** How long the state of an archive being moved between tape and disk is cached */
+    @Value("${cdstar.archive-state-cache.transient-seconds:10}")
+    private long stateTransientSeconds;
+
+    /** How long the state of an archive on tape or disk is cached */
+    @Value("${cdstar.archive-state-cache.stable-seconds:300}")
+    private long stateStableSeconds;
+
+    private ExecutorService uploadExecutor;
+
+    /**
+     * State of an archive by archive id. Concurrent requests for the same archive wait for one request to CDSTAR
+     */
+    private LoadingCache<String, ArchiveState> archiveStates;
+
+    private final OkHttpClient httpClient;
+
+    /** Client with long timeouts for committing big transactions. Shares the connection pool with httpClient */
+    private final OkHttpClient commitClient;
+
+    private final ObjectMapper objectMapper;
+
+    private final ArchiveIdResolver archiveIdResolver;
+
+    /** Requests used by the archiveIdResolver */
+    private final ArchiveIdResolver.ArchiveLookup archiveLookup = new ArchiveIdResolver.ArchiveLookup() {
+        @Override
+        public String search(String pid, String profile) throws IOException {
+            String archiveId = searchArchiveId(pid, profile);
+            return archiveId.equals(NOT_FOUND) ? null : archiveId;
+        }
+
+        @Override
+        public String getProfile(String archiveId) throws IOException {
+            return getArchiveProfile(archiveId);
+        }
+    };
+
     /**
      * To indicate that function
      * {@linkplain #getArchiveIdFromIdentifier(String, String)} wasn't successful
      */
     private static final String NOT_FOUND = "NOT_FOUND";
 
+    /** Number of files copied with one request in a delta import */
+    private static final int DELTA_BATCH_SIZE = 500;
+
+    public CdstarService(
+        @Qualifier("cdstarHttpClient") OkHttpClient cdstarHttpClient, ObjectMapper objectMapper,
+        ArchiveIdResolver archiveIdResolver
+    ) {
+        this.httpClient = cdstarHttpClient;
+        this.commitClient = cdstarHttpClient.newBuilder()
+                .connectTimeout(10, TimeUnit.MINUTES)
+                .readTimeout(10, TimeUnit.MINUTES)
+                .writeTimeout(10, TimeUnit.MINUTES)
+                .build();
+        this.objectMapper = objectMapper;
+        this.archiveIdResolver = archiveIdResolver;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        AtomicInteger counter = new AtomicInteger();
+        uploadExecutor = Executors.newFixedThreadPool(uploadParallelism, r -> {
+            Thread thread = new Thread(r, "cdstar-upload-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        archiveStates = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfter(new Expiry<String, ArchiveState>() {
+                @Override
+                public long expireAfterCreate(String archiveId, ArchiveState state, long currentTime) {
+                    return getStateTtl(state).toNanos();
+                }
+
+                @Override
+                public long expireAfterUpdate(String archiveId, ArchiveState state, long currentTime,
+                                              long currentDuration) {
+                    return getStateTtl(state).toNanos();
+                }
+
+                @Override
+                public long expireAfterRead(String archiveId, ArchiveState state, long currentTime,
+                                            long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .build(this::fetchArchiveState);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        uploadExecutor.shutdown();
+        uploadExecutor.awaitTermination(5, TimeUnit.MINUTES);
+    }
+
     @Override
     public ImportResult importZipFile(Path extractedDir,
                                       String pid,
                                       List<AbstractMap.SimpleImmutableEntry<String, String>> metaData) throws IOException {
+        return importZipFile(extractedDir, pid, metaData, null);
+    }
 
-        String txId = null;
+    @Override
+    public ImportResult importZipFile(Path extractedDir, String pid,
+                                      List<AbstractMap.SimpleImmutableEntry<String, String>> metaData,
+                                      String prevPid) throws IOException {
+        ImportProgress progress = new ImportProgress();
+        try {
+            return importZipFile(extractedDir, pid, metaData, prevPid, progress, p -> {});
+        } catch (ImportInterruptedException e) {
+            // Nobody resumes this import
+            if (progress.getTxId() != null) {
+                rollbackQuietly(progress.getTxId());
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public ImportResult importZipFile(Path extractedDir, String pid,
+                                      List<AbstractMap.SimpleImmutableEntry<String, String>> metaData,
+                                      String prevPid, ImportProgress progress,
+                                      Consumer<ImportProgress> checkpoint) throws IOException {
+        if (progress.isCommitted()) {
+            return createImportResult(progress.getOnlineArchiveId(), progress.getOfflineArchiveId());
+        }
 
         try {
-            // Get the transaction ID
-            txId = getTransactionId();
+            // Get the archives of the previous version. Searched in CDSTAR directly, the import must not use stale ids
+            String prevOnlineArchiveId = NOT_FOUND;
+            String prevOfflineArchiveId = NOT_FOUND;
+            if (prevPid != null) {
+                prevOnlineArchiveId = retry(() -> searchArchiveId(prevPid, onlineProfile));
+                prevOfflineArchiveId = retry(() -> searchArchiveId(prevPid, offlineProfile));
+                if (prevOnlineArchiveId.equals(NOT_FOUND) && prevOfflineArchiveId.equals(NOT_FOUND)) {
+                    throw new HttpClientErrorException(
+                            HttpStatus.BAD_REQUEST, "Previous version with PID " + prevPid + " was not found.");
+                }
+            }
 
-            String onlineArchiveId = createArchive(txId, false);
-            String offlineArchiveId = createArchive(txId, true);
+            // Resume the transaction of a previous attempt if it is still open
+            String resumeTxId = progress.getTxId();
+            if (resumeTxId != null) {
+                if (retry(() -> isTransactionOpen(resumeTxId))) {
+                    logger.info("Resuming transaction '{}' for PID '{}'", resumeTxId, pid);
+                } else if (progress.isCommitStarted() && isCommitted(progress)) {
+                    // The answer of the commit got lost, but it was successful
+                    logger.info("Transaction '{}' for PID '{}' was committed by a previous attempt", resumeTxId, pid);
+                    progress.setCommitted(true);
+                    checkpoint.accept(progress);
+                    if (prevPid != null) {
+                        archiveIdResolver.invalidate(prevPid);
+                    }
+                    return createImportResult(progress.getOnlineArchiveId(), progress.getOfflineArchiveId());
+                } else {
+                    logger.info("Transaction '{}' for PID '{}' is not available anymore, starting over", resumeTxId,
+                        pid
+                    );
+                    progress.reset();
+                }
+            }
 
-            uploadData(extractedDir, txId, onlineArchiveId, offlineArchiveId);
+            if (progress.getTxId() == null) {
+                progress.setTxId(retry(this::getTransactionId));
+                checkpoint.accept(progress);
+            }
+            String txId = progress.getTxId();
 
-            // Update archive meta-data
-            setArchiveMetaData(onlineArchiveId, metaData, pid, txId);
-            setArchiveMetaData(offlineArchiveId, metaData, pid, txId);
+            if (progress.getOnlineArchiveId() == null) {
+                progress.setOnlineArchiveId(retry(() -> createArchive(txId, false)));
+            }
+            if (progress.getOfflineArchiveId() == null) {
+                progress.setOfflineArchiveId(retry(() -> createArchive(txId, true)));
+            }
+            checkpoint.accept(progress);
+            String onlineArchiveId = progress.getOnlineArchiveId();
+            String offlineArchiveId = progress.getOfflineArchiveId();
+
+            // Files which are equal to the previous version do not have to be uploaded again
+            if (deltaImport && prevPid != null && !progress.isDeltaCopied()) {
+                Set<String> copiedOnline = new HashSet<>();
+                Set<String> copiedOffline = new HashSet<>();
+                copyUnchangedFiles(
+                    extractedDir, txId, onlineArchiveId, offlineArchiveId, prevOnlineArchiveId, prevOfflineArchiveId,
+                    copiedOnline, copiedOffline
+                );
+                progress.markUploaded(copiedOnline, false);
+                progress.markUploaded(copiedOffline, true);
+                progress.setDeltaCopied(true);
+                checkpoint.accept(progress);
+            }
+
+            uploadData(extractedDir, txId, onlineArchiveId, offlineArchiveId, progress, checkpoint);
+            checkpoint.accept(progress);
 
-            // Commit the transaction
-            commitTransaction(txId);
+            if (!progress.isMetadataSet()) {
+                // Update archive meta-data of current version
+                retry(() -> setArchiveMetaData(onlineArchiveId, metaData, pid, txId));
+                retry(() -> setArchiveMetaData(offlineArchiveId, metaData, pid, txId));
 
-            // Meta-data for PID
-            List<AbstractMap.SimpleImmutableEntry<String, String>> pidMetaData = new ArrayList<>();
-            pidMetaData.add(new AbstractMap.SimpleImmutableEntry<>("ONLINE-URL", url + vault + "/" + onlineArchiveId + "?with=files,meta"));
-            pidMetaData.add(new AbstractMap.SimpleImmutableEntry<>("OFFLINE-URL", url + vault + "/" + offlineArchiveId + "?with=files,meta"));
+                // Delete the previous version on the hard drive
+                // Only store the latest version on the hard drive
+                if (!prevOnlineArchiveId.equals(NOT_FOUND)) {
+                    String prevOnline = prevOnlineArchiveId;
+                    retry(() -> deleteArchive(prevOnline, txId));
+                }
+                progress.setMetadataSet(true);
+                checkpoint.accept(progress);
+            }
+
+            // Commit the transaction. Only retried if CDSTAR answered with an error, after a lost response the commit
+            // may have been successful. A resumed import checks this before starting over
+            progress.setCommitStarted(true);
+            checkpoint.accept(progress);
+            Failsafe.with(createRetryPolicy().handleIf(CdstarService::isServerError)).run(
+                () -> commitTransaction(txId)
+            );
+            progress.setCommitted(true);
+            checkpoint.accept(progress);
+            if (prevPid != null) {
+                archiveIdResolver.invalidate(prevPid);
+            }
 
-            return new ImportResult(onlineArchiveId, offlineArchiveId, pidMetaData);
+            return createImportResult(onlineArchiveId, offlineArchiveId);
         } catch (Exception ex) {
-            if (txId != null) {
-                rollbackTransaction(txId);
+            boolean wrapped = ex instanceof FailsafeException || ex instanceof CompletionException;
+            Throwable cause = wrapped && ex.getCause() != null ? ex.getCause() : ex;
+            if (isResumable(cause)) {
+                // Keep the transaction, the import is resumed from here
+                checkpoint.accept(progress);
+                throw new ImportInterruptedException(
+                    "Import of PID " + pid + " interrupted: " + cause.getMessage(), cause
+                );
             }
+            if (progress.getTxId() != null) {
+                rollbackQuietly(progress.getTxId());
+            }
+            progress.reset();
+            checkpoint.accept(progress);
 
-            throw ex;
+            throw unwrap(ex);
         }
     }
 
-    @Override
-    public ImportResult importZipFile(Path extractedDir, String pid,
-                                      List<AbstractMap.SimpleImmutableEntry<String, String>> metaData,
-                                      String prevPid) throws IOException {
+    /**
+     * Check if a failed import can be resumed later: errors which did not go away with the retries of the single step,
+     * or the node is shutting down
+     */
+    private static boolean isResumable(Throwable e) {
+        return e instanceof IOException || isServerError(e);
+    }
 
-        String txId = null;
+    /**
+     * Check if the archives of an import are visible outside of its transaction, which is only the case after commit
+     */
+    private boolean isCommitted(ImportProgress progress) throws IOException {
+        String onlineArchiveId = progress.getOnlineArchiveId();
+        return onlineArchiveId != null && retry(() -> getArchiveProfile(onlineArchiveId)) != null;
+    }
 
+    private void rollbackQuietly(String txId) {
         try {
-            // Get the online archive of the previous version
-            String prevOnlineArchiveId = getArchiveIdFromIdentifier(prevPid, onlineProfile);
-            String prevOfflineArchiveId = getArchiveIdFromIdentifier(prevPid, offlineProfile);
-            if (prevOnlineArchiveId.equals(NOT_FOUND) && prevOfflineArchiveId.equals(NOT_FOUND)) {
-                throw new HttpClientErrorException(
-                        HttpStatus.BAD_REQUEST, "Previous version with PID " + prevPid + " was not found.");
-            }
+            rollbackTransaction(txId);
+        } catch (Exception e) {
+            logger.warn("Rolling back transaction '{}' failed", txId, e);
+        }
+    }
 
-            // Get the transaction ID
-            txId = getTransactionId();
+    /**
+     * Create the result of an import with the meta-data for the PID
+     */
+    private ImportResult createImportResult(String onlineArchiveId, String offlineArchiveId) {
+        List<AbstractMap.SimpleImmutableEntry<String, String>> pidMetaData = new ArrayList<>();
+        pidMetaData.add(new AbstractMap.SimpleImmutableEntry<>("ONLINE-URL", url + vault + "/" + onlineArchiveId + "?with=files,meta"));
+        pidMetaData.add(new AbstractMap.SimpleImmutableEntry<>("OFFLINE-URL", url + vault + "/" + offlineArchiveId + "?with=files,meta"));
 
-            String onlineArchiveId = createArchive(txId, false);
-            String offlineArchiveId = createArchive(txId, true);
+        return new ImportResult(onlineArchiveId, offlineArchiveId, pidMetaData);
+    }
 
-            uploadData(extractedDir, txId, onlineArchiveId, offlineArchiveId);
+    /**
+     * Retry policy for single steps of an import. The errors to retry on have to be added with handleIf
+     */
+    private RetryPolicy<Object> createRetryPolicy() {
+        return new RetryPolicy<>()
+            .withBackoff(retryDelayMs, retryMaxDelayMs, ChronoUnit.MILLIS)
+            .withMaxRetries(retryMaxRetries);
+    }
 
-            // Update archive meta-data of current version
-            setArchiveMetaData(onlineArchiveId, metaData, pid, txId);
-            setArchiveMetaData(offlineArchiveId, metaData, pid, txId);
+    /**
+     * Run a step of an import and retry it on connection problems and server errors
+     */
+    private <T> T retry(CheckedSupplier<T> step) throws IOException {
+        try {
+            return Failsafe.with(createRetryPolicy().handleIf(CdstarService::isTransient)).get(step);
+        } catch (FailsafeException e) {
+            throw unwrap(e);
+        }
+    }
 
-            // Delete the previous version on the hard drive
-            // Only store the latest version on the hard drive
-            if (!prevOnlineArchiveId.equals(NOT_FOUND)) {
-                deleteArchive(prevOnlineArchiveId, txId);
-            }
+    private void retry(CheckedRunnable step) throws IOException {
+        try {
+            Failsafe.with(createRetryPolicy().handleIf(CdstarService::isTransient)).run(step);
+        } catch (FailsafeException e) {
+            throw unwrap(e);
+        }
+    }
 
-            // Commit the transaction
-            commitTransaction(txId);
+    /**
+     * Check if an error of a request to CDSTAR might go away by trying again
+     */
+    private static boolean isTransient(Throwable e) {
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        return e instanceof IOException || isServerError(e);
+    }
 
-            // Meta-data for PID
-            List<AbstractMap.SimpleImmutableEntry<String, String>> pidMetaData = new ArrayList<>();
-            pidMetaData.add(new AbstractMap.SimpleImmutableEntry<>("ONLINE-URL", url + vault + "/" + onlineArchiveId + "?with=files,meta"));
-            pidMetaData.add(new AbstractMap.SimpleImmutableEntry<>("OFFLINE-URL", url + vault + "/" + offlineArchiveId + "?with=files,meta"));
+    private static boolean isServerError(Throwable e) {
+        return e instanceof HttpStatusCodeException
+            && ((HttpStatusCodeException)e).getStatusCode().is5xxServerError();
+    }
 
-            return new ImportResult(onlineArchiveId, offlineArchiveId, pidMetaData);
+    /**
+     * Get the original exception of a step which could not be completed with retries, or of a failed cache load
+     */
+    private static IOException unwrap(Exception ex) {
+        boolean wrapped = ex instanceof FailsafeException || ex instanceof CompletionException;
+        Throwable cause = wrapped && ex.getCause() != null ? ex.getCause() : ex;
+        if (cause instanceof IOException) {
+            return (IOException)cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+        }
+        return new IOException(cause);
+    }
 
-        } catch (IOException ex) {
-            if (txId != null) {
-                rollbackTransaction(txId);
+    /**
+     * Check if a transaction can still be used
+     */
+    private boolean isTransactionOpen(String txId) throws IOException {
+        Request request = new Request.Builder()
+                .url(url + "_tx/" + txId)
+                .addHeader("Authorization", Credentials.basic(username, password))
+                .get()
+                .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                return true;
+            } else if (response.code() == 404) {
+                return false;
             }
-
-            throw ex;
+            throw new HttpServerErrorException(HttpStatus.valueOf(response.code()), "Cannot read the transaction.");
         }
     }
 
@@ -168,8 +503,6 @@ public class CdstarService implements ArchiveManagerService, SearchService {
 
         String transactionUrl = url + "_tx/";
 
-        OkHttpClient client = new OkHttpClient();
-
         RequestBody txBody = new MultipartBody.Builder()
                 .setType(MultipartBody.FORM)
                 .addFormDataPart("timeout", "300")
@@ -181,14 +514,13 @@ public class CdstarService implements ArchiveManagerService, SearchService {
                 .post(txBody)
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (response.isSuccessful()) {
                 if (response.body() != null) {
                     String bodyString = response.body().string();
 
                     // Parse the returned JSON
-                    ObjectMapper mapper = new ObjectMapper();
-                    JsonNode root = mapper.readTree(bodyString);
+                    JsonNode root = objectMapper.readTree(bodyString);
                     return root.get("id").asText();
                 }
             }
@@ -198,7 +530,27 @@ public class CdstarService implements ArchiveManagerService, SearchService {
         }
     }
 
-    private void uploadData(Path extractedDir, String txId, String onlineArchiveId, String offlineArchiveId) throws IOException {
+    /**
+     * Upload all files of the extracted bag to the archives.
+     *
+     * The files are uploaded concurrently on the upload pool, which is shared by all imports. At most
+     * `cdstar.upload.max-in-flight` requests of one transaction are running or waiting at the same time. Every file is
+     * retried on its own if the upload fails because of a connection problem or a server error. Uploaded files are
+     * marked in the progress, which is saved every `cdstar.upload.checkpoint-interval` files, so that they are skipped
+     * by a retry or a resumed import. A failure which cannot be retried cancels the running requests and no further
+     * files are uploaded. This method only returns after all started requests have finished, so the transaction can be
+     * rolled back safely afterwards.
+     *
+     * @param extractedDir
+     * @param txId
+     * @param onlineArchiveId
+     * @param offlineArchiveId
+     * @param progress         files already available in the archives are skipped, uploaded files are added
+     * @param checkpoint       called to save the progress
+     * @throws IOException
+     */
+    private void uploadData(Path extractedDir, String txId, String onlineArchiveId, String offlineArchiveId,
+            ImportProgress progress, Consumer<ImportProgress> checkpoint) throws IOException {
 
         String onlineBaseUrl = url + vault + "/" + onlineArchiveId;
         String offlineBaseUrl = url + vault + "/" + offlineArchiveId;
@@ -206,66 +558,354 @@ public class CdstarService implements ArchiveManagerService, SearchService {
         List<String> offlineTypes = Arrays.asList(offlineMimeTypes.split(";"));
         Tika tika = new Tika();
 
-        Files.walk(extractedDir)
-                .filter(Files::isRegularFile)
-                .forEach(path -> {
-                    String onlineUrl = onlineBaseUrl + "/" +
-                            URLEncoder.encode(extractedDir.relativize(path).toString(), StandardCharsets.UTF_8);
-                    String offlineUrl = offlineBaseUrl + "/" +
-                            URLEncoder.encode(extractedDir.relativize(path).toString(), StandardCharsets.UTF_8);
-
-                    String mimeType;
-                    try {
-
-                        // Try to figure out the correct MIME type
-                        mimeType = tika.detect(path);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(extractedDir)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
 
-                    // If the MIME type is unrecognizable
-                    if (mimeType == null || mimeType.isEmpty()) {
-                        mimeType = "application/octet-stream";
+        UploadState state = new UploadState(uploadMaxInFlight);
+        RetryPolicy<Object> fileRetryPolicy = createRetryPolicy()
+            .handleIf(e -> state.failure.get() == null && isTransient(e))
+            .onRetry(e -> logger.warn("Retrying upload to CDSTAR, attempt {}", e.getAttemptCount(),
+                e.getLastFailure()));
+        AtomicInteger uploaded = new AtomicInteger();
+        int lastCheckpoint = 0;
+        try {
+            for (Path path : files) {
+                state.inFlight.acquire();
+                if (state.failure.get() != null) {
+                    state.inFlight.release();
+                    break;
+                }
+                if (uploaded.get() - lastCheckpoint >= uploadCheckpointInterval) {
+                    lastCheckpoint = uploaded.get();
+                    checkpoint.accept(progress);
+                }
+                try {
+                    uploadExecutor.execute(() -> {
+                        try {
+                            if (state.failure.get() == null) {
+                                Failsafe.with(fileRetryPolicy).run(() -> uploadFile(state, extractedDir, path, txId,
+                                    onlineBaseUrl, offlineBaseUrl, offlineTypes, tika, progress));
+                                uploaded.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            Exception cause = e instanceof FailsafeException && e.getCause() instanceof Exception
+                                ? (Exception)e.getCause() : e;
+                            if (state.failure.compareAndSet(null, cause)) {
+                                state.cancelCalls();
+                            }
+                        } finally {
+                            state.inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    state.inFlight.release();
+                    throw new IOException("Upload to CDSTAR rejected", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            state.failure.compareAndSet(null, new InterruptedIOException("Upload to CDSTAR interrupted"));
+            state.cancelCalls();
+            Thread.currentThread().interrupt();
+        } finally {
+            // Wait till all started uploads are finished. Every upload returns its permit
+            state.inFlight.acquireUninterruptibly(uploadMaxInFlight);
+        }
+
+        Exception failure = state.failure.get();
+        if (failure instanceof IOException) {
+            throw (IOException)failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    /**
+     * Let CDSTAR copy the files which did not change since the previous version from the archives of the previous
+     * version, instead of uploading them again.
+     *
+     * The manifest of the previous version is compared with the new one (see {@linkplain ManifestDelta}). Unchanged
+     * files are copied server-side from the previous online archive into the new online archive. The previous offline
+     * archive is only used as source if it is open (on disk), files on tape are uploaded again. Whatever cannot be
+     * copied is simply uploaded afterwards, so a failure here never fails the import.
+     *
+     * @param copiedOnline  receives the paths of the files copied to the online archive
+     * @param copiedOffline receives the paths of the files copied to the offline archive
+     */
+    void copyUnchangedFiles(Path extractedDir, String txId, String onlineArchiveId, String offlineArchiveId,
+            String prevOnlineArchiveId, String prevOfflineArchiveId, Set<String> copiedOnline,
+            Set<String> copiedOffline) {
+        try {
+            boolean prevOnlineAvailable = !prevOnlineArchiveId.equals(NOT_FOUND);
+            boolean prevOfflineAvailable = !prevOfflineArchiveId.equals(NOT_FOUND)
+                && isArchiveOpen(prevOfflineArchiveId);
+            if (!prevOnlineAvailable && !prevOfflineAvailable) {
+                return;
+            }
+            String prevManifest = readArchiveFile(
+                prevOnlineAvailable ? prevOnlineArchiveId : prevOfflineArchiveId, Constants.PAYLOAD_MANIFEST_NAME
+            );
+            if (prevManifest == null) {
+                return;
+            }
+            String manifest = Files.readString(extractedDir.resolve(Constants.PAYLOAD_MANIFEST_NAME));
+            ManifestDelta delta = new ManifestDelta(prevManifest, manifest);
+
+            if (prevOnlineAvailable) {
+                // Files of offline types are not in the online archive
+                List<String> offlineTypes = Arrays.asList(offlineMimeTypes.split(";"));
+                Tika tika = new Tika();
+                List<String> candidates = new ArrayList<>();
+                for (String path : delta.getUnchanged()) {
+                    if (!offlineTypes.contains(tika.detect(extractedDir.resolve(path)))) {
+                        candidates.add(path);
                     }
+                }
+                copiedOnline.addAll(copyFiles(txId, onlineArchiveId, prevOnlineArchiveId, candidates));
+            }
+            if (prevOfflineAvailable) {
+                copiedOffline.addAll(
+                    copyFiles(txId, offlineArchiveId, prevOfflineArchiveId, new ArrayList<>(delta.getUnchanged()))
+                );
+            }
+            logger.info(
+                "Delta import: {} of {} files unchanged, copied {} to online and {} to offline archive",
+                delta.getUnchanged().size(), delta.getUnchanged().size() + delta.getChanged().size(),
+                copiedOnline.size(), copiedOffline.size()
+            );
+        } catch (Exception e) {
+            logger.warn("Delta import not possible, uploading all files", e);
+        }
+    }
 
-                    File file = path.toFile();
+    /**
+     * Copy files from another archive of the vault server-side. CDSTAR reads the source archive itself, with the
+     * permissions of the user of this request. The files are copied in batches, a batch which fails is skipped.
+     *
+     * @param txId            transaction ID
+     * @param archiveId       archive to copy the files to
+     * @param sourceArchiveId archive to copy the files from
+     * @param paths           paths of the files. Same path in both archives
+     * @return paths of the files successfully copied
+     */
+    private List<String> copyFiles(String txId, String archiveId, String sourceArchiveId, List<String> paths)
+            throws IOException {
+        List<String> res = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i += DELTA_BATCH_SIZE) {
+            List<String> batch = paths.subList(i, Math.min(i + DELTA_BATCH_SIZE, paths.size()));
+            MultipartBody.Builder builder = new MultipartBody.Builder().setType(MultipartBody.FORM);
+            for (String path : batch) {
+                // The target is given like a file upload, as percent-encoded path in the name of the form field. The
+                // source is the archive id and the path of the file in that archive
+                builder.addFormDataPart("copy:" + encodePath(path), sourceArchiveId + "/" + path);
+            }
+            Request request = new Request.Builder()
+                    .url(url + vault + "/" + archiveId)
+                    .addHeader("Authorization", Credentials.basic(username, password))
+                    .addHeader("X-Transaction", txId)
+                    .post(builder.build())
+                    .build();
+            try (Response response = httpClient.newCall(request).execute()) {
+                if (response.isSuccessful()) {
+                    res.addAll(batch);
+                } else {
+                    logger.warn("Copying {} files from archive {} to {} failed with status {}: {}", batch.size(),
+                        sourceArchiveId, archiveId, response.code(),
+                        response.body() != null ? response.body().string() : ""
+                    );
+                }
+            }
+        }
+        return res;
+    }
 
-                    try {
-                        // Offline file?
-                        if (offlineTypes.contains(mimeType)) {
+    /**
+     * Percent-encode the segments of a path like in the path of a URL
+     *
+     * @return the encoded path with a leading slash
+     */
+    private static String encodePath(String path) {
+        return new HttpUrl.Builder().scheme("http").host("localhost").addPathSegments(path).build().encodedPath();
+    }
 
-                            // Only send to offline archive
-                            sendRequest(offlineUrl, txId, file, mimeType, true);
-                        } else {
+    /**
+     * Read a (small) text file from an archive
+     *
+     * @return content of the file or null if it is not available
+     */
+    private String readArchiveFile(String archiveId, String path) throws IOException {
+        Request request = new Request.Builder()
+                .url(url + vault + "/" + archiveId + "/" + path)
+                .addHeader("Authorization", Credentials.basic(username, password))
+                .get()
+                .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.isSuccessful() && response.body() != null) {
+                return response.body().string();
+            }
+            return null;
+        }
+    }
 
-                            // For other files, send to both archives
-                            sendRequest(offlineUrl, txId, file, mimeType, true);
-                            sendRequest(onlineUrl, txId, file, mimeType, false);
-                        }
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
+    /**
+     * Upload one file to the offline archive and, if it is not of an offline type, to the online archive too. Archives
+     * which already contain the file according to the progress are skipped, so this can be called again after a
+     * failure.
+     */
+    private void uploadFile(UploadState state, Path extractedDir, Path path, String txId,
+            String onlineBaseUrl, String offlineBaseUrl, List<String> offlineTypes, Tika tika,
+            ImportProgress progress) throws IOException {
+        String relativePath = extractedDir.relativize(path).toString();
+        boolean toOffline = !progress.isUploaded(relativePath, true);
+        boolean toOnline = !progress.isUploaded(relativePath, false);
+        if (!toOffline && !toOnline) {
+            return;
+        }
+        String onlineUrl = onlineBaseUrl + "/" +
+                URLEncoder.encode(relativePath, StandardCharsets.UTF_8);
+        String offlineUrl = offlineBaseUrl + "/" +
+                URLEncoder.encode(relativePath, StandardCharsets.UTF_8);
+
+        // Try to figure out the correct MIME type
+        String mimeType = tika.detect(path);
+
+        // If the MIME type is unrecognizable
+        if (mimeType == null || mimeType.isEmpty()) {
+            mimeType = "application/octet-stream";
+        }
+
+        File file = path.toFile();
+        MediaType mediaType = MediaType.parse(mimeType);
+
+        // Offline file?
+        if (offlineTypes.contains(mimeType)) {
+
+            // Only send to offline archive
+            if (toOffline) {
+                sendRequest(state, offlineUrl, txId, RequestBody.create(mediaType, file), mimeType, true);
+                progress.markUploaded(relativePath, true);
+            }
+        } else if (!toOffline || !toOnline) {
+
+            // Already available in one of the archives
+            sendRequest(state, toOffline ? offlineUrl : onlineUrl, txId, RequestBody.create(mediaType, file),
+                mimeType, toOffline);
+            progress.markUploaded(relativePath, toOffline);
+        } else {
+
+            // For other files, send to both archives at the same time. The file is read only once for both
+            // requests, see SharedFileReader
+            try (SharedFileReader reader = new SharedFileReader(path, uploadSharedBufferKb * 1024)) {
+                RequestBody onlineBody = reader.newBody(mediaType);
+                RequestBody offlineBody = reader.newBody(mediaType);
+                Call onlineCall = httpClient.newCall(buildUploadRequest(onlineUrl, txId, onlineBody, mimeType));
+                CompletableFuture<Void> online = sendRequestAsync(state, onlineCall, onlineUrl);
+                try {
+                    sendRequest(state, offlineUrl, txId, offlineBody, mimeType, true);
+                } catch (IOException | RuntimeException e) {
+                    // Only this file is retried, the uploads of the other files go on
+                    onlineCall.cancel();
+                    if (online.handle((res, ex) -> ex == null).join()) {
+                        progress.markUploaded(relativePath, false);
                     }
-                });
+                    throw e;
+                }
+                progress.markUploaded(relativePath, true);
+                awaitUpload(online);
+                progress.markUploaded(relativePath, false);
+                logger.debug("Uploaded {} ({} bytes) to both archives, read {} bytes from disk", relativePath,
+                    file.length(), reader.getBytesRead()
+                );
+            }
+        }
     }
 
-    private void sendRequest(String url, String txId, File file, String mimeType, boolean isOffline) throws IOException {
-        OkHttpClient client = new OkHttpClient();
+    /**
+     * Wait till an asynchronous upload is finished and rethrow its failure
+     */
+    private static void awaitUpload(CompletableFuture<Void> upload) throws IOException {
+        try {
+            upload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload to CDSTAR interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
 
-        // Request to upload a file
-        Request request = new Request.Builder()
+    private Request buildUploadRequest(String url, String txId, RequestBody body, String mimeType) {
+        return new Request.Builder()
                 .url(url)
                 .addHeader("Authorization", Credentials.basic(username, password))
                 .addHeader("Content-Type", mimeType)
                 .addHeader("X-Transaction", txId)
-                .put(RequestBody.create(MediaType.parse(mimeType), file))
+                .put(body)
                 .build();
+    }
+
+    /**
+     * Upload a file on a thread of the http-client
+     *
+     * @return completed when the upload is finished
+     */
+    private CompletableFuture<Void> sendRequestAsync(UploadState state, Call call, String url) {
+        CompletableFuture<Void> res = new CompletableFuture<>();
+        state.calls.add(call);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                state.calls.remove(call);
+                res.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                state.calls.remove(call);
+                try (response) {
+                    if (response.isSuccessful()) {
+                        res.complete(null);
+                    } else {
+                        res.completeExceptionally(new HttpServerErrorException(
+                            HttpStatus.valueOf(response.code()), "Cannot send data to CDSTAR. URL: " + url
+                        ));
+                    }
+                }
+            }
+        });
+        if (state.failure.get() != null) {
+            call.cancel();
+        }
+        return res;
+    }
+
+    private void sendRequest(UploadState state, String url, String txId, RequestBody body,
+            String mimeType, boolean isOffline) throws IOException {
 
-        try (Response response = client.newCall(request).execute()) {
+        // Request to upload a file
+        Request request = buildUploadRequest(url, txId, body, mimeType);
+
+        Call call = httpClient.newCall(request);
+        state.calls.add(call);
+        if (state.failure.get() != null) {
+            call.cancel();
+        }
+        try (Response response = call.execute()) {
             if (!response.isSuccessful()) {
 
                 // Something is wrong, throw the exception
                 throw new HttpServerErrorException(HttpStatus.valueOf(response.code()), "Cannot send data to CDSTAR. URL: " + url);
             }
+        } finally {
+            state.calls.remove(call);
         }
 
         // Skip setting type metadata: goal is to reduce calls to Cdstar. This metadata info is not used currently
@@ -298,18 +938,12 @@ public class CdstarService implements ArchiveManagerService, SearchService {
 
         String txUrl = url + "_tx/" + txId;
 
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(10, TimeUnit.MINUTES)
-                .readTimeout(10, TimeUnit.MINUTES)
-                .writeTimeout(10, TimeUnit.MINUTES)
-                .build();
-
         Request request = new Request.Builder()
                 .url(txUrl)
                 .addHeader("Authorization", Credentials.basic(username, password))
                 .post(RequestBody.create(null, ""))
                 .build();
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = commitClient.newCall(request).execute()) {
             if (!response.isSuccessful()) {
 
                 // Something is wrong here
@@ -322,14 +956,12 @@ public class CdstarService implements ArchiveManagerService, SearchService {
 
         String txUrl = url + "_tx/" + txId;
 
-        OkHttpClient client = new OkHttpClient();
-
         Request request = new Request.Builder()
                 .url(txUrl)
                 .addHeader("Authorization", Credentials.basic(username, password))
                 .delete()
                 .build();
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (!response.isSuccessful()) {
 
                 // Something is wrong here
@@ -346,8 +978,6 @@ public class CdstarService implements ArchiveManagerService, SearchService {
             profile = offlineProfile;
         }
 
-        OkHttpClient client = new OkHttpClient();
-
         RequestBody requestBody = new MultipartBody.Builder()
                 .setType(MultipartBody.FORM)
                 .addFormDataPart("profile", profile)
@@ -360,7 +990,7 @@ public class CdstarService implements ArchiveManagerService, SearchService {
                 .post(requestBody)
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (response.isSuccessful()) {
                 String location = response.header("Location");
 
@@ -382,7 +1012,6 @@ public class CdstarService implements ArchiveManagerService, SearchService {
     private void setArchiveMetaData(String archiveId, List<AbstractMap.SimpleImmutableEntry<String, String>> metaData,
                                     String pid, String txId) throws IOException {
         String fullUrl = url + vault + "/" + archiveId;
-        OkHttpClient client = new OkHttpClient();
 
         MultipartBody.Builder builder = new MultipartBody.Builder()
                 .setType(MultipartBody.FORM);
@@ -457,7 +1086,7 @@ public class CdstarService implements ArchiveManagerService, SearchService {
                 .post(requestBody)
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (!response.isSuccessful()) {
 
                 // Something is wrong, throw the exception
@@ -470,7 +1099,6 @@ public class CdstarService implements ArchiveManagerService, SearchService {
     public void deleteArchive(String archiveId, String txId) throws IOException {
         String fullUrl = url + vault + "/" + archiveId;
 
-        OkHttpClient client = new OkHttpClient();
         Request.Builder builder = new Request.Builder()
                 .url(fullUrl)
                 .addHeader("Authorization", Credentials.basic(username, password))
@@ -482,7 +1110,7 @@ public class CdstarService implements ArchiveManagerService, SearchService {
 
         Request request = builder.build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (!response.isSuccessful() && response.code() != 404) {
 
                 // Something is wrong, throw the exception
@@ -537,8 +1165,6 @@ public class CdstarService implements ArchiveManagerService, SearchService {
         // Set the base URL up to the archive level
         String baseUrl = url + vault + "/" + archiveId;
 
-        OkHttpClient client = new OkHttpClient();
-
         // Build the GET request
         Request.Builder requestBuilder = new Request.Builder()
                 .addHeader("Authorization", Credentials.basic(username, password))
@@ -557,7 +1183,7 @@ public class CdstarService implements ArchiveManagerService, SearchService {
                 Request request = requestBuilder.url(fullUrl).build();
 
                 // Execute the request
-                try (Response response = client.newCall(request).execute()) {
+                try (Response response = httpClient.newCall(request).execute()) {
                     if (response.isSuccessful() && response.body() != null) {
 
                         // Stream the response
@@ -595,6 +1221,8 @@ public class CdstarService implements ArchiveManagerService, SearchService {
         // Change the profile of the archive to a mirror profile
         if (!archiveId.equals(NOT_FOUND)) {
             updateProfile(archiveId, mirrorProfile);
+            archiveIdResolver.invalidate(identifier);
+            archiveStates.invalidate(archiveId);
         } else {
             throw new HttpClientErrorException(HttpStatus.NOT_FOUND, ErrMsg.ARCHIVE_NOT_FOUND);
         }
@@ -609,6 +1237,8 @@ public class CdstarService implements ArchiveManagerService, SearchService {
         // Change the profile of the archive to a cold profile
         if (!archiveId.equals(NOT_FOUND)) {
             updateProfile(archiveId, offlineProfile);
+            archiveIdResolver.invalidate(identifier);
+            archiveStates.invalidate(archiveId);
         } else {
             throw new HttpClientErrorException(HttpStatus.NOT_FOUND, ErrMsg.ARCHIVE_NOT_FOUND);
         }
@@ -616,7 +1246,6 @@ public class CdstarService implements ArchiveManagerService, SearchService {
 
     private void updateProfile(String archiveId, String newProfile) throws IOException {
         String fullUrl = url + vault + "/" + archiveId;
-        OkHttpClient client = new OkHttpClient();
 
         RequestBody requestBody = new MultipartBody.Builder()
                 .setType(MultipartBody.FORM)
@@ -629,7 +1258,7 @@ public class CdstarService implements ArchiveManagerService, SearchService {
                 .post(requestBody)
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (!response.isSuccessful()) {
 
                 // Something is wrong, throw the exception
@@ -638,7 +1267,18 @@ public class CdstarService implements ArchiveManagerService, SearchService {
         }
     }
 
+    /**
+     * Get the archive id for an identifier (PID) from the {@linkplain ArchiveIdResolver}
+     */
     private String getArchiveIdFromIdentifier(String identifier, String profile) throws IOException {
+        String archiveId = archiveIdResolver.resolve(identifier, profile, archiveLookup);
+        return archiveId != null ? archiveId : NOT_FOUND;
+    }
+
+    /**
+     * Search the newest archive with an identifier (PID) and profile in CDSTAR
+     */
+    private String searchArchiveId(String identifier, String profile) throws IOException {
         String fullUrl = url + vault;
 
         // Search for archive with specified identifier (PPN, PID)
@@ -656,15 +1296,14 @@ public class CdstarService implements ArchiveManagerService, SearchService {
                 .get()
                 .build();
 
-        try (Response response = new OkHttpClient().newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
 
             if (response.isSuccessful()) {
                 if (response.body() != null) {
                     String bodyString = response.body().string();
 
                     // Parse the returned JSON
-                    ObjectMapper mapper = new ObjectMapper();
-                    JsonNode root = mapper.readTree(bodyString);
+                    JsonNode root = objectMapper.readTree(bodyString);
                     JsonNode hits = root.get("hits");
                     JsonNode firstElement = hits.get(0);
 
@@ -697,8 +1336,7 @@ public class CdstarService implements ArchiveManagerService, SearchService {
                 .get()
                 .build();
 
-        OkHttpClient client = new OkHttpClient();
-        Response response = client.newCall(request).execute();
+        Response response = httpClient.newCall(request).execute();
 
         if (response.isSuccessful()) {
             return response;
@@ -708,10 +1346,67 @@ public class CdstarService implements ArchiveManagerService, SearchService {
         throw new HttpServerErrorException(HttpStatus.valueOf(response.code()), "Cannot export the archive " + archiveId);
     }
 
-    private boolean isArchiveOpen(String archiveId) throws IOException {
+    /**
+     * Get the current profile of an archive
+     *
+     * @return the profile, or null if the archive does not exist
+     */
+    private String getArchiveProfile(String archiveId) throws IOException {
         String fullUrl = url + vault + "/" + archiveId;
 
-        OkHttpClient client = new OkHttpClient();
+        Request request = new Request.Builder()
+                .url(fullUrl)
+                .addHeader("Authorization", Credentials.basic(username, password))
+                .get()
+                .build();
+
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.code() == HttpStatus.NOT_FOUND.value()) {
+                return null;
+            }
+            if (response.isSuccessful() && response.body() != null) {
+                JsonNode root = objectMapper.readTree(response.body().string());
+                return root.path("profile").asText(null);
+            }
+
+            // Cannot get the archive profile? Throw the exception
+            throw new HttpServerErrorException(HttpStatus.valueOf(response.code()), "Error when getting the archive profile.");
+        }
+    }
+
+    private boolean isArchiveOpen(String archiveId) throws IOException {
+        String state;
+        try {
+            state = archiveStates.get(archiveId).state;
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+
+        // Open-state archive
+        return state.equals("open") || state.equals("locked");
+    }
+
+    /**
+     * Stable states (on disk or on tape) change only when the profile is changed, which invalidates the cache. Other
+     * states (e.g. "pending-recover" while moving to disk) are checked again soon. Right after a profile change CDSTAR
+     * may still report the state of the old profile, so a state only counts as stable if it fits the profile: archived
+     * for the offline profile, open for the others
+     */
+    private Duration getStateTtl(ArchiveState state) {
+        boolean offline = offlineProfile.equals(state.profile);
+        switch (state.state) {
+            case "open":
+            case "locked":
+                return Duration.ofSeconds(offline ? stateTransientSeconds : stateStableSeconds);
+            case "archived":
+                return Duration.ofSeconds(offline ? stateStableSeconds : stateTransientSeconds);
+            default:
+                return Duration.ofSeconds(stateTransientSeconds);
+        }
+    }
+
+    private ArchiveState fetchArchiveState(String archiveId) throws IOException {
+        String fullUrl = url + vault + "/" + archiveId;
 
         Request request = new Request.Builder()
                 .url(fullUrl)
@@ -719,18 +1414,14 @@ public class CdstarService implements ArchiveManagerService, SearchService {
                 .get()
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (response.isSuccessful()) {
                 if (response.body() != null) {
                     String bodyString = response.body().string();
 
                     // Parse the returned JSON
-                    ObjectMapper mapper = new ObjectMapper();
-                    JsonNode root = mapper.readTree(bodyString);
-                    String state = root.get("state").asText();
-
-                    // Open-state archive
-                    return state.equals("open") || state.equals("locked");
+                    JsonNode root = objectMapper.readTree(bodyString);
+                    return new ArchiveState(root.path("state").asText(), root.path("profile").asText());
 
                 }
             }
@@ -754,22 +1445,19 @@ public class CdstarService implements ArchiveManagerService, SearchService {
                 .addQueryParameter("scroll", searchRequest.getScroll())
                 .build();
 
-        OkHttpClient client = new OkHttpClient();
-
         Request request = new Request.Builder()
                 .url(httpUrl)
                 .addHeader("Authorization", Credentials.basic(username, password))
                 .get()
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (response.isSuccessful()) {
                 if (response.body() != null) {
                     String bodyString = response.body().string();
 
                     // Parse the returned JSON
-                    ObjectMapper mapper = new ObjectMapper();
-                    return mapper.readValue(bodyString, SearchResults.class);
+                    return objectMapper.readValue(bodyString, SearchResults.class);
                 }
             }
 
@@ -805,15 +1493,13 @@ public class CdstarService implements ArchiveManagerService, SearchService {
             fullUrl += "&offset=" + offset;
         }
 
-        OkHttpClient client = new OkHttpClient();
-
         Request request = new Request.Builder()
                 .url(fullUrl)
                 .addHeader("Authorization", Credentials.basic(username, password))
                 .get()
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (response.isSuccessful()) {
                 if (response.body() != null) {
                     return response.body().string();
@@ -842,15 +1528,13 @@ public class CdstarService implements ArchiveManagerService, SearchService {
             fullUrl += "?info";
         }
 
-        OkHttpClient client = new OkHttpClient();
-
         Request request = new Request.Builder()
                 .url(fullUrl)
                 .addHeader("Authorization", Credentials.basic(username, password))
                 .get()
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (response.isSuccessful()) {
                 if (response.body() != null) {
 
@@ -891,7 +1575,7 @@ public class CdstarService implements ArchiveManagerService, SearchService {
                 .get()
                 .build();
 
-        try (Response response = new OkHttpClient().newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (response.isSuccessful() && response.body() != null) {
                 String body = response.body().string();
                 return Utils.readBagInfoToMap(body);
@@ -922,7 +1606,7 @@ public class CdstarService implements ArchiveManagerService, SearchService {
                 .get()
                 .build();
 
-        Response response = new OkHttpClient().newCall(request).execute();
+        Response response = httpClient.newCall(request).execute();
 
         if (response.isSuccessful()) {
             return response;
@@ -966,4 +1650,42 @@ public class CdstarService implements ArchiveManagerService, SearchService {
         }
         return NOT_FOUND;
     }
+
+    /**
+     * State of an archive together with the profile it was reported for
+     */
+    private static class ArchiveState {
+
+        final String state;
+
+        final String profile;
+
+        ArchiveState(String state, String profile) {
+            this.state = state;
+            this.profile = profile;
+        }
+    }
+
+    /**
+     * State of the parallel upload of one transaction
+     */
+    private static class UploadState {
+
+        /** Limits the number of running and waiting uploads */
+        final Semaphore inFlight;
+
+        /** First error which occurred. Cancels the upload */
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        /** Requests currently running */
+        final Set<Call> calls = ConcurrentHashMap.newKeySet();
+
+        UploadState(int maxInFlight) {
+            this.inFlight = new Semaphore(maxInFlight);
+        }
+
+        void cancelCalls() {
+            calls.forEach(Call::cancel);
+        }
+    }
 }
@@ -15,7 +15,8 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
-import ola.hd.longtermstorage.component.MutexFactory;
+import ola.hd.longtermstorage.component.ClusterLock;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.HttpStatus;
@@ -44,12 +45,21 @@ public class EpicPidService implements PidService {
     @Value("${epic.pidKey:epic-pid}")
     private String pidKey;
 
-    private final MutexFactory<String> mutexFactory;
+    private final ClusterLock clusterLock;
+
+    private final OkHttpClient httpClient;
+
+    private final ObjectMapper objectMapper;
 
     private static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json");
 
-    public EpicPidService(MutexFactory<String> mutexFactory) {
-        this.mutexFactory = mutexFactory;
+    public EpicPidService(
+        ClusterLock clusterLock, @Qualifier("pidHttpClient") OkHttpClient httpClient,
+        ObjectMapper objectMapper
+    ) {
+        this.clusterLock = clusterLock;
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
     }
 
     @Override
@@ -58,8 +68,6 @@ public class EpicPidService implements PidService {
         String fullUrl = url + prefix;
         String payload = buildRequestPayload(data);
 
-        OkHttpClient client = new OkHttpClient();
-
         Request request = new Request.Builder()
                 .url(fullUrl)
                 .addHeader("Authorization", Credentials.basic(username, password))
@@ -68,14 +76,13 @@ public class EpicPidService implements PidService {
                 .post(RequestBody.create(MEDIA_TYPE_JSON, payload))
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (response.isSuccessful()) {
                 if (response.body() != null) {
                     String bodyString = response.body().string();
 
                     // Parse the returned JSON
-                    ObjectMapper mapper = new ObjectMapper();
-                    JsonNode root = mapper.readTree(bodyString);
+                    JsonNode root = objectMapper.readTree(bodyString);
                     return root.get(pidKey).asText();
                 }
             }
@@ -90,8 +97,6 @@ public class EpicPidService implements PidService {
         String fullUrl = url + pid;
         String payload = buildRequestPayload(data);
 
-        OkHttpClient client = new OkHttpClient();
-
         Request request = new Request.Builder()
                 .url(fullUrl)
                 .addHeader("Authorization", Credentials.basic(username, password))
@@ -100,7 +105,7 @@ public class EpicPidService implements PidService {
                 .put(RequestBody.create(MEDIA_TYPE_JSON, payload))
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (!response.isSuccessful()) {
 
                 // Something is wrong. Throw exception
@@ -112,8 +117,10 @@ public class EpicPidService implements PidService {
     @Override
     public void appendData(String pid, List<AbstractMap.SimpleImmutableEntry<String, String>> data) throws IOException {
 
-        // Execute sequentially if it tries to append to the same PID
-        synchronized (mutexFactory.getMutex(pid)) {
+        // Execute sequentially if it tries to append to the same PID, also across backend nodes
+        String lockName = "pid:" + pid;
+        String token = clusterLock.lock(lockName);
+        try {
 
             // Get current data of the PID
             List<AbstractMap.SimpleImmutableEntry<String, String>> pidData = getPidData(pid);
@@ -123,6 +130,8 @@ public class EpicPidService implements PidService {
 
             // Update the PID
             updatePid(pid, pidData);
+        } finally {
+            clusterLock.unlock(lockName, token);
         }
     }
 
@@ -130,8 +139,6 @@ public class EpicPidService implements PidService {
     public void deletePid(String pid) throws IOException {
         String fullUrl = url + pid;
 
-        OkHttpClient client = new OkHttpClient();
-
         Request request = new Request.Builder()
                 .url(fullUrl)
                 .addHeader("Authorization", Credentials.basic(username, password))
@@ -140,7 +147,7 @@ public class EpicPidService implements PidService {
                 .delete()
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (!response.isSuccessful()) {
 
                 // Something is wrong. Throw exception
@@ -153,7 +160,6 @@ public class EpicPidService implements PidService {
         List<AbstractMap.SimpleImmutableEntry<String, String>> data = new ArrayList<>();
 
         String fullUrl = url + pid;
-        OkHttpClient client = new OkHttpClient();
 
         Request request = new Request.Builder()
                 .url(fullUrl)
@@ -162,14 +168,13 @@ public class EpicPidService implements PidService {
                 .get()
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (response.isSuccessful()) {
                 if (response.body() != null) {
                     String bodyString = response.body().string();
 
                     // Parse the returned JSON
-                    ObjectMapper mapper = new ObjectMapper();
-                    JsonNode root = mapper.readTree(bodyString);
+                    JsonNode root = objectMapper.readTree(bodyString);
 
                     for (JsonNode item : root) {
                         String type = item.get("type").asText();
@@ -196,17 +201,16 @@ public class EpicPidService implements PidService {
     }
 
     private String buildRequestPayload(List<AbstractMap.SimpleImmutableEntry<String, String>> data) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        ArrayNode arrayNode = mapper.createArrayNode();
+        ArrayNode arrayNode = objectMapper.createArrayNode();
 
         for (AbstractMap.SimpleImmutableEntry<String, String> pair: data) {
-            ObjectNode node = mapper.createObjectNode();
+            ObjectNode node = objectMapper.createObjectNode();
             node.put("type", pair.getKey().toUpperCase());
             node.put("parsed_data", pair.getValue());
 
             arrayNode.add(node);
         }
 
-        return mapper.writeValueAsString(arrayNode);
+        return objectMapper.writeValueAsString(arrayNode);
     }
 }
@@ -0,0 +1,167 @@
+package ola.hd.longtermstorage.service;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Reads a file once for several request bodies which send it at the same time, e.g. to the online and the offline
+ * archive.
+ *
+ * The file is read in chunks. A chunk read from disk for one body is kept till every body has written it, but at most
+ * `maxChunks` chunks are kept. A body which gets further ahead of the others reads the file itself instead of waiting,
+ * so a slow or stalled request never blocks the others. Only the part of the file the bodies are that far apart is read
+ * twice.
+ */
+class SharedFileReader implements Closeable {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+
+    private final long length;
+
+    private final int maxChunks;
+
+    private final List<Body> bodies = new ArrayList<>();
+
+    /** Chunks read but not written by all bodies yet, starting with chunk number `first` */
+    private final List<byte[]> chunks = new ArrayList<>();
+
+    private long first;
+
+    /** Number of bytes read from disk, for measuring how much the bodies share */
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /**
+     * @param file      the file to send
+     * @param maxBuffer maximum number of bytes kept for the bodies behind
+     * @throws IOException if the file cannot be opened
+     */
+    SharedFileReader(Path file, long maxBuffer) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.length = channel.size();
+        this.maxChunks = (int)Math.max(1, maxBuffer / CHUNK_SIZE);
+    }
+
+    /**
+     * Create a body sending the file. Every body can be used by one request, also if it is retried. All bodies have to
+     * be created before the first one is written, chunks are only kept for the bodies known
+     */
+    synchronized RequestBody newBody(MediaType mediaType) {
+        Body res = new Body(mediaType);
+        bodies.add(res);
+        return res;
+    }
+
+    long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            chunks.clear();
+        }
+        channel.close();
+    }
+
+    private byte[] read(Body body, long index) throws IOException {
+        byte[] res = null;
+        synchronized (this) {
+            body.next = index + 1;
+            if (index >= first && index < first + chunks.size()) {
+                res = chunks.get((int)(index - first));
+            } else if (chunks.isEmpty() || (index == first + chunks.size() && chunks.size() < maxChunks)) {
+                // Reading under the lock: the other bodies need this chunk next, too
+                res = readChunk(index);
+                if (chunks.isEmpty()) {
+                    first = index;
+                }
+                chunks.add(res);
+            }
+            trim();
+        }
+        return res != null ? res : readChunk(index);
+    }
+
+    private synchronized void start(Body body) {
+        body.next = 0;
+    }
+
+    private synchronized void finish(Body body) {
+        body.next = Long.MAX_VALUE;
+        trim();
+    }
+
+    /**
+     * Drop the chunks every body has written
+     */
+    private void trim() {
+        long min = Long.MAX_VALUE;
+        for (Body body : bodies) {
+            min = Math.min(min, body.next);
+        }
+        while (!chunks.isEmpty() && first < min) {
+            chunks.remove(0);
+            first++;
+        }
+    }
+
+    private byte[] readChunk(long index) throws IOException {
+        long position = index * CHUNK_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(CHUNK_SIZE, length - position));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("File shorter than expected");
+            }
+        }
+        bytesRead.addAndGet(buffer.capacity());
+        return buffer.array();
+    }
+
+    private class Body extends RequestBody {
+
+        private final MediaType mediaType;
+
+        /** Number of the chunk this body writes next */
+        private long next;
+
+        private Body(MediaType mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mediaType;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            long count = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            start(this);
+            try {
+                for (long i = 0; i < count; i++) {
+                    sink.write(read(this, i));
+                }
+            } finally {
+                finish(this);
+            }
+        }
+    }
+}
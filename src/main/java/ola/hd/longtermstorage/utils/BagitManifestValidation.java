@@ -4,30 +4,97 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 import javax.xml.bind.DatatypeConverter;
 import ola.hd.longtermstorage.Constants;
 import ola.hd.longtermstorage.exceptions.BagitChecksumException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Validate bagit manifests: manifest-sha512.txt and tagmanifest-sha512.txt.
  *
  * The implementation from the bagit library is very slow so here is an alternative implementation. In my tests it took
  * for 40_000 files about 3 secs instead of 6 Minutes like in the LibraryOfCongress bagit-java implementation
+ *
+ * If the checksums were already calculated while extracting the bag (see {@linkplain DigestTable}) they are only looked
+ * up and compared. Only files missing in the table are read from disk. This is done in parallel on a pool shared by all
+ * validations. To prevent a few huge files (e.g. TIFFs) from occupying all workers and the disk, the sum of the sizes
+ * of the files currently being hashed is limited per validation. A file larger than this limit is hashed alone.
  */
 public class BagitManifestValidation {
 
+    private static final Logger logger = LoggerFactory.getLogger(BagitManifestValidation.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Default limit for the bytes of the files being hashed at the same time */
+    public static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 256L * 1024 * 1024;
+
+    /** Bytes are reserved in blocks of this size, because a semaphore only counts ints */
+    private static final int PERMIT_SIZE = 1024;
+
+    /** Workers hashing the files. Threads are daemons so they do not block the shutdown */
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "manifest-validation-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }
+    );
+
+    /** One read buffer per worker */
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
     /** Path to unzipped bag */
     private File bagdir;
 
+    /** Checksums calculated while extracting */
+    private DigestTable digests;
+
+    /** Upper limit for the sum of the sizes of the files hashed concurrently, in permits */
+    private int maxPermitsInFlight;
+
+    /** Statistics of the last call to {@linkplain #validate(boolean)} */
+    private Throughput throughput;
+
     public BagitManifestValidation(Path bagdir) {
+        this(bagdir, new DigestTable());
+    }
+
+    public BagitManifestValidation(Path bagdir, DigestTable digests) {
+        this(bagdir, digests, DEFAULT_MAX_BYTES_IN_FLIGHT);
+    }
+
+    public BagitManifestValidation(Path bagdir, DigestTable digests, long maxBytesInFlight) {
         super();
         this.bagdir = bagdir.toFile();
+        this.digests = digests;
+        this.maxPermitsInFlight = toPermits(Math.max(maxBytesInFlight, PERMIT_SIZE), Integer.MAX_VALUE);
     }
 
     /**
@@ -38,29 +105,49 @@ public class BagitManifestValidation {
      * @throws BagitChecksumException optionally when a missing checksum is found
      */
     public List<String> validate(boolean throwErrorOnMismatch) {
+        return validate(throwErrorOnMismatch, new AtomicBoolean());
+    }
+
+    /**
+     * Validate the manifests until `stop` is set. This is used to abort the validation when another check of the bag
+     * has failed already. After stopping the errors found until then are returned.
+     *
+     * @param throwErrorOnMismatch throw an exception when an error occurs instead of only return the List of errors
+     * @param stop                 cancellation token, checked while reading the files
+     * @return list of errors or empty list if checksums are valid
+     * @throws BagitChecksumException optionally when a missing checksum is found
+     */
+    public List<String> validate(boolean throwErrorOnMismatch, AtomicBoolean stop) {
         List<String> errors = new ArrayList<>();
-        if (new File(bagdir, Constants.TAG_MANIFEST_NAME).exists()) {
-            try {
-                errors.addAll(validateManifestFiles(Constants.TAG_MANIFEST_NAME, true));
-            } catch (IOException e) {
-                throw new RuntimeException("Unexpected error when validating tag manifest", e);
+        throughput = new Throughput();
+        long start = System.nanoTime();
+        try {
+            if (new File(bagdir, Constants.TAG_MANIFEST_NAME).exists()) {
+                try {
+                    errors.addAll(validateManifestFiles(Constants.TAG_MANIFEST_NAME, true, stop));
+                } catch (IOException e) {
+                    throw new RuntimeException("Unexpected error when validating tag manifest", e);
+                }
+            } else {
+                errors.add("Tag-Manifest: '" + Constants.TAG_MANIFEST_NAME + "' not found");
             }
-        } else {
-            errors.add("Tag-Manifest: '" + Constants.TAG_MANIFEST_NAME + "' not found");
-        }
 
-        if (throwErrorOnMismatch && !errors.isEmpty()) {
-            throw new BagitChecksumException(errors);
-        }
+            if (throwErrorOnMismatch && !errors.isEmpty()) {
+                throw new BagitChecksumException(errors);
+            }
 
-        if (new File(bagdir, Constants.PAYLOAD_MANIFEST_NAME).exists()) {
-            try {
-                errors.addAll(validateManifestFiles(Constants.PAYLOAD_MANIFEST_NAME, true));
-            } catch (IOException e) {
-                throw new RuntimeException("Unexpected error when validating payload manifest", e);
+            if (new File(bagdir, Constants.PAYLOAD_MANIFEST_NAME).exists()) {
+                try {
+                    errors.addAll(validateManifestFiles(Constants.PAYLOAD_MANIFEST_NAME, true, stop));
+                } catch (IOException e) {
+                    throw new RuntimeException("Unexpected error when validating payload manifest", e);
+                }
+            } else {
+                errors.add("Tag-Manifest: '" + Constants.PAYLOAD_MANIFEST_NAME + "' not found");
             }
-        } else {
-            errors.add("Tag-Manifest: '" + Constants.PAYLOAD_MANIFEST_NAME + "' not found");
+        } finally {
+            throughput.nanos = System.nanoTime() - start;
+            logger.info("Validated manifests of '{}': {}", bagdir.getName(), throughput);
         }
         if (throwErrorOnMismatch && !errors.isEmpty()) {
             throw new BagitChecksumException(errors);
@@ -69,40 +156,195 @@ public class BagitManifestValidation {
         }
     }
 
-    private String calculateSHA512(File file) throws IOException {
+    /**
+     * Get the statistics of the last validation
+     *
+     * @return number of files verified, bytes read and the time needed, or null if nothing was validated yet
+     */
+    public Throughput getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Calculate the checksum of a file
+     *
+     * @param file      file to hash
+     * @param cancelled stops reading the file when true
+     * @param bytesRead counter for the bytes read
+     * @return the checksum or null if cancelled
+     * @throws IOException
+     */
+    private static String calculateSHA512(File file, BooleanSupplier cancelled, AtomicLong bytesRead)
+            throws IOException {
         MessageDigest md;
         try {
             md = MessageDigest.getInstance("SHA-512");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("Unexpected error when creating sha512-hash");
         }
-        byte[] array = Files.readAllBytes(file.toPath());
-        byte[] digest = md.digest(array);
+        byte[] buffer = BUFFER.get();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                if (cancelled.getAsBoolean()) {
+                    return null;
+                }
+                md.update(buffer, 0, n);
+                bytesRead.addAndGet(n);
+            }
+        }
+        byte[] digest = md.digest();
         return DatatypeConverter.printHexBinary(digest).toLowerCase();
     }
 
-    private List<String> validateManifestFiles(String manifestName, boolean returnOnerror) throws IOException {
-        List<String> errors = new ArrayList<>();
+    /**
+     * Compare the checksums of all files listed in a manifest.
+     *
+     * The manifest is read on the calling thread, files are hashed on the pool. Before a file is handed to the pool
+     * its size is reserved from the byte budget of this validation, so reading the manifest blocks while the budget is
+     * exhausted. If `returnOnerror` is set the first mismatch cancels the validation: no more files are submitted and
+     * running workers stop reading. The same happens when `stop` is set. Errors are returned in the order of the
+     * manifest.
+     *
+     * @param manifestName  name of the manifest file
+     * @param returnOnerror stop at the first mismatch and return only the first error
+     * @param stop          cancellation token of the caller
+     * @return list of errors
+     * @throws IOException if the manifest or a file listed in it cannot be read
+     */
+    private List<String> validateManifestFiles(String manifestName, boolean returnOnerror, AtomicBoolean stop)
+            throws IOException {
         File manifestFile = new File(bagdir, manifestName);
+        Map<Integer, String> errors = new ConcurrentSkipListMap<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        BooleanSupplier isCancelled = () -> cancelled.get() || stop.get();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        Semaphore budget = new Semaphore(maxPermitsInFlight);
 
         try (BufferedReader br = new BufferedReader(new FileReader(manifestFile))) {
             String st;
-            while ((st = br.readLine()) != null) {
+            int lineNo = 0;
+            while ((st = br.readLine()) != null && !isCancelled.getAsBoolean()) {
                 String[] parts = st.split("\\s+");
                 String hashFromHashFile = parts[0];
                 String fileToCheckPath = parts[1];
-                File fileToCheck = new File(bagdir, fileToCheckPath);
-                String calculatedHash = calculateSHA512(fileToCheck);
-                if (!calculatedHash.equals(hashFromHashFile)) {
-                    errors.add(
-                        "Checksum of file '" + fileToCheckPath + "' in manifest '" + manifestName + "' does not match"
-                    );
-                    if (returnOnerror) {
-                        return errors;
-                    }
+                int index = lineNo++;
+                throughput.files.incrementAndGet();
+
+                String knownHash = digests.get(fileToCheckPath);
+                if (knownHash != null) {
+                    compare(index, manifestName, fileToCheckPath, hashFromHashFile, knownHash, errors, returnOnerror,
+                        cancelled);
+                    continue;
+                }
+
+                File file = new File(bagdir, fileToCheckPath);
+                int permits = toPermits(file.length(), maxPermitsInFlight);
+                budget.acquire(permits);
+                try {
+                    POOL.execute(() -> {
+                        try {
+                            if (isCancelled.getAsBoolean()) {
+                                return;
+                            }
+                            String calculatedHash = calculateSHA512(file, isCancelled, throughput.bytes);
+                            if (calculatedHash != null) {
+                                compare(index, manifestName, fileToCheckPath, hashFromHashFile, calculatedHash, errors,
+                                    returnOnerror, cancelled);
+                            }
+                        } catch (IOException e) {
+                            failure.compareAndSet(null, e);
+                            cancelled.set(true);
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, new IOException(e));
+                            cancelled.set(true);
+                        } finally {
+                            budget.release(permits);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    budget.release(permits);
+                    throw e;
                 }
             }
-            return errors;
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while validating manifest '" + manifestName + "'");
+        } finally {
+            // Every worker returns its permits when finished, so the full budget is available when all are done
+            budget.acquireUninterruptibly(maxPermitsInFlight);
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        List<String> res = new ArrayList<>(errors.values());
+        if (returnOnerror && res.size() > 1) {
+            return res.subList(0, 1);
+        }
+        return res;
+    }
+
+    private static void compare(
+        int index, String manifestName, String fileToCheckPath, String hashFromHashFile, String calculatedHash,
+        Map<Integer, String> errors, boolean returnOnerror, AtomicBoolean cancelled
+    ) {
+        if (!calculatedHash.equals(hashFromHashFile)) {
+            errors.put(
+                index, "Checksum of file '" + fileToCheckPath + "' in manifest '" + manifestName + "' does not match"
+            );
+            if (returnOnerror) {
+                cancelled.set(true);
+            }
+        }
+    }
+
+    /**
+     * Convert bytes to semaphore-permits, rounded up and capped to `max`
+     */
+    private static int toPermits(long bytes, int max) {
+        long permits = (bytes + PERMIT_SIZE - 1) / PERMIT_SIZE;
+        return (int)Math.max(1, Math.min(permits, max));
+    }
+
+    /**
+     * Statistics of a validation
+     */
+    public static class Throughput {
+
+        private final AtomicInteger files = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        private long nanos;
+
+        /** Number of files whose checksums were compared */
+        public int getFiles() {
+            return files.get();
+        }
+
+        /** Number of bytes read from disk for hashing */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getMillis() {
+            return nanos / 1_000_000;
+        }
+
+        public double getFilesPerSecond() {
+            return nanos > 0 ? files.get() * 1e9 / nanos : 0;
+        }
+
+        public double getMegabytesPerSecond() {
+            return nanos > 0 ? bytes.get() * 1e9 / nanos / (1024 * 1024) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%d files, %.1f MB read in %d ms (%.0f files/s, %.1f MB/s)", getFiles(),
+                getBytes() / (1024.0 * 1024), getMillis(), getFilesPerSecond(), getMegabytesPerSecond()
+            );
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+package ola.hd.longtermstorage.utils;
+
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SHA-512 checksums of the files of an extracted bag.
+ *
+ * The checksums are calculated while the files are extracted, so that the manifests can be validated without reading
+ * the files again. Keys are the paths relative to the bag root as they are written in the manifests.
+ */
+public class DigestTable {
+
+    private final Map<String, String> digests = new ConcurrentHashMap<>();
+
+    /**
+     * Save the checksum of a file
+     *
+     * @param path   path of the file relative to the bag root
+     * @param sha512 lower-case hex representation of the checksum
+     */
+    public void put(String path, String sha512) {
+        digests.put(normalize(path), sha512);
+    }
+
+    /**
+     * Get the checksum of a file
+     *
+     * @param path path of the file relative to the bag root
+     * @return lower-case hex representation of the checksum or null if unknown
+     */
+    public String get(String path) {
+        return digests.get(normalize(path));
+    }
+
+    public int size() {
+        return digests.size();
+    }
+
+    private static String normalize(String path) {
+        return Paths.get(path).normalize().toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,221 @@
+package ola.hd.longtermstorage.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.xml.bind.DatatypeConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of files in a local directory, limited to a total size. The least recently used files are deleted first.
+ *
+ * Every entry is one file named by the SHA-256 of its key. Entries are written to a temporary file and moved into
+ * place, so a reader never sees a partly written entry. The last access is saved as modification time of the file, so
+ * the order of use survives a restart.
+ */
+public class DiskLruCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskLruCache.class);
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Path dir;
+
+    private final long maxBytes;
+
+    /** Size of the entries by file name, least recently used first */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size;
+
+    /**
+     * @param dir      directory of the cache. Created if it does not exist, entries already in it are kept
+     * @param maxBytes maximum total size of the entries
+     * @throws IOException if the directory cannot be read
+     */
+    public DiskLruCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(dir)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        files.sort(Comparator.comparing(DiskLruCache::getLastModified));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(TMP_SUFFIX)) {
+                // Left over from an interrupted write
+                Files.deleteIfExists(file);
+            } else {
+                long length = Files.size(file);
+                entries.put(name, length);
+                size += length;
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Open an entry
+     *
+     * @param key key of the entry
+     * @return stream of the content, or null if the entry is not cached
+     * @throws IOException if the entry cannot be read
+     */
+    public synchronized InputStream get(String key) throws IOException {
+        String name = toFileName(key);
+        if (entries.get(name) == null) {
+            return null;
+        }
+        Path file = dir.resolve(name);
+        try {
+            InputStream res = Files.newInputStream(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return res;
+        } catch (NoSuchFileException e) {
+            size -= entries.remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Get an entry as a file which stays readable if the entry is evicted or replaced. It is a hard link to the entry,
+     * or a copy if the file system does not support links
+     *
+     * @param key key of the entry
+     * @return the file, to be deleted by the caller, or null if the entry is not cached
+     * @throws IOException if the file cannot be created
+     */
+    public synchronized Path snapshot(String key) throws IOException {
+        String name = toFileName(key);
+        if (entries.get(name) == null) {
+            return null;
+        }
+        Path file = dir.resolve(name);
+        Path res = dir.resolve(name + "-" + UUID.randomUUID() + TMP_SUFFIX);
+        try {
+            try {
+                Files.createLink(res, file);
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                Files.copy(file, res);
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return res;
+        } catch (NoSuchFileException e) {
+            size -= entries.remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Add or replace an entry. The stream is read to the end but not closed
+     *
+     * @param key key of the entry
+     * @param in  content of the entry
+     * @throws IOException if the entry cannot be written
+     */
+    public void put(String key, InputStream in) throws IOException {
+        String name = toFileName(key);
+        Path tmp = Files.createTempFile(dir, name, TMP_SUFFIX);
+        try {
+            long length = Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            synchronized (this) {
+                Files.move(tmp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE
+                );
+                Long old = entries.put(name, length);
+                size += length - (old != null ? old : 0);
+                trim();
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Add or replace an entry with the content of a file
+     */
+    public void put(String key, Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            put(key, in);
+        }
+    }
+
+    public synchronized void remove(String key) throws IOException {
+        String name = toFileName(key);
+        Long length = entries.remove(name);
+        if (length != null) {
+            size -= length;
+            Files.deleteIfExists(dir.resolve(name));
+        }
+    }
+
+    /**
+     * @param key key of the entry
+     * @return length of the entry in bytes, or -1 if it is not cached
+     */
+    public synchronized long length(String key) {
+        Long res = entries.get(toFileName(key));
+        return res != null ? res : -1;
+    }
+
+    /**
+     * @return total size of the entries in bytes
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Delete the least recently used entries till the cache is not bigger than allowed
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            try {
+                Files.deleteIfExists(dir.resolve(entry.getKey()));
+            } catch (IOException e) {
+                logger.warn("Deleting cached file '{}' failed", entry.getKey(), e);
+            }
+            size -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    private static FileTime getLastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static String toFileName(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return DatatypeConverter.printHexBinary(md.digest(key.getBytes(StandardCharsets.UTF_8))).toLowerCase();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Unexpected error when creating sha256-hash");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ola.hd.longtermstorage.utils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Difference between the payload manifests (manifest-sha512.txt) of two versions of an OCRD-ZIP.
+ *
+ * A file is unchanged if the new version contains it with the same path and the same checksum as the previous
+ * version. All other files of the new version are changed (added or modified).
+ */
+public class ManifestDelta {
+
+    private final Set<String> unchanged = new LinkedHashSet<>();
+
+    private final Set<String> changed = new LinkedHashSet<>();
+
+    /**
+     * @param previousManifest content of the manifest of the previous version
+     * @param currentManifest  content of the manifest of the new version
+     */
+    public ManifestDelta(String previousManifest, String currentManifest) {
+        Map<String, String> previous = parse(previousManifest);
+        for (Map.Entry<String, String> entry : parse(currentManifest).entrySet()) {
+            if (entry.getValue().equals(previous.get(entry.getKey()))) {
+                unchanged.add(entry.getKey());
+            } else {
+                changed.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Read a manifest into a map from path to checksum
+     *
+     * @param manifest content of a manifest file
+     * @return checksums by path in the order of the manifest
+     */
+    public static Map<String, String> parse(String manifest) {
+        Map<String, String> res = new LinkedHashMap<>();
+        for (String line : manifest.split("\\r?\\n")) {
+            String[] parts = line.trim().split("\\s+", 2);
+            if (parts.length == 2) {
+                res.put(parts[1], parts[0].toLowerCase());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Paths of the files which are equal in both versions
+     */
+    public Set<String> getUnchanged() {
+        return Collections.unmodifiableSet(unchanged);
+    }
+
+    /**
+     * Paths of the files which were added or modified in the new version
+     */
+    public Set<String> getChanged() {
+        return Collections.unmodifiableSet(changed);
+    }
+}
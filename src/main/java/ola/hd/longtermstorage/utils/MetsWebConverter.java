@@ -1,23 +1,28 @@
 package ola.hd.longtermstorage.utils;
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.imageio.ImageIO;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import ola.hd.longtermstorage.controller.ExportController;
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
+import ola.hd.longtermstorage.utils.PrettyXmlWriter.Attribute;
 import org.springframework.hateoas.server.mvc.WebMvcLinkBuilder;
 
 /**
@@ -38,12 +43,19 @@ import org.springframework.hateoas.server.mvc.WebMvcLinkBuilder;
  */
 public class MetsWebConverter {
 
+    /** Version of the conversion. Must be increased when the output changes, it is part of cache keys and ETags */
+    public static final int VERSION = 1;
+
     /** Path to where the files are available */
     private static final String PREFIX_IMAGE_EXPORT;
     private static final String PREFIX_TIFF_TO_JPEG;
 
-    private static final Namespace NS_METS = Namespace.getNamespace("http://www.loc.gov/METS/");
-    private static final Namespace NS_XLINK = Namespace.getNamespace("http://www.w3.org/1999/xlink");
+    private static final String NS_METS = "http://www.loc.gov/METS/";
+    private static final String NS_XLINK = "http://www.w3.org/1999/xlink";
+
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
 
     /** Pattern to get the value of query-param "path" from a link in a METS file */
     private static final Pattern METS_LINK_PATH_PATTERN = Pattern.compile("[\\?&]path=([^&#]*)");
@@ -70,117 +82,304 @@ public class MetsWebConverter {
     private MetsWebConverter() {
     }
 
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory res = XMLInputFactory.newInstance();
+        res.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        res.setProperty(XMLInputFactory.IS_COALESCING, false);
+        res.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        res.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        // The parser of the JDK reports CDATA as normal text by default
+        if (res.isPropertySupported(REPORT_CDATA)) {
+            res.setProperty(REPORT_CDATA, true);
+        }
+        return res;
+    }
+
     /**
      * Change file refs of file in mets from FILE to URL to make the files web-accessible
      *
+     * The input is copied to a temporary file first, see {@linkplain #convertMets(String, String, Path, OutputStream)}
      *
      * @param pid - PID belonging to the Ocrd-zip of the Metsfile
      * @param ins - InputStream containing the original Metsfile
      * @param outs - Where to write the converted Metsfile to
      * @throws IOException
-     * @throws JDOMException
-     * @throws Exception
+     * @throws XMLStreamException if the Metsfile is not well-formed
      */
-    public static void convertMets(String pid, String host, InputStream ins, OutputStream outs) throws JDOMException, IOException {
-        SAXBuilder sax = new SAXBuilder();
-        Document doc = sax.build(ins);
-        Element rootNode = doc.getRootElement();
-
-        Namespace nsMets = Namespace.getNamespace("http://www.loc.gov/METS/");
-        List<Element> listFileSec = rootNode.getChildren("fileSec", nsMets);
-        List<Element> listFileGrp = listFileSec.get(0).getChildren("fileGrp", nsMets);
-
-        replaceFileWithUrl(listFileGrp, host, pid);
-        addDefaultGroup(listFileGrp);
-        changeTiffLinks(listFileGrp, host, pid);
-
-        XMLOutputter xmlOutput = new XMLOutputter();
-        Format format = Format.getPrettyFormat();
-        format.setIndent("   ");
-        xmlOutput.setFormat(format);
-        xmlOutput.output(doc, outs);
+    public static void convertMets(String pid, String host, InputStream ins, OutputStream outs)
+            throws IOException, XMLStreamException {
+        Path tmp = Files.createTempFile("mets", ".xml");
+        try {
+            Files.copy(ins, tmp, StandardCopyOption.REPLACE_EXISTING);
+            convertMets(pid, host, tmp, outs);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
     }
 
     /**
-     * Change all links in DEFAULT file-group to use tiff-jpeg convert endpoint
+     * Change file refs of file in mets from FILE to URL to make the files web-accessible
      *
-     * @param listFileGrp
+     * The Metsfile is streamed, so its size does not matter. It is read twice: first only the names of the
+     * file-groups are collected, because renaming the image group to DEFAULT depends on all of them. Then it is
+     * rewritten in one pass.
+     *
+     * @param pid - PID belonging to the Ocrd-zip of the Metsfile
+     * @param mets - the original Metsfile
+     * @param outs - Where to write the converted Metsfile to
+     * @throws IOException
+     * @throws XMLStreamException if the Metsfile is not well-formed
      */
-    private static void changeTiffLinks(List<Element> listFileGrp, String host, String pid) {
-        for (Element e : listFileGrp) {
-            if ("DEFAULT".equals(e.getAttributeValue("USE"))) {
-                for (Element e2 : e.getChildren("file", NS_METS)) {
-                    for (Element e3 : e2.getChildren("FLocat", NS_METS)) {
-                        String lt = e3.getAttributeValue("LOCTYPE");
-                        if ("URL".equals(lt)) {
-                            String link = e3.getAttributeValue("href", NS_XLINK);
-                            Matcher matcher = METS_LINK_PATH_PATTERN.matcher(link);
-                            if (matcher.find()){
-                                String path = matcher.group(1);
-                                if (path.endsWith(".tif") || path.endsWith(".tiff")) {
-                                    e3.setAttribute(
-                                        "href", String.format(PREFIX_TIFF_TO_JPEG, host, pid, path),NS_XLINK
-                                    );
-                                }
-                            }
-                        }
-                    }
-                }
-                // only default file-grp should be adapted
-                break;
-            }
+    public static void convertMets(String pid, String host, Path mets, OutputStream outs)
+            throws IOException, XMLStreamException {
+        List<String> fileGrps;
+        try (InputStream in = Files.newInputStream(mets)) {
+            fileGrps = readFileGroups(in);
         }
+        boolean renameImg = !fileGrps.contains("DEFAULT") && fileGrps.contains("OCR-D-IMG");
 
+        try (InputStream in = Files.newInputStream(mets)) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(outs, StandardCharsets.UTF_8));
+                new Rewriter(pid, host, renameImg, reader, new PrettyXmlWriter(writer)).run();
+            } finally {
+                reader.close();
+            }
+        }
     }
 
     /**
-     * If DEFAULT file-group is missing rename the image file-group to default
-     *
-     * Change group-name of image group to DEFAULT so that DFG-Viewer can display the images
-     *
-     * @param listFileGrp
+     * Read the USE of the file-groups of the first fileSec
      */
-    private static void addDefaultGroup(List<Element> listFileGrp) {
-        List<String> fileGrpStr = readFileGroups(listFileGrp);
-
-        if (!fileGrpStr.contains("DEFAULT")) {
-            if (fileGrpStr.contains("OCR-D-IMG")) {
-                for (Element e : listFileGrp) {
-                    if (e.getAttributeValue("USE").equals("OCR-D-IMG")) {
-                        e.setAttribute("USE", "DEFAULT");
+    private static List<String> readFileGroups(InputStream in) throws XMLStreamException {
+        List<String> res = new ArrayList<>();
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            int depth = 0;
+            boolean inFileSec = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == 2 && isMets(reader, "fileSec")) {
+                        inFileSec = true;
+                    } else if (depth == 3 && inFileSec && isMets(reader, "fileGrp")) {
+                        res.add(reader.getAttributeValue(null, "USE"));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    if (depth == 1 && inFileSec) {
+                        break;
                     }
                 }
             }
+        } finally {
+            reader.close();
         }
+        return res;
     }
 
-    private static List<String> readFileGroups(List<Element> listFileGrp) {
-        List<String> res = new ArrayList<>(listFileGrp.size());
-        for (Element e : listFileGrp) {
-            res.add(e.getAttributeValue("USE"));
-        }
-        return res;
+    private static boolean isMets(XMLStreamReader reader, String localName) {
+        return localName.equals(reader.getLocalName()) && NS_METS.equals(reader.getNamespaceURI());
+    }
+
+    private static String emptyIfNull(String s) {
+        return s != null ? s : "";
     }
 
     /**
-     * Replace FILE-links with URL-links
+     * Copies the Metsfile event by event and changes the links of the FLocats in the first fileSec:
      *
+     * - FILE-links are replaced with URL-links
+     * - if the DEFAULT file-group is missing, the image file-group is renamed to DEFAULT so that DFG-Viewer can
+     *   display the images
+     * - links to tiffs in the DEFAULT file-group use the tiff-jpeg convert endpoint
      */
-    private static void replaceFileWithUrl(List<Element> listFileGrp, String host, String pid) {
-        for (Element e : listFileGrp) {
-            for (Element e2 : e.getChildren("file", NS_METS)) {
-                for (Element e3 : e2.getChildren("FLocat", NS_METS)) {
-                    String otherLt = e3.getAttributeValue("OTHERLOCTYPE");
-                    if (otherLt != null && otherLt.equals("FILE")) {
-                        String path = e3.getAttributeValue("href", NS_XLINK);
-                        if (!path.startsWith("http") && !path.startsWith("/")) {
-                            e3.setAttribute("href", String.format(PREFIX_IMAGE_EXPORT, host, pid, path), NS_XLINK);
-                            e3.setAttribute("LOCTYPE", "URL");
-                            e3.removeAttribute("OTHERLOCTYPE");
-                        }
+    private static class Rewriter {
+
+        private final String pid;
+
+        private final String host;
+
+        private final boolean renameImg;
+
+        private final XMLStreamReader reader;
+
+        private final PrettyXmlWriter writer;
+
+        /** Depth of the current element, the root has 1 */
+        private int depth;
+
+        /** If the first fileSec is read at the moment */
+        private boolean inFileSec;
+
+        private boolean fileSecDone;
+
+        /** If the current file-group is the (first) DEFAULT group */
+        private boolean inDefault;
+
+        private boolean defaultDone;
+
+        /** Depth of the current file-group, file and FLocat, 0 if not inside */
+        private int fileGrpDepth;
+
+        private int fileDepth;
+
+        private Rewriter(String pid, String host, boolean renameImg, XMLStreamReader reader, PrettyXmlWriter writer) {
+            this.pid = pid;
+            this.host = host;
+            this.renameImg = renameImg;
+            this.reader = reader;
+            this.writer = writer;
+        }
+
+        private void run() throws XMLStreamException, IOException {
+            writer.startDocument();
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        startElement();
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        endElement();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        writer.text(reader.getText());
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        writer.cdata(reader.getText());
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        writer.comment(reader.getText());
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        writer.processingInstruction(reader.getPITarget(), reader.getPIData());
+                        break;
+                    case XMLStreamConstants.DTD:
+                        writer.dtd(reader.getText());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            writer.endDocument();
+        }
+
+        private void startElement() throws IOException {
+            depth++;
+            List<String[]> namespaces = new ArrayList<>();
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                namespaces.add(new String[] {
+                    emptyIfNull(reader.getNamespacePrefix(i)), emptyIfNull(reader.getNamespaceURI(i))
+                });
+            }
+            List<Attribute> attributes = new ArrayList<>();
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                attributes.add(new Attribute(
+                    emptyIfNull(reader.getAttributePrefix(i)), emptyIfNull(reader.getAttributeNamespace(i)),
+                    reader.getAttributeLocalName(i), reader.getAttributeValue(i)
+                ));
+            }
+
+            if (depth == 2 && !fileSecDone && isMets(reader, "fileSec")) {
+                inFileSec = true;
+            } else if (depth == 3 && inFileSec && isMets(reader, "fileGrp")) {
+                fileGrpDepth = depth;
+                changeFileGrp(attributes);
+            } else if (depth == 4 && fileGrpDepth != 0 && isMets(reader, "file")) {
+                fileDepth = depth;
+            } else if (depth == 5 && fileDepth != 0 && isMets(reader, "FLocat")) {
+                replaceFileWithUrl(attributes);
+                if (inDefault) {
+                    changeTiffLink(attributes);
+                }
+            }
+
+            writer.startElement(
+                emptyIfNull(reader.getPrefix()), reader.getLocalName(), emptyIfNull(reader.getNamespaceURI()),
+                namespaces, attributes
+            );
+        }
+
+        private void endElement() throws IOException {
+            if (depth == fileDepth) {
+                fileDepth = 0;
+            } else if (depth == fileGrpDepth) {
+                fileGrpDepth = 0;
+                inDefault = false;
+            } else if (depth == 2 && inFileSec) {
+                inFileSec = false;
+                fileSecDone = true;
+            }
+            depth--;
+            writer.endElement();
+        }
+
+        /**
+         * Rename the image file-group if needed and note if this is the DEFAULT file-group
+         */
+        private void changeFileGrp(List<Attribute> attributes) {
+            Attribute use = getAttribute(attributes, "", "USE");
+            if (use == null) {
+                return;
+            }
+            if (renameImg && "OCR-D-IMG".equals(use.value)) {
+                use.value = "DEFAULT";
+            }
+            if (!defaultDone && "DEFAULT".equals(use.value)) {
+                // only default file-grp should be adapted
+                inDefault = true;
+                defaultDone = true;
+            }
+        }
+
+        /**
+         * Replace FILE-link with URL-link
+         */
+        private void replaceFileWithUrl(List<Attribute> attributes) {
+            Attribute otherLt = getAttribute(attributes, "", "OTHERLOCTYPE");
+            Attribute href = getAttribute(attributes, NS_XLINK, "href");
+            if (otherLt != null && otherLt.value.equals("FILE") && href != null) {
+                String path = href.value;
+                if (!path.startsWith("http") && !path.startsWith("/")) {
+                    href.value = String.format(PREFIX_IMAGE_EXPORT, host, pid, path);
+                    Attribute lt = getAttribute(attributes, "", "LOCTYPE");
+                    if (lt != null) {
+                        lt.value = "URL";
+                    } else {
+                        attributes.add(new Attribute("", "", "LOCTYPE", "URL"));
                     }
+                    attributes.remove(otherLt);
+                }
+            }
+        }
+
+        /**
+         * Change link to a tiff to use tiff-jpeg convert endpoint
+         */
+        private void changeTiffLink(List<Attribute> attributes) {
+            Attribute lt = getAttribute(attributes, "", "LOCTYPE");
+            Attribute href = getAttribute(attributes, NS_XLINK, "href");
+            if (lt != null && "URL".equals(lt.value) && href != null) {
+                Matcher matcher = METS_LINK_PATH_PATTERN.matcher(href.value);
+                if (matcher.find()) {
+                    String path = matcher.group(1);
+                    if (path.endsWith(".tif") || path.endsWith(".tiff")) {
+                        href.value = String.format(PREFIX_TIFF_TO_JPEG, host, pid, path);
+                    }
+                }
+            }
+        }
+
+        private static Attribute getAttribute(List<Attribute> attributes, String namespace, String localName) {
+            for (Attribute attribute : attributes) {
+                if (attribute.namespace.equals(namespace) && attribute.localName.equals(localName)) {
+                    return attribute;
                 }
             }
+            return null;
         }
     }
 
@@ -0,0 +1,434 @@
+package ola.hd.longtermstorage.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes XML from parser events, formatted like the pretty format of JDOM's XMLOutputter with an indent of three
+ * spaces.
+ *
+ * Only the text between two tags is buffered, so documents of any size are written with constant memory. Text is
+ * trimmed as JDOM does it: whitespace-only text between elements is replaced by line break and indent, other text is
+ * trimmed at its ends. Elements with `xml:space="preserve"` are written unchanged.
+ */
+class PrettyXmlWriter {
+
+    private static final String EOL = "\r\n";
+
+    private static final String INDENT = "   ";
+
+    private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+
+    private final Writer out;
+
+    /** Open elements, the document is the first frame */
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    PrettyXmlWriter(Writer out) {
+        this.out = out;
+    }
+
+    void startDocument() throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        out.write(EOL);
+        Map<String, String> scope = new HashMap<>();
+        scope.put("", "");
+        scope.put("xml", XML_NS);
+        Frame doc = new Frame(null, -1, false, scope);
+        doc.started = true;
+        frames.push(doc);
+    }
+
+    void endDocument() throws IOException {
+        Frame doc = frames.pop();
+        if (doc.count > 0) {
+            out.write(EOL);
+        }
+        out.flush();
+    }
+
+    /**
+     * @param prefix     prefix of the element, empty if none
+     * @param localName  local name of the element
+     * @param namespace  namespace of the element, empty if none
+     * @param namespaces namespaces declared by the element, as prefix and URI
+     * @param attributes attributes in order of the source
+     */
+    void startElement(String prefix, String localName, String namespace, List<String[]> namespaces,
+            List<Attribute> attributes) throws IOException {
+        Frame parent = frames.peek();
+        beforeItem(parent);
+
+        String qname = prefix.isEmpty() ? localName : prefix + ":" + localName;
+        out.write("<");
+        out.write(qname);
+
+        Map<String, String> scope = parent.scope;
+        List<String[]> declare = new ArrayList<>();
+        declare.add(new String[] {prefix, namespace});
+        declare.addAll(namespaces);
+        for (Attribute attribute : attributes) {
+            if (!attribute.namespace.isEmpty()) {
+                declare.add(new String[] {attribute.prefix, attribute.namespace});
+            }
+        }
+        List<String[]> added = new ArrayList<>();
+        for (String[] ns : declare) {
+            if (!ns[1].equals(scope.get(ns[0]))) {
+                if (scope == parent.scope) {
+                    scope = new HashMap<>(parent.scope);
+                }
+                scope.put(ns[0], ns[1]);
+                added.add(ns);
+            }
+        }
+        // The namespace of the element first, the others by prefix
+        int sortFrom = !added.isEmpty() && added.get(0) == declare.get(0) ? 1 : 0;
+        added.subList(sortFrom, added.size()).sort(Comparator.comparing(ns -> ns[0]));
+        for (String[] ns : added) {
+            out.write(ns[0].isEmpty() ? " xmlns" : " xmlns:" + ns[0]);
+            out.write("=\"");
+            out.write(escapeAttribute(ns[1]));
+            out.write("\"");
+        }
+
+        boolean preserve = parent.preserve;
+        for (Attribute attribute : attributes) {
+            out.write(" ");
+            out.write(attribute.prefix.isEmpty() ? attribute.localName : attribute.prefix + ":" + attribute.localName);
+            out.write("=\"");
+            out.write(escapeAttribute(attribute.value));
+            out.write("\"");
+            if (XML_NS.equals(attribute.namespace) && "space".equals(attribute.localName)) {
+                if ("preserve".equals(attribute.value)) {
+                    preserve = true;
+                } else if ("default".equals(attribute.value)) {
+                    preserve = false;
+                }
+            }
+        }
+        frames.push(new Frame(qname, parent.depth + 1, preserve, scope));
+    }
+
+    void endElement() throws IOException {
+        Frame frame = frames.pop();
+        if (frame.preserve) {
+            out.write(frame.started ? "</" + frame.qname + ">" : " />");
+            return;
+        }
+        if (!frame.started) {
+            String text = frame.run.isEmpty() ? null : trimRun(frame, true, false);
+            if (text == null) {
+                out.write(" />");
+            } else {
+                out.write(">");
+                out.write(text);
+                out.write("</" + frame.qname + ">");
+            }
+            return;
+        }
+        if (!frame.run.isEmpty()) {
+            String text = trimRun(frame, false, false);
+            if (text != null) {
+                out.write(text);
+            }
+        }
+        out.write(EOL);
+        out.write(INDENT.repeat(frame.depth));
+        out.write("</" + frame.qname + ">");
+    }
+
+    void text(String text) throws IOException {
+        Frame frame = frames.peek();
+        if (frame.qname == null) {
+            // Whitespace outside of the root element
+            return;
+        }
+        if (frame.preserve) {
+            startContent(frame);
+            out.write(escapeText(text));
+            return;
+        }
+        TextNode last = frame.run.isEmpty() ? null : frame.run.get(frame.run.size() - 1);
+        if (last != null && !last.cdata) {
+            last.text.append(text);
+        } else {
+            frame.run.add(new TextNode(text, false));
+        }
+    }
+
+    void cdata(String text) throws IOException {
+        Frame frame = frames.peek();
+        if (frame.qname == null) {
+            return;
+        }
+        if (frame.preserve) {
+            startContent(frame);
+            out.write("<![CDATA[" + text + "]]>");
+            return;
+        }
+        frame.run.add(new TextNode(text, true));
+    }
+
+    void comment(String text) throws IOException {
+        beforeItem(frames.peek());
+        out.write("<!--" + text + "-->");
+    }
+
+    void processingInstruction(String target, String data) throws IOException {
+        beforeItem(frames.peek());
+        if (data == null || data.isEmpty()) {
+            out.write("<?" + target + "?>");
+        } else {
+            out.write("<?" + target + " " + data + "?>");
+        }
+    }
+
+    /**
+     * Write the document type declaration as read
+     */
+    void dtd(String text) throws IOException {
+        beforeItem(frames.peek());
+        out.write(text);
+    }
+
+    /**
+     * Write what is needed in front of an element, comment or processing instruction in the current element
+     */
+    private void beforeItem(Frame frame) throws IOException {
+        if (frame.preserve) {
+            startContent(frame);
+            return;
+        }
+        if (!frame.started) {
+            frame.started = true;
+            out.write(">");
+            out.write(frame.newlineIndent());
+        }
+        if (!frame.run.isEmpty()) {
+            boolean first = frame.count == 0;
+            String text = trimRun(frame, first, true);
+            if (text != null) {
+                out.write(text);
+            } else if (!first) {
+                out.write(frame.newlineIndent());
+            }
+            frame.count++;
+        } else if (frame.count > 0) {
+            out.write(frame.newlineIndent());
+        }
+        frame.count++;
+    }
+
+    private void startContent(Frame frame) throws IOException {
+        if (!frame.started) {
+            frame.started = true;
+            out.write(">");
+        }
+    }
+
+    /**
+     * Format the buffered text of an element and clear the buffer
+     *
+     * @param first  if the text is the first content of the element
+     * @param more   if more content follows the text
+     * @return the text, or null if it is whitespace only
+     */
+    private static String trimRun(Frame frame, boolean first, boolean more) {
+        List<TextNode> run = frame.run;
+        int from = 0;
+        int to = run.size();
+        while (from < to && isWhitespace(run.get(from).text)) {
+            from++;
+        }
+        while (to > from && isWhitespace(run.get(to - 1).text)) {
+            to--;
+        }
+        StringBuilder res = null;
+        if (from < to) {
+            res = new StringBuilder();
+            if (!first) {
+                res.append(frame.newlineIndent());
+            }
+            for (int i = from; i < to; i++) {
+                TextNode node = run.get(i);
+                String text = node.text.toString();
+                if (i == from) {
+                    text = trimLeft(text);
+                }
+                if (i == to - 1) {
+                    text = trimRight(text);
+                }
+                if (node.cdata) {
+                    res.append("<![CDATA[").append(text).append("]]>");
+                } else {
+                    res.append(escapeText(text));
+                }
+            }
+            if (more) {
+                res.append(frame.newlineIndent());
+            }
+        }
+        run.clear();
+        return res != null ? res.toString() : null;
+    }
+
+    private static boolean isWhitespace(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static String trimLeft(String text) {
+        int i = 0;
+        while (i < text.length() && isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return text.substring(i);
+    }
+
+    private static String trimRight(String text) {
+        int i = text.length();
+        while (i > 0 && isWhitespace(text.charAt(i - 1))) {
+            i--;
+        }
+        return text.substring(0, i);
+    }
+
+    static String escapeText(String text) {
+        return escape(text, false);
+    }
+
+    static String escapeAttribute(String text) {
+        return escape(text, true);
+    }
+
+    private static String escape(String text, boolean attribute) {
+        StringBuilder res = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '\r':
+                    replacement = "&#xD;";
+                    break;
+                case '"':
+                    replacement = attribute ? "&quot;" : null;
+                    break;
+                case '\t':
+                    replacement = attribute ? "&#x9;" : null;
+                    break;
+                case '\n':
+                    replacement = attribute ? "&#xA;" : EOL;
+                    break;
+                default:
+                    replacement = null;
+            }
+            if (replacement == null && Character.isHighSurrogate(c) && i + 1 < text.length()) {
+                replacement = "&#x" + Integer.toHexString(Character.toCodePoint(c, text.charAt(i + 1))) + ";";
+            }
+            if (replacement != null) {
+                if (res == null) {
+                    res = new StringBuilder(text.length() + 16);
+                    res.append(text, 0, i);
+                }
+                res.append(replacement);
+                if (Character.isHighSurrogate(c)) {
+                    i++;
+                }
+            } else if (res != null) {
+                res.append(c);
+            }
+        }
+        return res != null ? res.toString() : text;
+    }
+
+    /**
+     * An attribute of an element. The value may be changed before the element is written
+     */
+    static class Attribute {
+
+        final String prefix;
+
+        final String namespace;
+
+        final String localName;
+
+        String value;
+
+        Attribute(String prefix, String namespace, String localName, String value) {
+            this.prefix = prefix;
+            this.namespace = namespace;
+            this.localName = localName;
+            this.value = value;
+        }
+    }
+
+    private static class Frame {
+
+        /** Name of the element, null for the document */
+        private final String qname;
+
+        private final int depth;
+
+        private final boolean preserve;
+
+        /** Namespaces in scope by prefix */
+        private final Map<String, String> scope;
+
+        /** If the start tag is closed */
+        private boolean started;
+
+        /** Number of items written to the content */
+        private int count;
+
+        /** Text and CDATA read since the last item */
+        private final List<TextNode> run = new ArrayList<>();
+
+        private Frame(String qname, int depth, boolean preserve, Map<String, String> scope) {
+            this.qname = qname;
+            this.depth = depth;
+            this.preserve = preserve;
+            this.scope = scope;
+        }
+
+        private String newlineIndent() {
+            return EOL + INDENT.repeat(depth + 1);
+        }
+    }
+
+    private static class TextNode {
+
+        private final StringBuilder text;
+
+        private final boolean cdata;
+
+        private TextNode(String text, boolean cdata) {
+            this.text = new StringBuilder(text);
+            this.cdata = cdata;
+        }
+    }
+}
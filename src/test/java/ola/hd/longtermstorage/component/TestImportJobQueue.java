@@ -0,0 +1,63 @@
+package ola.hd.longtermstorage.component;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import ola.hd.longtermstorage.domain.ImportJob;
+import ola.hd.longtermstorage.repository.mongo.ImportJobRepository;
+import ola.hd.longtermstorage.repository.mongo.TrackingRepository;
+import ola.hd.longtermstorage.service.PidService;
+import org.junit.Test;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class TestImportJobQueue {
+
+    @Test
+    public void renewLeaseWhileSchedulerIsBlocked() throws Exception {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        ImportJobQueue queue = new ImportJobQueue(
+            mongoTemplate, mock(ImportJobRepository.class), mock(TrackingRepository.class), mock(PidService.class),
+            mock(ExecutorWrapper.class), mock(AutowireCapableBeanFactory.class)
+        );
+        ReflectionTestUtils.setField(queue, "leaseSeconds", 3);
+        ReflectionTestUtils.setField(queue, "leaseRenewSeconds", 1);
+        @SuppressWarnings("unchecked")
+        Set<String> runningJobs = (Set<String>)ReflectionTestUtils.getField(queue, "runningJobs");
+        runningJobs.add("job-1");
+
+        // Like Spring's default scheduler: one thread, blocked by another task (e.g. the PID pool)
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.initialize();
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.execute(() -> {
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        scheduler.scheduleWithFixedDelay(queue::poll, 100);
+
+        queue.afterPropertiesSet();
+        try {
+            verify(mongoTemplate, timeout(5000).atLeast(2))
+                .updateMulti(any(Query.class), any(Update.class), eq(ImportJob.class));
+        } finally {
+            release.countDown();
+            queue.destroy();
+            scheduler.shutdown();
+        }
+    }
+}
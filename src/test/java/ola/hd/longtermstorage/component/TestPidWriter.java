@@ -0,0 +1,111 @@
+package ola.hd.longtermstorage.component;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import ola.hd.longtermstorage.service.PidService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class TestPidWriter {
+
+    private PidService pidService;
+
+    private PidWriter pidWriter;
+
+    @Before
+    public void setUp() {
+        pidService = mock(PidService.class);
+        pidWriter = new PidWriter(pidService);
+        ReflectionTestUtils.setField(pidWriter, "lingerMs", 1000L);
+        ReflectionTestUtils.setField(pidWriter, "threads", 2);
+        pidWriter.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        pidWriter.destroy();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void mergeConcurrentAppends() throws Exception {
+        // Arrange
+        int count = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<CompletableFuture<Void>>> appends = new ArrayList<>();
+
+        // Act: append to the same PID from several threads at once
+        try {
+            for (int i = 0; i < count; i++) {
+                List<AbstractMap.SimpleImmutableEntry<String, String>> data = List.of(
+                    new AbstractMap.SimpleImmutableEntry<>("NEXT-VERSION", "pid-" + i)
+                );
+                appends.add(executor.submit(() -> {
+                    start.await();
+                    return pidWriter.append("pid-0", data);
+                }));
+            }
+            start.countDown();
+            for (Future<CompletableFuture<Void>> append : appends) {
+                append.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Assert: one write containing the entries of all appends
+        ArgumentCaptor<List<AbstractMap.SimpleImmutableEntry<String, String>>> captor = ArgumentCaptor.forClass(
+            List.class
+        );
+        verify(pidService, times(1)).appendData(eq("pid-0"), captor.capture());
+        Set<String> values = new HashSet<>();
+        captor.getValue().forEach(entry -> values.add(entry.getValue()));
+        assertEquals(count, captor.getValue().size());
+        assertEquals(count, values.size());
+    }
+
+    @Test
+    public void failAllFuturesOfFailedWrite() throws Exception {
+        // Arrange
+        IOException error = new IOException("PID service not available");
+        doThrow(error).when(pidService).appendData(eq("pid-0"), anyList());
+
+        // Act
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(pidWriter.append("pid-0", List.of(new AbstractMap.SimpleImmutableEntry<>("KEY", "v" + i))));
+        }
+
+        // Assert: every waiting append gets the error
+        for (CompletableFuture<Void> future : futures) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertSame(error, e.getCause());
+        }
+        verify(pidService, times(1)).appendData(eq("pid-0"), anyList());
+    }
+}
@@ -0,0 +1,69 @@
+package ola.hd.longtermstorage.controller.importarchive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+public class TestBagFingerprint {
+
+    private static final String MANIFEST = "abc  data/mets.xml\n";
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("olahd-test");
+    }
+
+    @After
+    public void tearDown() {
+        FileSystemUtils.deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void readFromZip() throws IOException {
+        Path zip = createZip("Ocrd-Identifier: id-123\nPayload-Oxum: 1.1\n");
+
+        BagFingerprint fingerprint = BagFingerprint.fromZip(zip, tempDir);
+
+        assertNotNull(fingerprint);
+        assertEquals("id-123", fingerprint.getOcrdIdentifier());
+        assertEquals(DigestUtils.sha512Hex(MANIFEST), fingerprint.getPayloadManifestChecksum());
+        try (var files = Files.list(tempDir)) {
+            assertEquals(1, files.count(), "bag-info.txt should be removed again");
+        }
+    }
+
+    @Test
+    public void missingOcrdIdentifier() throws IOException {
+        Path zip = createZip("Payload-Oxum: 1.1\n");
+
+        assertNull(BagFingerprint.fromZip(zip, tempDir));
+    }
+
+    private Path createZip(String bagInfo) throws IOException {
+        Path zip = tempDir.resolve("bag.zip");
+        try (OutputStream out = Files.newOutputStream(zip); ZipOutputStream zos = new ZipOutputStream(out)) {
+            zos.putNextEntry(new ZipEntry("bag-info.txt"));
+            zos.write(bagInfo.getBytes(StandardCharsets.UTF_8));
+            zos.putNextEntry(new ZipEntry("manifest-sha512.txt"));
+            zos.write(MANIFEST.getBytes(StandardCharsets.UTF_8));
+            zos.putNextEntry(new ZipEntry("data/mets.xml"));
+            zos.write("<mets/>".getBytes(StandardCharsets.UTF_8));
+        }
+        return zip;
+    }
+}
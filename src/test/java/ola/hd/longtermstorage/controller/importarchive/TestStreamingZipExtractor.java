@@ -0,0 +1,272 @@
+package ola.hd.longtermstorage.controller.importarchive;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import ola.hd.longtermstorage.domain.TrackingInfo;
+import ola.hd.longtermstorage.domain.TrackingStatus;
+import ola.hd.longtermstorage.repository.mongo.TrackingRepository;
+import ola.hd.longtermstorage.utils.DigestTable;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.client.HttpClientErrorException;
+
+public class TestStreamingZipExtractor {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("olahd-test");
+    }
+
+    @After
+    public void tearDown() {
+        FileSystemUtils.deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void extractWhileStreaming() throws Exception {
+        // Arrange
+        byte[] zip = createZip("bagit.txt", "data/mets.xml");
+        Path destination = tempDir.resolve("extracted");
+        Path spool = tempDir.resolve("upload.zip");
+        DigestTable digests = new DigestTable();
+
+        // Act
+        StreamingZipExtractor.Result result = new StreamingZipExtractor(destination, digests)
+            .extract(new ByteArrayInputStream(zip), spool);
+
+        // Assert
+        assertEquals(StreamingZipExtractor.Result.STREAMED, result);
+        assertEquals(2, digests.size());
+        assertEquals(sha512("data/mets.xml"), digests.get("data/mets.xml"));
+        assertFalse(Files.exists(spool), "ZIP should not be written to disk");
+        assertEquals("data/mets.xml", Files.readString(destination.resolve("data/mets.xml")));
+        assertEquals("bagit.txt", Files.readString(destination.resolve("bagit.txt")));
+    }
+
+    @Test
+    public void spoolUnstreamableZip() throws Exception {
+        // Arrange: mark first entry as encrypted so that it cannot be read from the stream
+        byte[] zip = createZip("bagit.txt");
+        zip[6] |= 0x1;
+        Path destination = tempDir.resolve("extracted");
+        Path spool = tempDir.resolve("upload.zip");
+
+        // Act
+        StreamingZipExtractor.Result result = new StreamingZipExtractor(destination, new DigestTable())
+            .extract(new ByteArrayInputStream(zip), spool);
+
+        // Assert
+        assertEquals(StreamingZipExtractor.Result.SPOOLED, result);
+        assertArrayEquals(zip, Files.readAllBytes(spool));
+        assertFalse(Files.exists(destination));
+    }
+
+    @Test
+    public void extractSpooledZip() throws Exception {
+        // Arrange
+        Path spool = tempDir.resolve("upload.zip");
+        Files.write(spool, createZip("bagit.txt", "data/mets.xml"));
+        Path destination = tempDir.resolve("extracted");
+        DigestTable digests = new DigestTable();
+
+        // Act
+        new StreamingZipExtractor(destination, digests).extract(spool);
+
+        // Assert
+        assertEquals("data/mets.xml", Files.readString(destination.resolve("data/mets.xml")));
+        assertEquals(sha512("bagit.txt"), digests.get("bagit.txt"));
+    }
+
+    @Test
+    public void spoolRestAfterUnstreamableEntry() throws Exception {
+        // Arrange: the first entry is bigger than the kept tail of the stream, the later ones have data descriptors
+        String big = "bagit.txt\n".repeat(20000);
+        byte[] zip = createStoredZip(new String[] {"bagit.txt", big}, new String[] {"data/mets.xml", null},
+            new String[] {"data/image.txt", null});
+        Path destination = tempDir.resolve("extracted");
+        Path spool = tempDir.resolve("upload.zip");
+        DigestTable digests = new DigestTable();
+        StreamingZipExtractor extractor = new StreamingZipExtractor(destination, digests);
+
+        // Act
+        StreamingZipExtractor.Result result = extractor.extract(new ByteArrayInputStream(zip), spool);
+        extractor.extract(spool);
+
+        // Assert
+        assertEquals(StreamingZipExtractor.Result.PARTIALLY_SPOOLED, result);
+        assertEquals(zip.length, Files.size(spool));
+        assertEquals(big, Files.readString(destination.resolve("bagit.txt")));
+        assertEquals("data/mets.xml", Files.readString(destination.resolve("data/mets.xml")));
+        assertEquals("data/image.txt", Files.readString(destination.resolve("data/image.txt")));
+        assertEquals(3, digests.size());
+        assertEquals(sha512(big), digests.get("bagit.txt"));
+        assertEquals(sha512("data/image.txt"), digests.get("data/image.txt"));
+    }
+
+    @Test
+    public void acceptPartiallySpooledZip() throws Exception {
+        // Arrange: the spool file of a partially streamed ZIP starts with a hole and does not end with .zip
+        byte[] zip = createStoredZip(new String[] {"bagit.txt", "bagit.txt\n".repeat(20000)},
+            new String[] {"data/mets.xml", null});
+        Path spool = tempDir.resolve("upload.bin");
+        FormParams params = new FormParams();
+        params.setFile(spool.toFile());
+        params.setExtractedDir(tempDir.resolve("extracted"));
+        StreamingZipExtractor.Result result = new StreamingZipExtractor(params.getExtractedDir(), params.getDigests())
+            .extract(new ByteArrayInputStream(zip), spool);
+        params.setExtracted(result == StreamingZipExtractor.Result.STREAMED);
+        params.setPartiallySpooled(result == StreamingZipExtractor.Result.PARTIALLY_SPOOLED);
+        TrackingInfo info = new TrackingInfo("user", TrackingStatus.PROCESSING, "Processing...", null);
+        TrackingRepository trackingRepository = mock(TrackingRepository.class);
+
+        // Act
+        ImportUtils.checkIsZip(params, info, tempDir, trackingRepository);
+
+        // Assert: the content check alone would reject it
+        assertEquals(StreamingZipExtractor.Result.PARTIALLY_SPOOLED, result);
+        assertTrue(Files.exists(spool));
+        assertThrows(
+            HttpClientErrorException.class,
+            () -> ImportUtils.checkIsZip(spool.toFile(), info, tempDir.resolve("other"), trackingRepository)
+        );
+    }
+
+    @Test
+    public void rejectNonZip() {
+        byte[] noZip = "this is not a zip, but long enough for a header".getBytes(StandardCharsets.UTF_8);
+        StreamingZipExtractor extractor = new StreamingZipExtractor(tempDir.resolve("extracted"), new DigestTable());
+
+        assertThrows(
+            StreamingZipExtractor.NotAZipException.class,
+            () -> extractor.extract(new ByteArrayInputStream(noZip), tempDir.resolve("upload.zip"))
+        );
+    }
+
+    @Test
+    public void rejectEntryOutsideDestination() throws Exception {
+        byte[] zip = createZip("../evil.txt");
+        StreamingZipExtractor extractor = new StreamingZipExtractor(tempDir.resolve("extracted"), new DigestTable());
+
+        ZipException ex = assertThrows(
+            ZipException.class,
+            () -> extractor.extract(new ByteArrayInputStream(zip), tempDir.resolve("upload.zip"))
+        );
+        assertTrue(ex.getMessage().contains("evil.txt"));
+        assertFalse(Files.exists(tempDir.resolve("evil.txt")));
+    }
+
+    private static String sha512(String content) {
+        return DigestUtils.sha512Hex(content);
+    }
+
+    /**
+     * Create a ZIP containing a file for every name with its name as content
+     */
+    private static byte[] createZip(String... names) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            for (String name : names) {
+                zos.putNextEntry(new ZipEntry(name));
+                zos.write(name.getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Create a ZIP of STORED entries as name and content. A null content means the name is the content and the entry
+     * is written with a data descriptor, which ZipInputStream cannot read for STORED entries
+     */
+    private static byte[] createStoredZip(String[]... entries) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ByteArrayOutputStream central = new ByteArrayOutputStream();
+        for (String[] entry : entries) {
+            boolean descriptor = entry[1] == null;
+            byte[] name = entry[0].getBytes(StandardCharsets.UTF_8);
+            byte[] data = (descriptor ? entry[0] : entry[1]).getBytes(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            int offset = bos.size();
+            int flags = descriptor ? 0x8 : 0;
+
+            writeInt(bos, 0x04034b50);
+            writeShort(bos, 10);
+            writeShort(bos, flags);
+            writeShort(bos, 0);
+            writeInt(bos, 0);
+            writeInt(bos, descriptor ? 0 : (int)crc.getValue());
+            writeInt(bos, descriptor ? 0 : data.length);
+            writeInt(bos, descriptor ? 0 : data.length);
+            writeShort(bos, name.length);
+            writeShort(bos, 0);
+            bos.writeBytes(name);
+            bos.writeBytes(data);
+            if (descriptor) {
+                writeInt(bos, 0x08074b50);
+                writeInt(bos, (int)crc.getValue());
+                writeInt(bos, data.length);
+                writeInt(bos, data.length);
+            }
+
+            writeInt(central, 0x02014b50);
+            writeShort(central, 20);
+            writeShort(central, 10);
+            writeShort(central, flags);
+            writeShort(central, 0);
+            writeInt(central, 0);
+            writeInt(central, (int)crc.getValue());
+            writeInt(central, data.length);
+            writeInt(central, data.length);
+            writeShort(central, name.length);
+            writeShort(central, 0);
+            writeShort(central, 0);
+            writeShort(central, 0);
+            writeShort(central, 0);
+            writeInt(central, 0);
+            writeInt(central, offset);
+            central.writeBytes(name);
+        }
+        int centralOffset = bos.size();
+        bos.writeBytes(central.toByteArray());
+        writeInt(bos, 0x06054b50);
+        writeShort(bos, 0);
+        writeShort(bos, 0);
+        writeShort(bos, entries.length);
+        writeShort(bos, entries.length);
+        writeInt(bos, central.size());
+        writeInt(bos, centralOffset);
+        writeShort(bos, 0);
+        return bos.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value & 0xffff);
+        writeShort(out, (value >> 16) & 0xffff);
+    }
+}
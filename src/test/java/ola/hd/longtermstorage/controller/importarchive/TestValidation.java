@@ -0,0 +1,56 @@
+package ola.hd.longtermstorage.controller.importarchive;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import gov.loc.repository.bagit.domain.Bag;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import ola.hd.longtermstorage.exceptions.MetsInvalidException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+public class TestValidation {
+
+    private Path bagDir;
+
+    @Before
+    public void setUp() throws IOException {
+        bagDir = Files.createTempDirectory("olahd-test");
+        Files.createDirectories(bagDir.resolve("data"));
+    }
+
+    @After
+    public void tearDown() {
+        FileSystemUtils.deleteRecursively(bagDir.toFile());
+    }
+
+    @Test
+    public void validateMetsWithBundledSchemas() throws IOException {
+        // The schema imports xlink.xsd, which must be taken from the bundle and not from loc.gov
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("test-mets.xml")) {
+            Files.copy(in, bagDir.resolve("data/mets.xml"));
+        }
+
+        assertDoesNotThrow(() -> Validation.validateMetsfileSchema(createBag()));
+    }
+
+    @Test
+    public void rejectInvalidMets() throws IOException {
+        Files.writeString(bagDir.resolve("data/mets.xml"),
+            "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\"><mets:unknown/></mets:mets>"
+        );
+
+        assertThrows(MetsInvalidException.class, () -> Validation.validateMetsfileSchema(createBag()));
+    }
+
+    private Bag createBag() {
+        Bag bag = new Bag();
+        bag.setRootDir(bagDir);
+        return bag;
+    }
+}
@@ -0,0 +1,73 @@
+package ola.hd.longtermstorage.controller.importarchive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class TestValidationStages {
+
+    @Test
+    public void runIndependentStagesConcurrently() throws Exception {
+        // Both stages wait for each other, so this only finishes if they run at the same time
+        CountDownLatch latch = new CountDownLatch(2);
+        AtomicBoolean rootDone = new AtomicBoolean();
+        ValidationStages stages = new ValidationStages("test")
+            .add("root", () -> rootDone.set(true))
+            .add("a", () -> await(latch, rootDone), "root")
+            .add("b", () -> await(latch, rootDone), "root");
+
+        stages.run();
+
+        assertEquals(3, stages.getTimings().size());
+        assertFalse(stages.getCancellation("b").get());
+    }
+
+    @Test
+    public void reportErrorOfFirstStage() {
+        // "second" fails first, but the error of "first" is reported
+        CountDownLatch secondFailed = new CountDownLatch(1);
+        ValidationStages stages = new ValidationStages("test")
+            .add("first", () -> {
+                secondFailed.await(10, TimeUnit.SECONDS);
+                throw new IllegalStateException("first");
+            })
+            .add("second", () -> {
+                secondFailed.countDown();
+                throw new IllegalArgumentException("second");
+            });
+
+        IllegalStateException ex = assertThrows(IllegalStateException.class, stages::run);
+        assertEquals("first", ex.getMessage());
+        assertFalse(stages.getCancellation("first").get());
+    }
+
+    @Test
+    public void skipStagesAfterFailure() {
+        AtomicBoolean dependentRun = new AtomicBoolean();
+        ValidationStages stages = new ValidationStages("test")
+            .add("failing", () -> {
+                throw new IllegalStateException("failed");
+            })
+            .add("dependent", () -> dependentRun.set(true), "failing")
+            .add("cancelled", () -> {
+                throw new CancellationException();
+            });
+
+        assertThrows(IllegalStateException.class, stages::run);
+        assertFalse(dependentRun.get());
+        assertTrue(stages.getCancellation("cancelled").get());
+    }
+
+    private static void await(CountDownLatch latch, AtomicBoolean rootDone) throws InterruptedException {
+        assertTrue(rootDone.get());
+        latch.countDown();
+        assertTrue(latch.await(10, TimeUnit.SECONDS), "stages did not run concurrently");
+    }
+}
@@ -0,0 +1,147 @@
+package ola.hd.longtermstorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+public class TestCdstarService {
+
+    private static final String PREV_MANIFEST = "aaa  data/mets.xml\nbbb  data/a b.txt\nccc  data/img.tif\n"
+        + "ddd  data/changed.txt\n";
+
+    private static final String MANIFEST = "aaa  data/mets.xml\nbbb  data/a b.txt\nccc  data/img.tif\n"
+        + "eee  data/changed.txt\n";
+
+    private MockWebServer server;
+
+    private CdstarService cdstarService;
+
+    private ArchiveIdResolver archiveIdResolver;
+
+    private Path extractedDir;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        archiveIdResolver = mock(ArchiveIdResolver.class);
+        cdstarService = new CdstarService(new OkHttpClient(), new ObjectMapper(), archiveIdResolver);
+        ReflectionTestUtils.setField(cdstarService, "url", server.url("/v3/").toString());
+        ReflectionTestUtils.setField(cdstarService, "vault", "vault");
+        ReflectionTestUtils.setField(cdstarService, "username", "user");
+        ReflectionTestUtils.setField(cdstarService, "password", "secret");
+        ReflectionTestUtils.setField(cdstarService, "mirrorProfile", "mirror");
+        ReflectionTestUtils.setField(cdstarService, "offlineProfile", "cold");
+        ReflectionTestUtils.setField(cdstarService, "offlineMimeTypes", "image/tiff");
+        ReflectionTestUtils.setField(cdstarService, "uploadParallelism", 1);
+        ReflectionTestUtils.setField(cdstarService, "stateStableSeconds", 300L);
+        ReflectionTestUtils.setField(cdstarService, "stateTransientSeconds", 0L);
+        cdstarService.afterPropertiesSet();
+
+        extractedDir = Files.createTempDirectory("olahd-test");
+        Files.writeString(extractedDir.resolve("manifest-sha512.txt"), MANIFEST);
+        Files.createDirectories(extractedDir.resolve("data"));
+        for (String name : new String[] {"mets.xml", "a b.txt", "img.tif", "changed.txt"}) {
+            Files.writeString(extractedDir.resolve("data").resolve(name), name);
+        }
+        // Magic number of a TIFF, so the image is detected as offline type
+        Files.write(extractedDir.resolve("data/img.tif"), new byte[] {'I', 'I', 42, 0, 8, 0, 0, 0});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cdstarService.destroy();
+        server.shutdown();
+        FileSystemUtils.deleteRecursively(extractedDir.toFile());
+    }
+
+    @Test
+    public void copyUnchangedFiles() throws Exception {
+        // Arrange: copying to the offline archive fails
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String path = request.getPath();
+                if (path.equals("/v3/vault/prev-online/manifest-sha512.txt")) {
+                    return new MockResponse().setBody(PREV_MANIFEST);
+                } else if (path.equals("/v3/vault/prev-offline")) {
+                    return new MockResponse().setBody("{\"state\": \"open\"}");
+                } else if (path.equals("/v3/vault/online")) {
+                    return new MockResponse().setBody("{}");
+                }
+                return new MockResponse().setResponseCode(500);
+            }
+        });
+        Set<String> copiedOnline = new HashSet<>();
+        Set<String> copiedOffline = new HashSet<>();
+
+        // Act
+        cdstarService.copyUnchangedFiles(extractedDir, "tx-1", "online", "offline", "prev-online", "prev-offline",
+            copiedOnline, copiedOffline
+        );
+
+        // Assert: files of offline types are not copied to the online archive
+        assertEquals(Set.of("data/mets.xml", "data/a b.txt"), copiedOnline);
+        assertTrue(copiedOffline.isEmpty());
+
+        RecordedRequest copy = findRequest("POST", "/v3/vault/online");
+        assertEquals("tx-1", copy.getHeader("X-Transaction"));
+        assertTrue(copy.getHeader("Authorization").startsWith("Basic "));
+        String body = copy.getBody().readUtf8();
+        assertTrue(body.contains("name=\"copy:/data/a%20b.txt\"\r\nContent-Length: 24\r\n\r\nprev-online/data/a b.txt"),
+            body
+        );
+        assertTrue(body.contains("name=\"copy:/data/mets.xml\""), body);
+        assertTrue(!body.contains("img.tif") && !body.contains("changed.txt"), body);
+
+        RecordedRequest offlineCopy = findRequest("POST", "/v3/vault/offline");
+        String offlineBody = offlineCopy.getBody().readUtf8();
+        assertTrue(offlineBody.contains("prev-offline/data/img.tif"), offlineBody);
+    }
+
+    @Test
+    public void stateOfOldProfileIsNotCached() throws Exception {
+        // Arrange: right after moving to disk CDSTAR still reports the archive as archived
+        when(archiveIdResolver.resolve(eq("pid-1"), eq("mirror"), any())).thenReturn("mirror-1");
+        server.enqueue(new MockResponse().setBody("{\"state\": \"archived\", \"profile\": \"mirror\"}"));
+        server.enqueue(new MockResponse().setBody("{\"state\": \"open\", \"profile\": \"mirror\"}"));
+
+        // Act and assert: the finished move is seen at the next lookup, the open state is cached
+        assertFalse(cdstarService.isArchiveOnDisk("pid-1"));
+        assertTrue(cdstarService.isArchiveOnDisk("pid-1"));
+        assertTrue(cdstarService.isArchiveOnDisk("pid-1"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    private RecordedRequest findRequest(String method, String path) throws InterruptedException {
+        RecordedRequest request;
+        while ((request = server.takeRequest(1, TimeUnit.SECONDS)) != null) {
+            if (request.getMethod().equals(method) && request.getPath().equals(path)) {
+                return request;
+            }
+        }
+        throw new AssertionError("No request " + method + " " + path);
+    }
+}
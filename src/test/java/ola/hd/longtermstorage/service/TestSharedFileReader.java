@@ -0,0 +1,90 @@
+package ola.hd.longtermstorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSharedFileReader {
+
+    private static final MediaType MEDIA_TYPE = MediaType.parse("image/tiff");
+
+    /** Ten and a half chunks */
+    private final byte[] content = new byte[SharedFileReader.CHUNK_SIZE * 21 / 2];
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(content);
+        file = Files.createTempFile("shared-file", ".tif");
+        Files.write(file, content);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void readFileOnceForConcurrentBodies() throws Exception {
+        try (SharedFileReader reader = new SharedFileReader(file, 2L * content.length)) {
+            RequestBody online = reader.newBody(MEDIA_TYPE);
+            RequestBody offline = reader.newBody(MEDIA_TYPE);
+
+            CompletableFuture<byte[]> onlineContent = CompletableFuture.supplyAsync(() -> write(online));
+            byte[] offlineContent = write(offline);
+
+            assertArrayEquals(content, onlineContent.get());
+            assertArrayEquals(content, offlineContent);
+            assertEquals(content.length, online.contentLength());
+            assertEquals(content.length, reader.getBytesRead());
+        }
+    }
+
+    @Test
+    public void readOnOwnIfTooFarAhead() throws Exception {
+        try (SharedFileReader reader = new SharedFileReader(file, 2 * SharedFileReader.CHUNK_SIZE)) {
+            RequestBody online = reader.newBody(MEDIA_TYPE);
+            RequestBody offline = reader.newBody(MEDIA_TYPE);
+
+            // The online body is written completely before the offline one starts
+            assertArrayEquals(content, write(online));
+            assertArrayEquals(content, write(offline));
+
+            // Only the two kept chunks were shared
+            assertEquals(2L * content.length - 2 * SharedFileReader.CHUNK_SIZE, reader.getBytesRead());
+        }
+    }
+
+    @Test
+    public void writeBodyAgainOnRetry() throws Exception {
+        try (SharedFileReader reader = new SharedFileReader(file, 2L * content.length)) {
+            RequestBody online = reader.newBody(MEDIA_TYPE);
+            RequestBody offline = reader.newBody(MEDIA_TYPE);
+
+            assertArrayEquals(content, write(online));
+            assertArrayEquals(content, write(online));
+            assertArrayEquals(content, write(offline));
+        }
+    }
+
+    private static byte[] write(RequestBody body) {
+        try (Buffer buffer = new Buffer()) {
+            body.writeTo(buffer);
+            return buffer.readByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ola.hd.longtermstorage.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import ola.hd.longtermstorage.Constants;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+public class TestBagitManifestValidation {
+
+    private static final int FILE_COUNT = 50;
+
+    private Path bagDir;
+
+    @Before
+    public void setUp() throws IOException {
+        bagDir = Files.createTempDirectory("olahd-test");
+        StringBuilder manifest = new StringBuilder();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            String name = "data/file" + i + ".txt";
+            byte[] content = new byte[(i + 1) * 4096];
+            content[0] = (byte)i;
+            Files.createDirectories(bagDir.resolve("data"));
+            Files.write(bagDir.resolve(name), content);
+            manifest.append(DigestUtils.sha512Hex(content)).append("  ").append(name).append("\n");
+        }
+        Files.writeString(bagDir.resolve(Constants.PAYLOAD_MANIFEST_NAME), manifest);
+        writeTagManifest();
+    }
+
+    @After
+    public void tearDown() {
+        FileSystemUtils.deleteRecursively(bagDir.toFile());
+    }
+
+    @Test
+    public void validBag() {
+        // Small budget so that files have to wait for each other
+        BagitManifestValidation validation = new BagitManifestValidation(bagDir, new DigestTable(), 16 * 1024);
+
+        List<String> errors = validation.validate(false);
+
+        assertTrue(errors.isEmpty(), "Unexpected errors: " + errors);
+        assertEquals(FILE_COUNT + 1, validation.getThroughput().getFiles());
+    }
+
+    @Test
+    public void reportMismatch() throws IOException {
+        // Arrange
+        Files.write(bagDir.resolve("data/file10.txt"), "changed".getBytes(StandardCharsets.UTF_8));
+
+        // Act
+        List<String> errors = new BagitManifestValidation(bagDir).validate(false);
+
+        // Assert
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).contains("data/file10.txt"), errors.get(0));
+    }
+
+    @Test
+    public void useKnownDigests() throws IOException {
+        // Arrange: file content is wrong, but the digest from extracting is what counts
+        byte[] original = Files.readAllBytes(bagDir.resolve("data/file3.txt"));
+        Files.write(bagDir.resolve("data/file3.txt"), "changed".getBytes(StandardCharsets.UTF_8));
+        DigestTable digests = new DigestTable();
+        digests.put("data/file3.txt", DigestUtils.sha512Hex(original));
+
+        // Act
+        List<String> errors = new BagitManifestValidation(bagDir, digests).validate(false);
+
+        // Assert
+        assertTrue(errors.isEmpty(), "Unexpected errors: " + errors);
+    }
+
+    private void writeTagManifest() throws IOException {
+        byte[] manifest = Files.readAllBytes(bagDir.resolve(Constants.PAYLOAD_MANIFEST_NAME));
+        Files.writeString(
+            bagDir.resolve(Constants.TAG_MANIFEST_NAME),
+            DigestUtils.sha512Hex(manifest) + "  " + Constants.PAYLOAD_MANIFEST_NAME + "\n"
+        );
+    }
+}
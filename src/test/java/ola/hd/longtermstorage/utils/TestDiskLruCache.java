@@ -0,0 +1,97 @@
+package ola.hd.longtermstorage.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+public class TestDiskLruCache {
+
+    private Path dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("disk-lru-cache");
+    }
+
+    @After
+    public void deleteDir() throws IOException {
+        FileSystemUtils.deleteRecursively(dir);
+    }
+
+    @Test
+    public void putAndGet() throws IOException {
+        DiskLruCache cache = new DiskLruCache(dir, 100);
+
+        put(cache, "pid-1\ndata/mets.xml", "<mets/>");
+
+        assertEquals("<mets/>", get(cache, "pid-1\ndata/mets.xml"));
+        assertNull(cache.get("pid-2\ndata/mets.xml"));
+        assertEquals(7, cache.length("pid-1\ndata/mets.xml"));
+        assertEquals(-1, cache.length("pid-2\ndata/mets.xml"));
+        assertEquals(7, cache.size());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        DiskLruCache cache = new DiskLruCache(dir, 30);
+        put(cache, "a", "0123456789");
+        put(cache, "b", "0123456789");
+        put(cache, "c", "0123456789");
+
+        // "a" is used, so "b" is the least recently used entry now
+        get(cache, "a");
+        put(cache, "d", "0123456789");
+
+        assertNotNull(get(cache, "a"));
+        assertNull(cache.get("b"));
+        assertNotNull(get(cache, "c"));
+        assertNotNull(get(cache, "d"));
+        assertEquals(30, cache.size());
+    }
+
+    @Test
+    public void keepEntriesAfterRestart() throws IOException {
+        DiskLruCache cache = new DiskLruCache(dir, 100);
+        put(cache, "a", "first");
+        put(cache, "a", "second");
+
+        DiskLruCache restarted = new DiskLruCache(dir, 100);
+
+        assertEquals("second", get(restarted, "a"));
+        assertEquals(6, restarted.size());
+    }
+
+    @Test
+    public void snapshotSurvivesEviction() throws IOException {
+        DiskLruCache cache = new DiskLruCache(dir, 10);
+        put(cache, "a", "0123456789");
+
+        Path snapshot = cache.snapshot("a");
+        put(cache, "b", "0123456789");
+
+        assertNull(cache.get("a"));
+        assertNull(cache.snapshot("a"));
+        assertEquals("0123456789", Files.readString(snapshot));
+    }
+
+    private static void put(DiskLruCache cache, String key, String content) throws IOException {
+        cache.put(key, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String get(DiskLruCache cache, String key) throws IOException {
+        try (InputStream in = cache.get(key)) {
+            return in != null ? new String(in.readAllBytes(), StandardCharsets.UTF_8) : null;
+        }
+    }
+}
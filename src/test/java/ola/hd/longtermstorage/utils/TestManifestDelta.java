@@ -0,0 +1,36 @@
+package ola.hd.longtermstorage.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Set;
+import org.junit.Test;
+
+public class TestManifestDelta {
+
+    @Test
+    public void compareManifests() {
+        // Arrange
+        String previous = "aaa  data/mets.xml\n"
+            + "bbb  data/OCR-D-IMG/0001.tif\n"
+            + "ccc  data/OCR-D-IMG/0002.tif\n"
+            + "ddd  data/removed.xml\n";
+        String current = "AAA  data/mets.xml\r\n"
+            + "bbb  data/OCR-D-IMG/0001.tif\r\n"
+            + "xxx  data/OCR-D-IMG/0002.tif\r\n"
+            + "eee  data/OCR-D-GT/0001.xml\r\n";
+
+        // Act
+        ManifestDelta delta = new ManifestDelta(previous, current);
+
+        // Assert
+        assertEquals(Set.of("data/mets.xml", "data/OCR-D-IMG/0001.tif"), delta.getUnchanged());
+        assertEquals(Set.of("data/OCR-D-IMG/0002.tif", "data/OCR-D-GT/0001.xml"), delta.getChanged());
+    }
+
+    @Test
+    public void pathWithSpaces() {
+        ManifestDelta delta = new ManifestDelta("aaa  data/a file.xml\n", "aaa  data/a file.xml\n");
+
+        assertEquals(Set.of("data/a file.xml"), delta.getUnchanged());
+    }
+}
@@ -1,5 +1,6 @@
 package ola.hd.longtermstorage.utils;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -8,13 +9,18 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.Namespace;
 import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
 import org.junit.Test;
 import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.Resource;
@@ -63,6 +69,103 @@ public class TestMetsWebConverter {
     }
 
 
+    @Test
+    public void sameOutputAsDomConversion() throws Exception {
+        String host = "http://dummy-host";
+        for (byte[] mets : List.of(
+            getTestMetsfile().readAllBytes(), getTestMetsfile2().readAllBytes(), MIXED_CONTENT_METS.getBytes("utf-8")
+        )) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            convertMetsWithDom("dummy-pid", host, new ByteArrayInputStream(mets), expected);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            MetsWebConverter.convertMets("dummy-pid", host, new ByteArrayInputStream(mets), actual);
+
+            assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** METS-file with content the test files do not have */
+    private static final String MIXED_CONTENT_METS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<!-- before root --><?pi-before data?>\n"
+        + "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n"
+        + "  <mets:metsHdr>  some <b>mixed</b>   text &amp; &lt;escapes&gt; &#13; \"quotes\" \uD83D\uDE00 <![CDATA[ <raw> ]]>\n"
+        + "    <empty/><blank>   </blank><tail><x/> tail  <y/>  </tail><cd>  <![CDATA[ only ]]> </cd><!--comment--><?pi?>\n"
+        + "    <attr a=\"x&#9;y&#10;z &quot;q&quot; &lt;\" xml:lang=\"de\"/>\n"
+        + "    <pre xml:space=\"preserve\">  keep\n  <i> this </i>  </pre>\n"
+        + "    <other xmlns=\"urn:other\"><inner xmlns=\"\"/><p:x xmlns:p=\"urn:p\" p:y=\"1\"/></other>\n"
+        + "  </mets:metsHdr>\n"
+        + "  <mets:fileSec>\n"
+        + "    <mets:fileGrp USE=\"OCR-D-IMG\">\n"
+        + "      <mets:file ID=\"IMG_1\"><mets:FLocat OTHERLOCTYPE=\"FILE\" xlink:href=\"img/1.tif\"/></mets:file>\n"
+        + "      <mets:file ID=\"IMG_2\"><mets:FLocat xlink:href=\"img/2.tif\" LOCTYPE=\"OTHER\" OTHERLOCTYPE=\"FILE\"/></mets:file>\n"
+        + "      <mets:file ID=\"IMG_3\"><mets:FLocat LOCTYPE=\"URL\" xlink:href=\"http://host/a?x=1&amp;path=3.tiff\"/></mets:file>\n"
+        + "    </mets:fileGrp>\n"
+        + "    <mets:fileGrp USE=\"OCR-D-GT\">\n"
+        + "      <mets:file ID=\"GT_1\"><mets:FLocat OTHERLOCTYPE=\"FILE\" xlink:href=\"/abs/1.tif\"/></mets:file>\n"
+        + "    </mets:fileGrp>\n"
+        + "  </mets:fileSec>\n"
+        + "</mets:mets>\n"
+        + "<!-- after root -->\n";
+
+    /**
+     * The conversion as it was done before streaming: with a JDOM document
+     */
+    private static void convertMetsWithDom(String pid, String host, InputStream ins, ByteArrayOutputStream outs)
+            throws Exception {
+        Pattern pathPattern = Pattern.compile("[\\?&]path=([^&#]*)");
+        Namespace nsMets = Namespace.getNamespace("http://www.loc.gov/METS/");
+        Namespace nsXlink = Namespace.getNamespace("http://www.w3.org/1999/xlink");
+        String prefixExport = "%s/api/export/file?id=%s&path=%s";
+        String prefixTiff = "%s/api/export/tiff-as-jpeg?id=%s&path=%s";
+
+        Document doc = new SAXBuilder().build(ins);
+        List<Element> listFileGrp = doc.getRootElement().getChildren("fileSec", nsMets).get(0)
+            .getChildren("fileGrp", nsMets);
+        List<String> uses = new ArrayList<>();
+        for (Element grp : listFileGrp) {
+            uses.add(grp.getAttributeValue("USE"));
+            for (Element file : grp.getChildren("file", nsMets)) {
+                for (Element flocat : file.getChildren("FLocat", nsMets)) {
+                    String path = flocat.getAttributeValue("href", nsXlink);
+                    if ("FILE".equals(flocat.getAttributeValue("OTHERLOCTYPE"))
+                            && !path.startsWith("http") && !path.startsWith("/")) {
+                        flocat.setAttribute("href", String.format(prefixExport, host, pid, path), nsXlink);
+                        flocat.setAttribute("LOCTYPE", "URL");
+                        flocat.removeAttribute("OTHERLOCTYPE");
+                    }
+                }
+            }
+        }
+        if (!uses.contains("DEFAULT") && uses.contains("OCR-D-IMG")) {
+            for (Element grp : listFileGrp) {
+                if (grp.getAttributeValue("USE").equals("OCR-D-IMG")) {
+                    grp.setAttribute("USE", "DEFAULT");
+                }
+            }
+        }
+        for (Element grp : listFileGrp) {
+            if ("DEFAULT".equals(grp.getAttributeValue("USE"))) {
+                for (Element file : grp.getChildren("file", nsMets)) {
+                    for (Element flocat : file.getChildren("FLocat", nsMets)) {
+                        if ("URL".equals(flocat.getAttributeValue("LOCTYPE"))) {
+                            Matcher matcher = pathPattern.matcher(flocat.getAttributeValue("href", nsXlink));
+                            if (matcher.find() && matcher.group(1).matches(".*\\.tiff?")) {
+                                flocat.setAttribute(
+                                    "href", String.format(prefixTiff, host, pid, matcher.group(1)), nsXlink
+                                );
+                            }
+                        }
+                    }
+                }
+                break;
+            }
+        }
+
+        Format format = Format.getPrettyFormat();
+        format.setIndent("   ");
+        new XMLOutputter(format).output(doc, outs);
+    }
+
     /**
      * Read the test METS-file from resource folder to an InputStream
      *